@@ -0,0 +1,43 @@
+#!/bin/sh
+# Measures cold start times of the game, with and without an AppCDS archive.
+#
+# Usage: scripts/startup-benchmark.sh [runs] [classpath]
+#
+# Run it from the directory holding images/ and firework.png. The first run
+# with -XX:ArchiveClassesAtExit writes freecell.jsa, an archive of every class
+# loaded during startup; later runs map it with -XX:SharedArchiveFile instead
+# of loading and verifying those classes again. The archive is only valid for
+# the JVM that created it, so build it on each kiosk image rather than
+# copying it between machines.
+
+RUNS=${1:-10}
+CP=${2:-bin}
+MAIN=com.github.jflaherty.cardgames.freecell.FreeCellMain
+ARCHIVE=freecell.jsa
+BENCH=-Dfreecell.startup.benchmark=true
+
+run() {
+	total_frame=0
+	total_interactive=0
+	i=0
+	while [ $i -lt $RUNS ]; do
+		out=$(java "$@" $BENCH -cp "$CP" $MAIN)
+		frame=$(echo "$out" | sed -n 's/time-to-first-frame-ms=//p')
+		interactive=$(echo "$out" | sed -n 's/time-to-interactive-ms=//p')
+		total_frame=$((total_frame + frame))
+		total_interactive=$((total_interactive + interactive))
+		i=$((i + 1))
+	done
+	echo "  mean time to first frame: $((total_frame / RUNS)) ms"
+	echo "  mean time to interactive: $((total_interactive / RUNS)) ms"
+}
+
+if [ ! -f $ARCHIVE ]; then
+	echo "Creating $ARCHIVE"
+	java -XX:ArchiveClassesAtExit=$ARCHIVE $BENCH -cp "$CP" $MAIN > /dev/null
+fi
+
+echo "Without class data sharing archive ($RUNS runs):"
+run -Xshare:auto
+echo "With $ARCHIVE ($RUNS runs):"
+run -XX:SharedArchiveFile=$ARCHIVE
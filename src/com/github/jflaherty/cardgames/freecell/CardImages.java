@@ -0,0 +1,193 @@
+package com.github.jflaherty.cardgames.freecell;
+
+import java.awt.Image;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Loads the Card face images and the fireworks image in the background so the
+ * table can be shown before any image is decoded. preload() starts decoding
+ * every image in parallel on a small pool of daemon threads; until an image
+ * is ready the getters return null and the Card is drawn as a plain
+ * placeholder. A listener is told each time an image is ready so the table
+ * can be repainted. Face images are read from images/ as, for example,
+ * h12.png for the queen of hearts
+ */
+public final class CardImages
+{
+	// Index of the fireworks image after the 52 Card faces
+	private static final int FIREWORK = CardTable.NO_OF_CARDS;
+	private static final int NO_OF_IMAGES = FIREWORK + 1;
+
+	private static final AtomicReferenceArray<Image> images = new AtomicReferenceArray<Image>(
+			NO_OF_IMAGES);
+	// Set once an image has been queued so it is only loaded once
+	private static final AtomicReferenceArray<Boolean> requested = new AtomicReferenceArray<Boolean>(
+			NO_OF_IMAGES);
+	private static final AtomicInteger noOfLoaded = new AtomicInteger();
+
+	private static ExecutorService loader;
+	private static volatile Runnable listener;
+
+	/**
+	 * The images are never instantiated
+	 */
+	private CardImages()
+	{
+	}
+
+	/**
+	 * Sets the listener told each time an image finishes loading. It is
+	 * called on a loader thread
+	 *
+	 * @param imageListener the listener, for example one that repaints
+	 */
+	public static void setListener(Runnable imageListener)
+	{
+		listener = imageListener;
+	}
+
+	/**
+	 * Starts loading all of the images in the background
+	 */
+	public static void preload()
+	{
+		for (int index = 0; index < NO_OF_IMAGES; index++)
+			request(index);
+	}
+
+	/**
+	 * Returns the face image of a Card, starting to load it if needed
+	 *
+	 * @param id the id of the Card
+	 * @return the image, or null if it is not loaded yet
+	 */
+	public static Image getFace(byte id)
+	{
+		Image image = images.get(id);
+		if (image == null)
+			request(id);
+		return image;
+	}
+
+	/**
+	 * Returns the fireworks image shown when the game is won, starting to
+	 * load it if needed
+	 *
+	 * @return the image, or null if it is not loaded yet
+	 */
+	public static Image getFireWork()
+	{
+		Image image = images.get(FIREWORK);
+		if (image == null)
+			request(FIREWORK);
+		return image;
+	}
+
+	/**
+	 * Checks if every image has finished loading (or failed to load)
+	 *
+	 * @return true if all of the images are done
+	 */
+	public static boolean allLoaded()
+	{
+		return noOfLoaded.get() == NO_OF_IMAGES;
+	}
+
+	/**
+	 * Queues an image to be loaded unless it has already been queued
+	 *
+	 * @param index the index of the image
+	 */
+	private static void request(final int index)
+	{
+		if (!requested.compareAndSet(index, null, Boolean.TRUE))
+			return;
+		getLoader().execute(new Runnable()
+		{
+			public void run()
+			{
+				images.set(index, read(fileNames(index)));
+				noOfLoaded.incrementAndGet();
+				Runnable imageListener = listener;
+				if (imageListener != null)
+					imageListener.run();
+			}
+		});
+	}
+
+	/**
+	 * Returns the pool that loads the images, creating it the first time
+	 *
+	 * @return the loader pool
+	 */
+	private static synchronized ExecutorService getLoader()
+	{
+		if (loader == null)
+		{
+			int noOfThreads = Math.max(1, Math.min(4, Runtime.getRuntime()
+					.availableProcessors()));
+			loader = Executors.newFixedThreadPool(noOfThreads,
+					new ThreadFactory()
+					{
+						public Thread newThread(Runnable task)
+						{
+							Thread thread = new Thread(task, "card-images");
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+		}
+		return loader;
+	}
+
+	/**
+	 * Returns the file names to try for an image. Some of the face images
+	 * have an upper case extension
+	 *
+	 * @param index the index of the image
+	 * @return the file names to try in order
+	 */
+	private static String[] fileNames(int index)
+	{
+		if (index == FIREWORK)
+			return new String[] { "firework.png" };
+		byte id = (byte) index;
+		String name = "images" + File.separator
+				+ Character.toLowerCase(CardTable.suitChar(id))
+				+ CardTable.rank(id);
+		return new String[] { name + ".png", name + ".PNG" };
+	}
+
+	/**
+	 * Reads and fully decodes an image from the first file that exists
+	 *
+	 * @param fileNames the file names to try
+	 * @return the image, or null if none of the files could be read
+	 */
+	private static Image read(String[] fileNames)
+	{
+		for (String fileName : fileNames)
+		{
+			File file = new File(fileName);
+			if (!file.exists())
+				continue;
+			try
+			{
+				return ImageIO.read(file);
+			}
+			catch (IOException exp)
+			{
+				System.out.println("Error reading " + fileName);
+			}
+		}
+		return null;
+	}
+}
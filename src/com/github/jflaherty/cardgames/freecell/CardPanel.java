@@ -6,7 +6,6 @@ import java.awt.event.MouseMotionListener;
 import java.util.ArrayList;
 import java.util.LinkedList;
 
-import javax.swing.ImageIcon;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 
@@ -34,13 +33,10 @@ public class CardPanel extends JPanel implements MouseListener,
 	private final Color TABLE_COLOUR = new Color(140, 225, 140);
 	private final int ANIMATION_FRAMES = 6;
 
-	// Load up the fireworks image
-	public static final Image fireWork = new ImageIcon("firework.png")
-			.getImage();
-
-	// Constants for layout of card area
-	private final int NO_OF_CASCADES = 8;
-	private final int NO_OF_FREECELLS = 4;
+	// Constants for layout of card area. The Cascades and the top row are
+	// squeezed together if the variant has more Hands than fit the spacing
+	private final int NO_OF_CASCADES;
+	private final int NO_OF_FREECELLS;
 	private final int NO_OF_FOUNDATIONS = 4;
 	private final int CASCADE_X = 30;
 	private final int CASCADE_Y = 150;
@@ -48,13 +44,27 @@ public class CardPanel extends JPanel implements MouseListener,
 	private final int FREECELL_X = 30;
 	private final int FREECELL_Y = 30;
 	private final int TOP_SPACING = 90;
-	private final int FOUNDATION_X = 425;
+	private final int FOUNDATION_GAP = 35;
 	private final int FOUNDATION_Y = 30;
 
+	// The rules of the game being played
+	private final Variant variant;
+
 	// Variables for the Freecell Game
 	private FreeCellMain parentFrame;
 	private LinkedList<Move> moves;
 
+	// The board after each Move in moves, led by the dealt board. Only the
+	// event thread changes the history, but the current board can be read
+	// from any thread since Snapshots never change
+	private LinkedList<Snapshot> boards;
+	private volatile Snapshot board;
+
+	// The game being scrubbed through and the ply shown, or null if the game
+	// is being played
+	private Replay replay;
+	private int replayPly;
+
 	private FreeCellDeck myDeck;
 	private ArrayList<FreeCellHand> allHands;
 	private Movable selectedItem;
@@ -68,19 +78,57 @@ public class CardPanel extends JPanel implements MouseListener,
 	// Variables for the player to customize in the Settings menu
 	private static boolean animate = true;
 	private static boolean autoComplete = true;
+	private static boolean showFrameStats = false;
+	private static boolean skipUnsolvable = false;
+
+	// Records recent frames for the frame statistics overlay
+	private FrameProfiler frameProfiler;
 
 	// Variable for the display of the hint
 	private boolean noMorePossibleMoves;
 
+	// The number of the current deal, 0 for a shuffled one, and the
+	// pre-solved deals, null if there is no deal database
+	private int dealNumber;
+	private DealDatabase dealDatabase;
+
+	// Perfect play for the end of a game, null if there is no tablebase
+	private EndgameTablebase endgame;
+
+	// Timers for the hot paths, only recorded when Metrics are turned on
+	private static final Histogram DEAL_TIME = Metrics.timer("game.deal");
+	private static final Histogram HINT_TIME = Metrics.timer("hint.latency");
+	private static final Histogram MOVE_GENERATION_TIME = Metrics
+			.timer("moves.cascade");
+	private static final Histogram FRAME_TIME = Metrics.timer("paint.frame");
+	private static final Counter MOVES_GENERATED = Metrics
+			.counter("moves.generated");
+
+	/**
+	 * Constructs a CardPanel for the classic game
+	 * 
+	 * @param parentFrame the main Frame that holds this panel
+	 */
+	public CardPanel(FreeCellMain parentFrame)
+	{
+		this(parentFrame, Variant.CLASSIC);
+	}
+
 	/**
 	 * Constructs a CardPanel by setting up the Panel and the Deck and all of
 	 * required Hands to keep track of the free cells, foundations and cascades.
 	 * Also sets up listeners for mouse events and a move list
 	 * 
 	 * @param parentFrame the main Frame that holds this panel
+	 * @param variant the rules of the game to play
 	 */
-	public CardPanel(FreeCellMain parentFrame)
+	public CardPanel(FreeCellMain parentFrame, Variant variant)
 	{
+		this.variant = variant;
+		NO_OF_CASCADES = variant.getNoOfCascades();
+		NO_OF_FREECELLS = variant.getNoOfFreecells();
+		FreeCellHand.variant = variant;
+
 		// Set up the size and background colour
 		setPreferredSize(new Dimension(WIDTH, HEIGHT));
 		setBackground(TABLE_COLOUR);
@@ -91,66 +139,130 @@ public class CardPanel extends JPanel implements MouseListener,
 		this.addMouseListener(this);
 		this.addMouseMotionListener(this);
 
+		// Card images load in the background, so repaint as each one arrives
+		CardImages.setListener(new Runnable()
+		{
+			public void run()
+			{
+				repaint();
+				StartupTimer.checkInteractive();
+			}
+		});
+
 		// Set up the deck, cascades, foundations and free cells
 		myDeck = new FreeCellDeck(startingPoint);
 		allHands = new ArrayList<FreeCellHand>();
 
 		// Create Cascades
+		int cascadeSpacing = CASCADE_SPACING;
+		if (NO_OF_CASCADES > 1)
+			cascadeSpacing = Math.min(CASCADE_SPACING, (WIDTH - 2 * CASCADE_X
+					- Card.WIDTH)
+					/ (NO_OF_CASCADES - 1));
 		int xCascade = CASCADE_X;
 		int yCascade = CASCADE_Y;
 		for (int i = 0; i < NO_OF_CASCADES; i++)
 		{
 			allHands.add(new Cascade(xCascade, yCascade));
-			xCascade += CASCADE_SPACING;
+			xCascade += cascadeSpacing;
 		}
 
 		// Create Free cells
+		int topSpacing = Math.min(TOP_SPACING, (WIDTH - 2 * FREECELL_X
+				- Card.WIDTH - FOUNDATION_GAP)
+				/ (NO_OF_FREECELLS + NO_OF_FOUNDATIONS - 1));
 		int xFreecell = this.FREECELL_X;
 		int yFreecell = this.FREECELL_Y;
 		for (int i = 0; i < this.NO_OF_FREECELLS; i++)
 		{
 			allHands.add(new FreeCell(xFreecell, yFreecell));
-			xFreecell += TOP_SPACING;
+			xFreecell += topSpacing;
 		}
 
 		// Create Foundations
-		int xFoundation = FOUNDATION_X;
+		int xFoundation = FREECELL_X + NO_OF_FREECELLS * topSpacing
+				+ FOUNDATION_GAP;
 		int yFoundation = FOUNDATION_Y;
 		for (int i = 0; i < this.NO_OF_FOUNDATIONS; i++)
 		{
 			allHands.add(new Foundation(xFoundation, yFoundation));
-			xFoundation += TOP_SPACING;
+			xFoundation += topSpacing;
 		}
 
 		movingCard = null;
 		moves = new LinkedList<Move>();
+		boards = new LinkedList<Snapshot>();
+		board = Snapshot.of(new Position(variant));
+		boards.add(board);
+		frameProfiler = new FrameProfiler();
 
 		// Set up the Statistics object to record the results
 		statistic = Statistics.readFromFile("stat.dat");
+		// The deal database and tablebase are only for the classic game
+		if (variant == Variant.CLASSIC)
+		{
+			dealDatabase = DealDatabase.open(DealDatabase.FILE_NAME);
+			endgame = EndgameTablebase.open(EndgameTablebase.FILE_NAME);
+		}
 
 		noMorePossibleMoves = false;
 	}
 
 	/**
 	 * Starts up a new game by clearing all of the Hands, shuffling the Deck and
-	 * dealing new Cards to the Cascades. Also resets the move list
+	 * dealing new Cards to the Cascades. With a deal database a random
+	 * numbered deal is dealt instead, so its solution can give hints, and
+	 * deals it knows cannot be won are skipped if that is turned on. Also
+	 * resets the move list
 	 * @throws EmptyDeckException 
 	 */
 	public void newGame()
 	{
+		long start = Metrics.start();
+		GameEvents.Deal event = new GameEvents.Deal();
+		event.begin();
+		event.animated = animate;
+
 		// Clear out all of the Hands
 		for (Hand next : allHands)
 			next.clear();
 
 		myDeck.shuffle();
-
-		// Deal the Cards to the Cascades (first 8 Hands)
+		dealNumber = 0;
+		if (dealDatabase != null)
+		{
+			do
+				dealNumber = 1 + (int) (Math.random()
+						* Deals.NO_OF_CLASSIC_DEALS);
+			while (skipUnsolvable && dealDatabase
+					.status(dealNumber) == SolverResult.UNSOLVABLE);
+		}
+		parentFrame.setTitle(dealNumber == 0 ? variant.getName() : variant
+				.getName() + " #" + dealNumber);
+
+		// Deal the Cards to the Cascades (the first Hands), and the last Cards
+		// to the FreeCells if the variant deals any there. A shuffled deal
+		// records its order as it goes
+		byte[] dealOrder = dealNumber == 0 ? new byte[CardTable.NO_OF_CARDS]
+				: Deals.dealOrder(dealNumber);
+		int toCascades = dealOrder.length - variant.getNoOfDealtToFreecells();
 		int cascasdeIndex = 0;
-		while (myDeck.getCount() > 0)
+		for (int index = 0; index < dealOrder.length; index++)
 		{
-			FreeCellCard dealtCard = myDeck.dealCard();
+			FreeCellCard dealtCard;
+			if (dealNumber == 0)
+			{
+				dealtCard = myDeck.dealCard();
+				dealOrder[index] = dealtCard.getId();
+			}
+			else
+				dealtCard = myDeck.dealCard(dealOrder[index]);
 			Point pos = new Point(dealtCard.getPosition());
-			allHands.get(cascasdeIndex).addCard(dealtCard);
+			if (index < toCascades)
+				allHands.get(cascasdeIndex).addCard(dealtCard);
+			else
+				allHands.get(NO_OF_CASCADES + index - toCascades).addCard(
+						dealtCard);
 			Point finalPos = new Point(dealtCard.getPosition());
 			if (animate)
 				moveACard(dealtCard, pos, finalPos);
@@ -162,9 +274,15 @@ public class CardPanel extends JPanel implements MouseListener,
 				cascasdeIndex = 0;
 		}
 		moves.clear();
+		replay = null;
+		boards.clear();
+		board = Snapshot.of(Position.deal(dealOrder, variant));
+		boards.add(board);
 		parentFrame.setUndoOption(false);
 		parentFrame.setHint(true);
 		repaint();
+		event.commit();
+		DEAL_TIME.stop(start);
 	}
 
 	/**
@@ -193,6 +311,33 @@ public class CardPanel extends JPanel implements MouseListener,
 		animate = !animate;
 	}
 
+	/**
+	 * Static class to change the frame statistics overlay on or off
+	 */
+	public static void changeFrameStats()
+	{
+		showFrameStats = !showFrameStats;
+	}
+
+	/**
+	 * Static class to turn skipping the deals the deal database knows cannot
+	 * be won on or off
+	 */
+	public static void changeSkipUnsolvable()
+	{
+		skipUnsolvable = !skipUnsolvable;
+	}
+
+	/**
+	 * Writes the recently painted frames to a file
+	 * 
+	 * @param fileName the name of the file
+	 */
+	public void dumpFrames(String fileName)
+	{
+		frameProfiler.dumpToFile(fileName);
+	}
+
 	/**
 	 * Undoes the last move
 	 */
@@ -200,8 +345,14 @@ public class CardPanel extends JPanel implements MouseListener,
 	{
 		if (canUndo())
 		{
+			GameEvents.Undo event = new GameEvents.Undo();
+			event.begin();
 			Move lastMove = moves.removeLast();
+			boards.removeLast();
+			board = boards.getLast();
 			lastMove.undo();
+			event.movesLeft = moves.size();
+			event.commit();
 			repaint();
 		}
 	}
@@ -215,6 +366,11 @@ public class CardPanel extends JPanel implements MouseListener,
 		{
 			if (hand.cardsLeft() != 0)
 			{
+				GameEvents.StatsWrite event = new GameEvents.StatsWrite();
+				event.begin();
+				event.won = checkForWinner();
+				event.moves = moves.size();
+
 				// Checks if the current game is a winner then record the
 				// winning data, else record the losing data
 				if (!checkForWinner())
@@ -224,6 +380,7 @@ public class CardPanel extends JPanel implements MouseListener,
 				else
 					statistic.win(moves.size());
 				statistic.writeToFile("stat.dat");
+				event.commit();
 				return;
 			}
 		}
@@ -231,13 +388,14 @@ public class CardPanel extends JPanel implements MouseListener,
 
 	/**
 	 * Checks if there are any moves in the moves list so that we can see if it
-	 * is ok to undo a move
+	 * is ok to undo a move. Moves cannot be undone while an earlier ply of a
+	 * replay is shown
 	 * 
 	 * @return true if we can undo, false if not
 	 */
 	public boolean canUndo()
 	{
-		if (!checkForWinner())
+		if (!checkForWinner() && replay == null)
 			return !moves.isEmpty();
 		return false;
 	}
@@ -249,22 +407,53 @@ public class CardPanel extends JPanel implements MouseListener,
 	 */
 	public ArrayList<Move> allCascadeMoves()
 	{
+		long start = Metrics.start();
 		ArrayList<Move> allMoves = new ArrayList<Move>();
+
+		// Build a bitboard of the top Cards of the Cascades so the targets of
+		// each Movable are found with one mask instead of a loop over Hands
+		long topCards = 0;
+		FreeCellHand[] cascadeWithTop = new FreeCellHand[CardTable.NO_OF_CARDS];
+		for (FreeCellHand cascade : allHands.subList(0, NO_OF_CASCADES))
+		{
+			if (cascade.cardsLeft() > 0)
+			{
+				byte top = cascade.getTopCard().getId();
+				topCards |= CardTable.bit(top);
+				cascadeWithTop[top] = cascade;
+			}
+		}
+
 		// Get all moves from each of the Cascades
 		for (FreeCellHand from : allHands.subList(0, NO_OF_CASCADES))
 		{
 			for (Movable movable : ((Cascade) from).getAllMovables())
 			{
-				// See if any of these Movables can be placed on another
-				// Cascade. It turns out the "from != to" check is not
-				// needed but it is less work than calling canPlaceOn
+				FreeCellCard baseCard = movable instanceof Tableau ? ((Tableau) movable)
+						.getBaseCard() : (FreeCellCard) movable;
+
+				// Moves onto the top Cards of other Cascades, by the variant's
+				// rule for building down. canPlaceOn is still needed to check
+				// how many Cards can be moved at once
+				for (long targets = variant.cascadeTargets(baseCard.getId(),
+						topCards); targets != 0; targets = MoveTables
+						.removeLowest(targets))
+				{
+					FreeCellHand to = cascadeWithTop[MoveTables.lowest(targets)];
+					if (movable.canPlaceOn(to))
+						allMoves.add(new Move(from, to, movable));
+				}
+
+				// Moves onto empty Cascades
 				for (FreeCellHand to : allHands.subList(0, NO_OF_CASCADES))
 				{
-					if (from != to && movable.canPlaceOn(to))
+					if (to.cardsLeft() == 0 && movable.canPlaceOn(to))
 						allMoves.add(new Move(from, to, movable));
 				}
 			}
 		}
+		MOVES_GENERATED.add(allMoves.size());
+		MOVE_GENERATION_TIME.stop(start);
 		return allMoves;
 	}
 
@@ -277,10 +466,13 @@ public class CardPanel extends JPanel implements MouseListener,
 	 */
 	public void paintComponent(Graphics g)
 	{
+		long start = Metrics.start();
+		if (showFrameStats)
+			frameProfiler.beginFrame();
 		super.paintComponent(g);
 
 		if (checkForWinner())
-			g.drawImage(fireWork, 0, 0, null);
+			g.drawImage(CardImages.getFireWork(), 0, 0, null);
 
 		// Draw the deck if there are cards left
 		if (myDeck.getCount() > 0)
@@ -305,10 +497,39 @@ public class CardPanel extends JPanel implements MouseListener,
 			g.setColor(Color.BLACK);
 			g.drawString("There are no more possible moves.", 50, 550);
 		}
+		FRAME_TIME.stop(start);
+		StartupTimer.frameDrawn();
+
+		// Draw the frame statistics over everything else
+		if (showFrameStats)
+		{
+			frameProfiler.endFrame(cardsDrawn());
+			frameProfiler.draw(g, getWidth() - 270, getHeight() - 64);
+		}
+	}
+
+	/**
+	 * Counts the Cards drawn in each frame
+	 * 
+	 * @return the number of Cards drawn by paintComponent
+	 */
+	private int cardsDrawn()
+	{
+		int cards = myDeck.getCount();
+		for (FreeCellHand next : allHands)
+			cards += next.cardsLeft();
+		if (movingCard != null)
+			cards++;
+		if (selectedItem instanceof Tableau)
+			cards += ((Tableau) selectedItem).cardsLeft();
+		else if (selectedItem != null)
+			cards++;
+		return cards;
 	}
 
 	/**
-	 * Auto moves any Cards up to the Foundations when possible
+	 * Auto moves any Cards up to the Foundations when possible, recording the
+	 * whole batch of Cards moved as one event
 	 */
 	private void autoComplete()
 	{
@@ -316,6 +537,21 @@ public class CardPanel extends JPanel implements MouseListener,
 		if (!autoComplete)
 			return;
 
+		GameEvents.AutoComplete event = new GameEvents.AutoComplete();
+		event.begin();
+		int movesBefore = moves.size();
+		autoCompleteCards();
+		event.cards = moves.size() - movesBefore;
+		event.commit();
+	}
+
+	/**
+	 * Moves the Cards that can go up to the Foundations, calling itself until
+	 * no more Cards can go up
+	 */
+	private void autoCompleteCards()
+	{
+
 		// Search through the Cascades and FreeCells to see if any cards can be
 		// placed onto a foundation
 		for (FreeCellHand hand : allHands.subList(0, NO_OF_CASCADES + NO_OF_FREECELLS))
@@ -341,7 +577,7 @@ public class CardPanel extends JPanel implements MouseListener,
 								foundation.getPosition());
 
 						// Add the auto complete move to the LinkedList
-						moves.addLast(new Move(sourceHand, foundation,
+						recordMove(new Move(sourceHand, foundation,
 								selectedItem));
 
 						selectedItem.placeOn(foundation);
@@ -350,7 +586,7 @@ public class CardPanel extends JPanel implements MouseListener,
 
 						// Calls itself again to make sure that no more Cards
 						// can be auto completed
-						autoComplete();
+						autoCompleteCards();
 					}
 				}
 
@@ -422,6 +658,37 @@ public class CardPanel extends JPanel implements MouseListener,
 	 */
 	public void showHint()
 	{
+		long start = Metrics.start();
+		GameEvents.Hint event = new GameEvents.Hint();
+		event.begin();
+		event.found = findAndShowHint();
+		event.commit();
+		HINT_TIME.stop(start);
+	}
+
+	/**
+	 * Finds a hint and flashes it, or shows that there are no more moves
+	 * 
+	 * @return true if a hint was found, false otherwise
+	 */
+	private boolean findAndShowHint()
+	{
+		// Use the stored solution if the game is still on its path
+		if (showSolutionHint())
+			return true;
+
+		// Near the end of the game the tablebase knows the best Move
+		if (endgame != null)
+		{
+			Position current = currentPosition();
+			if (endgame.covers(current))
+			{
+				int move = endgame.bestMove(current, new int[Position.MAX_MOVES]);
+				if (move >= 0 && flashSolutionMove(current, move))
+					return true;
+			}
+		}
+
 		// Checks if any card on any of the Cards in FreeCell can be placed on
 		// Cascades or Foundations
 		for (FreeCellHand freecell : allHands.subList(NO_OF_CASCADES, NO_OF_CASCADES
@@ -442,7 +709,7 @@ public class CardPanel extends JPanel implements MouseListener,
 						hand.getTopCard().flash();
 						freecell.getTopCard().flash();
 						paintImmediately(0, 0, getWidth(), getHeight());
-						return;
+						return true;
 					}
 
 				}
@@ -464,7 +731,7 @@ public class CardPanel extends JPanel implements MouseListener,
 
 			move.get(random).notShowMove();
 			paintImmediately(0, 0, getWidth(), getHeight());
-			return;
+			return true;
 		}
 		// If no Moves are found, try to place Cards onto empty FreeCells
 		else if (FreeCell.getNoOfEmptyFreecells() > 0)
@@ -494,7 +761,7 @@ public class CardPanel extends JPanel implements MouseListener,
 					freecell.flash();
 					paintImmediately(0, 0, getWidth(), getHeight());
 
-					return;
+					return true;
 				}
 			}
 		}
@@ -508,6 +775,263 @@ public class CardPanel extends JPanel implements MouseListener,
 			noMorePossibleMoves = false;
 			paintImmediately(0, 0, getWidth(), getHeight());
 		}
+		return false;
+	}
+
+	/**
+	 * Flashes the next Move of the deal database's solution if the current
+	 * game is on the way through it. The solution is replayed from the deal
+	 * until it reaches the current board, and the next Move is found by its
+	 * Cards rather than by Hand numbers since the player may have used other
+	 * Cascades or FreeCells for the same board
+	 * 
+	 * @return true if a hint was shown, false if there is no stored solution
+	 *         or the game has left it
+	 */
+	private boolean showSolutionHint()
+	{
+		int[] solution = dealDatabase == null ? null : dealDatabase
+				.lookup(dealNumber);
+		if (solution == null)
+			return false;
+
+		long currentKey = currentPosition().key();
+		Position replay = Deals.deal(dealNumber);
+		for (int move : solution)
+		{
+			if (replay.key() == currentKey)
+				return flashSolutionMove(replay, move);
+			replay.apply(move);
+		}
+		return false;
+	}
+
+	/**
+	 * Builds a Position of the Cards on the table
+	 * 
+	 * @return the current board
+	 */
+	private Position currentPosition()
+	{
+		return board.toPosition();
+	}
+
+	/**
+	 * Adds a Move to the list of Moves and the board it leads to to the
+	 * history. The new board shares all of the Cascades the Move did not
+	 * touch with the one before
+	 * 
+	 * @param move the Move made
+	 */
+	private void recordMove(Move move)
+	{
+		// Playing on from a ply of a replay starts a new line of play, so the
+		// Moves after that ply are dropped
+		if (replay != null)
+		{
+			while (moves.size() > replayPly)
+			{
+				moves.removeLast();
+				boards.removeLast();
+			}
+			replay = null;
+		}
+		moves.addLast(move);
+		board = board.apply(packedMove(move));
+		boards.addLast(board);
+	}
+
+	/**
+	 * Packs a Move made on the table the way a Position numbers its Hands
+	 * 
+	 * @param move the Move
+	 * @return the packed Move
+	 */
+	private int packedMove(Move move)
+	{
+		int count = 1;
+		byte moved;
+		if (move.getMoved() instanceof Tableau)
+		{
+			Tableau tableau = (Tableau) move.getMoved();
+			count = tableau.cardsLeft();
+			moved = tableau.getBaseCard().getId();
+		}
+		else
+			moved = ((FreeCellCard) move.getMoved()).getId();
+		return Position.move(handNumber(move.getFrom(), moved),
+				handNumber(move.getTo(), moved), count);
+	}
+
+	/**
+	 * Returns a Replay of the Moves made so far in this game, from the board
+	 * the game started with
+	 * 
+	 * @return the Replay
+	 */
+	public Replay getReplay()
+	{
+		int[] packed = new int[moves.size()];
+		int index = 0;
+		for (Move move : moves)
+			packed[index++] = packedMove(move);
+		return new Replay(boards.getFirst(), packed);
+	}
+
+	/**
+	 * Lays the Cards out on the table as they are on a board of this game,
+	 * without any animation, for example to show a ply of a Replay. Only the
+	 * view changes: the Moves made so far and their boards are kept, and
+	 * making a Move from the board shown is what recordMove carries on from.
+	 * Each suit goes back on the Foundation the player built it on, so the
+	 * Moves kept still undo on the right Hands
+	 * 
+	 * @param shown the board to show
+	 * @param plies the number of Moves of this game that lead to the board
+	 */
+	public void showBoard(Snapshot shown, int plies)
+	{
+		int[] foundations = Move.foundationsOf(allHands, NO_OF_CASCADES
+				+ NO_OF_FREECELLS, moves, plies);
+		for (Hand next : allHands)
+			next.clear();
+		myDeck.shuffle();
+		for (int cascade = 0; cascade < NO_OF_CASCADES; cascade++)
+		{
+			for (int index = 0; index < shown.height(cascade); index++)
+				placeFaceUp(shown.cardAt(cascade, index), cascade);
+		}
+		for (int cell = 0; cell < NO_OF_FREECELLS; cell++)
+		{
+			if (shown.freecell(cell) != CardTable.NONE)
+				placeFaceUp(shown.freecell(cell), NO_OF_CASCADES + cell);
+		}
+		for (int suit = 0; suit < NO_OF_FOUNDATIONS; suit++)
+		{
+			for (int rank = 1; rank <= shown.foundation(suit); rank++)
+				placeFaceUp(CardTable.id(rank, suit), foundations[suit]);
+		}
+
+		board = shown;
+		parentFrame.setUndoOption(canUndo());
+		repaint();
+	}
+
+	/**
+	 * Steps back or forward through the game played so far, showing each
+	 * ply without animation. The first call starts a Replay at the current
+	 * board, and making a Move from any ply carries on the game from there.
+	 * Moves cannot be undone while an earlier ply is shown, and stepping
+	 * forward to the last ply goes back to the game as it was
+	 * 
+	 * @param plies the number of plies to step, negative to go back
+	 */
+	public void scrubReplay(int plies)
+	{
+		if (replay == null)
+		{
+			replay = getReplay();
+			replayPly = replay.length();
+		}
+		replayPly = Math.max(0, Math.min(replay.length(), replayPly + plies));
+		Snapshot shown = replay.seek(replayPly);
+		if (replayPly == replay.length())
+			replay = null;
+		showBoard(shown, replayPly);
+	}
+
+	/**
+	 * Takes a Card from the deck and puts it face up on a Hand
+	 * 
+	 * @param id the id of the Card
+	 * @param hand the number of the Hand
+	 */
+	private void placeFaceUp(byte id, int hand)
+	{
+		FreeCellCard card = myDeck.dealCard(id);
+		allHands.get(hand).addCard(card);
+		if (!card.isFaceUp())
+			card.flip();
+	}
+
+	/**
+	 * Returns the number a Position uses for a Hand on the table
+	 * 
+	 * @param hand the Hand
+	 * @param card the id of a Card moved to or from the Hand, which picks the
+	 *            Foundation since a Position keeps one per suit
+	 * @return the number of the Hand in a Position
+	 */
+	private int handNumber(FreeCellHand hand, byte card)
+	{
+		int number = allHands.indexOf(hand);
+		if (handType(number) == 2)
+			return NO_OF_CASCADES + NO_OF_FREECELLS + CardTable.suit(card);
+		return number;
+	}
+
+	/**
+	 * Flashes the Cards moved by a solution Move and the Hand they go to
+	 * 
+	 * @param replay the solution's board before the Move
+	 * @param move the packed Move
+	 * @return true if the Move was found on the table
+	 */
+	private boolean flashSolutionMove(Position replay, int move)
+	{
+		int from = Position.from(move);
+		int to = Position.to(move);
+		byte moved = from < replay.firstFreecell() ? replay.cardAt(from,
+				replay.height(from) - Position.count(move)) : replay
+				.topCard(from);
+		byte target = replay.topCard(to);
+
+		// Find the Card being moved and the Hand it goes to on the table
+		FreeCellCard movedCard = null;
+		FreeCellHand toHand = null;
+		for (FreeCellHand hand : allHands)
+		{
+			for (Card card : hand.hand)
+			{
+				if (FreeCellCard.idOf(card) == moved)
+					movedCard = (FreeCellCard) card;
+			}
+			if (toHand != null)
+				continue;
+			if (target != CardTable.NONE)
+			{
+				if (hand.cardsLeft() > 0
+						&& hand.getTopCard().getId() == target)
+					toHand = hand;
+			}
+			else if (hand.cardsLeft() == 0
+					&& handType(allHands.indexOf(hand)) == handType(to))
+				toHand = hand;
+		}
+		if (movedCard == null || toHand == null)
+			return false;
+
+		movedCard.flash();
+		toHand.flash();
+		paintImmediately(0, 0, getWidth(), getHeight());
+		delay(300);
+		movedCard.flash();
+		toHand.flash();
+		paintImmediately(0, 0, getWidth(), getHeight());
+		return true;
+	}
+
+	/**
+	 * Returns which kind of Hand a Hand number is
+	 * 
+	 * @param hand the number of the Hand
+	 * @return 0 for a Cascade, 1 for a FreeCell and 2 for a Foundation
+	 */
+	private int handType(int hand)
+	{
+		if (hand < NO_OF_CASCADES)
+			return 0;
+		return hand < NO_OF_CASCADES + NO_OF_FREECELLS ? 1 : 2;
 	}
 
 	/**
@@ -600,14 +1124,22 @@ public class CardPanel extends JPanel implements MouseListener,
 				if (selectedItem.intersects(nextHand)
 						&& selectedItem.canPlaceOn(nextHand))
 				{
+					GameEvents.Move moveEvent = new GameEvents.Move();
+					moveEvent.begin();
 					selectedItem.placeOn(nextHand);
 
 					// Count this move if you didn't place it on the same spot
 					if (nextHand != sourceHand)
 					{
-						moves.addLast(new Move(sourceHand, nextHand,
+						recordMove(new Move(sourceHand, nextHand,
 								selectedItem));
 						parentFrame.setUndoOption(true);
+
+						moveEvent.from = allHands.indexOf(sourceHand);
+						moveEvent.to = allHands.indexOf(nextHand);
+						moveEvent.cards = selectedItem instanceof Tableau ? ((Tableau) selectedItem)
+								.cardsLeft() : 1;
+						moveEvent.commit();
 					}
 					selectedItem = null;
 					repaint();
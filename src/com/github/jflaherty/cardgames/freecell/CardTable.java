@@ -0,0 +1,202 @@
+package com.github.jflaherty.cardgames.freecell;
+
+/**
+ * An immutable table of the 52 Cards in a FreeCell Deck. Each Card is
+ * identified by a byte id from 0 to 51, laid out suit by suit (clubs,
+ * diamonds, hearts, spades) with the ranks from ace to king inside each suit,
+ * so that id = suit * 13 + rank - 1. The rank, suit and colour of every id and
+ * the "next on foundation" relation are computed once when the class is
+ * loaded, so rule checks become a single array lookup or bit operation
+ * instead of a chain of enum lookups. Which Cards stack on which in a Cascade
+ * depends on the rules, so those tables are kept by each Variant
+ */
+public final class CardTable
+{
+	// Constants for the size of the Deck
+	public static final int NO_OF_CARDS = 52;
+	public static final int NO_OF_SUITS = 4;
+	public static final int NO_OF_RANKS = 13;
+
+	// Suit indexes in the order they appear in the id layout
+	public static final int CLUBS = 0;
+	public static final int DIAMONDS = 1;
+	public static final int HEARTS = 2;
+	public static final int SPADES = 3;
+
+	// Colours of the suits
+	public static final int BLACK = 0;
+	public static final int RED = 1;
+
+	// Id used for "no Card", for example an empty FreeCell
+	public static final byte NONE = -1;
+
+	private static final char[] RANK_CHARS = "A23456789TJQK".toCharArray();
+	private static final char[] SUIT_CHARS = "CDHS".toCharArray();
+
+	private static final byte[] RANK = new byte[NO_OF_CARDS];
+	private static final byte[] SUIT = new byte[NO_OF_CARDS];
+	private static final byte[] COLOUR = new byte[NO_OF_CARDS];
+	private static final byte[] FOUNDATION_NEXT = new byte[NO_OF_CARDS];
+
+	static
+	{
+		for (int id = 0; id < NO_OF_CARDS; id++)
+		{
+			RANK[id] = (byte) (id % NO_OF_RANKS + 1);
+			SUIT[id] = (byte) (id / NO_OF_RANKS);
+			COLOUR[id] = (byte) (SUIT[id] == DIAMONDS || SUIT[id] == HEARTS ? RED
+					: BLACK);
+		}
+
+		// The next Card on a Foundation is the same suit one rank higher
+		for (int id = 0; id < NO_OF_CARDS; id++)
+			FOUNDATION_NEXT[id] = RANK[id] == NO_OF_RANKS ? NONE
+					: (byte) (id + 1);
+	}
+
+	/**
+	 * The table is never instantiated
+	 */
+	private CardTable()
+	{
+	}
+
+	/**
+	 * Returns the id of the Card with the given rank and suit
+	 *
+	 * @param rank the rank of the Card, 1 (ace) to 13 (king)
+	 * @param suit the suit index of the Card, CLUBS to SPADES
+	 * @return the id of the Card
+	 */
+	public static byte id(int rank, int suit)
+	{
+		return (byte) (suit * NO_OF_RANKS + rank - 1);
+	}
+
+	/**
+	 * Returns the rank of a Card
+	 *
+	 * @param id the id of the Card
+	 * @return the rank of the Card, 1 (ace) to 13 (king)
+	 */
+	public static int rank(byte id)
+	{
+		return RANK[id];
+	}
+
+	/**
+	 * Returns the suit index of a Card
+	 *
+	 * @param id the id of the Card
+	 * @return the suit index of the Card, CLUBS to SPADES
+	 */
+	public static int suit(byte id)
+	{
+		return SUIT[id];
+	}
+
+	/**
+	 * Returns the colour of a Card
+	 *
+	 * @param id the id of the Card
+	 * @return RED or BLACK
+	 */
+	public static int colour(byte id)
+	{
+		return COLOUR[id];
+	}
+
+	/**
+	 * Returns the single bit that represents a Card in a 64 bit mask of Cards
+	 *
+	 * @param id the id of the Card
+	 * @return the bit for the Card
+	 */
+	public static long bit(byte id)
+	{
+		return 1L << id;
+	}
+
+	/**
+	 * Returns the Card that goes on top of the given Card on a Foundation
+	 *
+	 * @param id the id of the Card on the Foundation
+	 * @return the id of the next Card, or NONE if the given Card is a king
+	 */
+	public static byte foundationNext(byte id)
+	{
+		return FOUNDATION_NEXT[id];
+	}
+
+	/**
+	 * Checks if a Card can be placed on another Card on a Foundation
+	 *
+	 * @param id the id of the Card to place
+	 * @param otherId the id of the Card on top of the Foundation
+	 * @return true if the Card is the same suit and one rank higher, false
+	 *         otherwise
+	 */
+	public static boolean isFoundationNext(byte id, byte otherId)
+	{
+		return FOUNDATION_NEXT[otherId] == id;
+	}
+
+	/**
+	 * Returns the character used for a Card's rank in FreeCell notation
+	 *
+	 * @param id the id of the Card
+	 * @return one of A23456789TJQK
+	 */
+	public static char rankChar(byte id)
+	{
+		return RANK_CHARS[RANK[id] - 1];
+	}
+
+	/**
+	 * Returns the character used for a Card's suit in FreeCell notation
+	 *
+	 * @param id the id of the Card
+	 * @return one of CDHS
+	 */
+	public static char suitChar(byte id)
+	{
+		return SUIT_CHARS[SUIT[id]];
+	}
+
+	/**
+	 * Returns the suit index for a suit character
+	 *
+	 * @param suitChar the suit character, upper or lower case
+	 * @return the suit index, or -1 if the character is not a suit
+	 */
+	public static int suitOf(char suitChar)
+	{
+		switch (suitChar)
+		{
+		case 'C':
+		case 'c':
+			return CLUBS;
+		case 'D':
+		case 'd':
+			return DIAMONDS;
+		case 'H':
+		case 'h':
+			return HEARTS;
+		case 'S':
+		case 's':
+			return SPADES;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the FreeCell notation of a Card, e.g. "TH" for the ten of hearts
+	 *
+	 * @param id the id of the Card
+	 * @return the two character notation of the Card
+	 */
+	public static String toString(byte id)
+	{
+		return new String(new char[] { rankChar(id), suitChar(id) });
+	}
+}
@@ -1,6 +1,7 @@
 package com.github.jflaherty.cardgames.freecell;
 import java.awt.Point;
 import java.util.ArrayList;
+import java.util.List;
 
 import com.github.jflaherty.cardgames.playingcards.french.Card;
 
@@ -56,8 +57,7 @@ public class Cascade extends FreeCellHand
 			Point baseCardPos = ((FreeCellCard) hand.get(baseIndex)).getPosition();
 			Tableau nextTableau = new Tableau(baseCardPos.x, baseCardPos.y,
 					this);
-			for (Card cardToAdd : hand.subList(baseIndex, hand.size()))
-				nextTableau.addCard(cardToAdd);
+			nextTableau.addCards(hand.subList(baseIndex, hand.size()));
 			movables.add(nextTableau);
 		}
 		return movables;
@@ -127,6 +127,36 @@ public class Cascade extends FreeCellHand
 		return returnCard;
 	}
 
+	/**
+	 * Adds a run of GCards to this Hand in one step while updating the number
+	 * of open Cascades
+	 * 
+	 * @param cards the Cards to add, bottom Card first
+	 */
+	public void addCards(List<Card> cards)
+	{
+		if (!(this instanceof Tableau) && cardsLeft() == 0 && !cards.isEmpty())
+			openCascades--;
+		super.addCards(cards);
+	}
+
+	/**
+	 * Removes the GCards from the given index to the top of this Hand in one
+	 * step while updating the number of open Cascades
+	 * 
+	 * @param index the index of the lowest GCard to remove
+	 * @return the GCards removed, bottom Card first
+	 */
+	public ArrayList<Card> removeCards(int index)
+	{
+		ArrayList<Card> removed = super.removeCards(index);
+		if (cardsLeft() == 0 && !removed.isEmpty())
+		{
+			openCascades++;
+		}
+		return removed;
+	}
+
 	/**
 	 * Clears the Cascade while updating the number of open Cascades
 	 */
@@ -138,7 +168,20 @@ public class Cascade extends FreeCellHand
 
 		// Set the number of Open Cascades to the number of Cascades since the
 		// only time a Cascade is cleared is at a beginning of a new game
-		openCascades = 8;
+		openCascades = variant.getNoOfCascades();
+	}
+
+	/**
+	 * Returns the Cards that can be placed on this Cascade under the rules of
+	 * the variant being played
+	 * 
+	 * @return the mask of the ids of the Cards this Cascade accepts
+	 */
+	public long acceptsMask()
+	{
+		if (cardsLeft() == 0)
+			return variant.emptyCascadeAccepts();
+		return variant.accepts(getTopCard().getId());
 	}
 
 	/**
@@ -169,14 +212,9 @@ public class Cascade extends FreeCellHand
 		Tableau tableau = new Tableau(
 				((FreeCellCard) hand.get(index)).getPosition().x,
 				((FreeCellCard) hand.get(index)).getPosition().y, this);
-		// Add all the Cards on top the Card chosen and the chosen Card itself
-		// to the Tableau created
-		while (index < cardsLeft())
-		{
-			FreeCellCard card = (FreeCellCard) hand.get(index);
-			removeCard(index);
-			tableau.addCard(card);
-		}
+		// Move the chosen Card and all the Cards on top of it to the Tableau
+		// created as one run
+		tableau.addCards(removeCards(index));
 		return tableau;
 
 	}
@@ -0,0 +1,426 @@
+package com.github.jflaherty.cardgames.freecell;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A command line tool that solves a corpus of deals and writes a report of
+ * the results. The deals are either a range of numbered Microsoft deals or a
+ * file with one layout per line (see Deals.parseLayout). Deals are read by one
+ * thread, solved by a pool of worker threads and tallied by the main thread,
+ * with bounded queues between them so a corpus of any size is streamed
+ * through in constant memory: when the workers fall behind the reader simply
+ * waits. Progress is printed to standard error as the deals are solved.
+ *
+ * <pre>
+ * CorpusReport [-deals first-last | -layouts file] [-threads n]
+ *              [-nodes n] [-millis n] [-out file]
+ * </pre>
+ */
+public class CorpusReport
+{
+	// How many queued deals per worker before the reader has to wait
+	private static final int QUEUE_PER_THREAD = 16;
+	private static final long PROGRESS_INTERVAL_NANOS = 5000000000L;
+	private static final int NO_OF_HARDEST = 20;
+	// Solution lengths above this are counted in the last histogram bucket
+	private static final int MAX_LENGTH = Solver.MAX_DEPTH;
+
+	/**
+	 * A deal waiting to be solved. A Deal with no Position marks the end of
+	 * the corpus
+	 */
+	private static class Deal
+	{
+		final String name;
+		final Position position;
+
+		Deal(String name, Position position)
+		{
+			this.name = name;
+			this.position = position;
+		}
+	}
+
+	/**
+	 * The outcome of solving one Deal
+	 */
+	private static class Outcome implements Comparable<Outcome>
+	{
+		final String name;
+		final SolverResult result;
+
+		Outcome(String name, SolverResult result)
+		{
+			this.name = name;
+			this.result = result;
+		}
+
+		public int compareTo(Outcome other)
+		{
+			long difference = result.getNodes() - other.result.getNodes();
+			return difference < 0 ? -1 : difference > 0 ? 1 : 0;
+		}
+	}
+
+	private static final Deal END = new Deal(null, null);
+
+	// Running totals, only touched by the tallying thread
+	private long noOfDeals, noOfSolved, noOfUnsolvable, noOfGaveUp;
+	private long totalLength, totalNodes, totalNanos;
+	private final long[] lengthCounts = new long[MAX_LENGTH + 1];
+	private final PriorityQueue<Outcome> hardest = new PriorityQueue<Outcome>();
+
+	/**
+	 * Adds the outcome of one Deal to the totals
+	 *
+	 * @param outcome the outcome to add
+	 */
+	void tally(Outcome outcome)
+	{
+		SolverResult result = outcome.result;
+		noOfDeals++;
+		totalNodes += result.getNodes();
+		totalNanos += result.getElapsedNanos();
+		if (result.isSolved())
+		{
+			noOfSolved++;
+			totalLength += result.getLength();
+			lengthCounts[Math.min(result.getLength(), MAX_LENGTH)]++;
+		}
+		else if (result.getStatus() == SolverResult.UNSOLVABLE)
+			noOfUnsolvable++;
+		else
+			noOfGaveUp++;
+
+		// Keep only the hardest Deals so memory stays fixed
+		hardest.add(outcome);
+		if (hardest.size() > NO_OF_HARDEST)
+			hardest.poll();
+	}
+
+	/**
+	 * Returns the solution length at the given percentile of the solved Deals
+	 *
+	 * @param percentile the percentile, 0 to 100
+	 * @return the solution length at that percentile
+	 */
+	int lengthPercentile(double percentile)
+	{
+		long rank = (long) Math.ceil(percentile / 100 * noOfSolved);
+		long count = 0;
+		for (int length = 0; length <= MAX_LENGTH; length++)
+		{
+			count += lengthCounts[length];
+			if (count >= rank && count > 0)
+				return length;
+		}
+		return 0;
+	}
+
+	/**
+	 * Returns a one line summary of the progress so far
+	 *
+	 * @param elapsedNanos the time since the run started
+	 * @return the progress line
+	 */
+	String progress(long elapsedNanos)
+	{
+		double seconds = elapsedNanos / 1e9;
+		return String.format("%d deals, %d solved, %d gave up, %.1f deals/s, %.0f nodes/s",
+				noOfDeals, noOfSolved, noOfGaveUp, noOfDeals / seconds,
+				totalNodes / seconds);
+	}
+
+	/**
+	 * Writes the final report
+	 *
+	 * @param out where to write the report
+	 */
+	void writeReport(PrintWriter out)
+	{
+		out.printf("Deals: %d%n", noOfDeals);
+		out.printf("Solved: %d (%.2f%%)%n", noOfSolved,
+				noOfDeals == 0 ? 0.0 : noOfSolved * 100.0 / noOfDeals);
+		out.printf("Unsolvable: %d%n", noOfUnsolvable);
+		out.printf("Gave up: %d%n", noOfGaveUp);
+		if (noOfSolved > 0)
+		{
+			out.printf("Mean solution length: %.1f%n", totalLength
+					/ (double) noOfSolved);
+			out.printf("Solution length p50/p90/p99/max: %d/%d/%d/%d%n",
+					lengthPercentile(50), lengthPercentile(90),
+					lengthPercentile(99), lengthPercentile(100));
+		}
+		out.printf("Total nodes: %d%n", totalNodes);
+		out.printf("Total solve time: %.1f s%n", totalNanos / 1e9);
+
+		out.println();
+		out.println("Hardest deals by nodes expanded:");
+		ArrayList<Outcome> sorted = new ArrayList<Outcome>(hardest);
+		Collections.sort(sorted, Collections.reverseOrder());
+		for (Outcome outcome : sorted)
+		{
+			String status = outcome.result.isSolved() ? "solved in "
+					+ outcome.result.getLength()
+					: outcome.result.getStatus() == SolverResult.UNSOLVABLE ? "unsolvable"
+							: "gave up";
+			out.printf("  %s: %d nodes, %s%n", outcome.name,
+					outcome.result.getNodes(), status);
+		}
+		out.flush();
+	}
+
+	/**
+	 * Runs the report
+	 *
+	 * @param args the command line arguments
+	 * @throws Exception if the corpus or report file cannot be used
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		String range = "1-" + Deals.NO_OF_CLASSIC_DEALS;
+		String layoutFile = null;
+		String outFile = null;
+		int noOfThreads = Runtime.getRuntime().availableProcessors();
+		long nodeBudget = 200000;
+		long timeBudgetMillis = 10000;
+		for (int index = 0; index + 1 < args.length; index += 2)
+		{
+			String value = args[index + 1];
+			if (args[index].equals("-deals"))
+				range = value;
+			else if (args[index].equals("-layouts"))
+				layoutFile = value;
+			else if (args[index].equals("-threads"))
+				noOfThreads = Integer.parseInt(value);
+			else if (args[index].equals("-nodes"))
+				nodeBudget = Long.parseLong(value);
+			else if (args[index].equals("-millis"))
+				timeBudgetMillis = Long.parseLong(value);
+			else if (args[index].equals("-out"))
+				outFile = value;
+			else
+				throw new IllegalArgumentException("Unknown option "
+						+ args[index]);
+		}
+
+		final BlockingQueue<Deal> deals = new ArrayBlockingQueue<Deal>(
+				noOfThreads * QUEUE_PER_THREAD);
+		final BlockingQueue<Outcome> outcomes = new ArrayBlockingQueue<Outcome>(
+				noOfThreads * QUEUE_PER_THREAD);
+
+		Thread reader = startReader(deals, range, layoutFile, noOfThreads);
+		for (int thread = 0; thread < noOfThreads; thread++)
+			startWorker(deals, outcomes, new Solver(nodeBudget,
+					timeBudgetMillis));
+
+		// Tally the outcomes as they come in. Each worker sends one null
+		// when it finishes
+		CorpusReport report = new CorpusReport();
+		long start = System.nanoTime();
+		long nextProgress = start + PROGRESS_INTERVAL_NANOS;
+		int workersLeft = noOfThreads;
+		while (workersLeft > 0)
+		{
+			Outcome outcome = outcomes.take();
+			if (outcome.result == null)
+				workersLeft--;
+			else
+				report.tally(outcome);
+
+			if (System.nanoTime() > nextProgress)
+			{
+				System.err.println(report.progress(System.nanoTime() - start));
+				nextProgress += PROGRESS_INTERVAL_NANOS;
+			}
+		}
+		reader.join();
+		System.err.println(report.progress(System.nanoTime() - start));
+
+		PrintWriter out = outFile == null ? new PrintWriter(System.out)
+				: new PrintWriter(outFile);
+		report.writeReport(out);
+		if (outFile != null)
+			out.close();
+	}
+
+	/**
+	 * Starts the thread that reads the corpus into the deal queue
+	 *
+	 * @param deals the queue of Deals to solve
+	 * @param range the range of numbered deals, e.g. "1-32000"
+	 * @param layoutFile the file of layouts, or null to use the range
+	 * @param noOfWorkers the number of workers to send the end marker to
+	 * @return the started thread
+	 */
+	private static Thread startReader(final BlockingQueue<Deal> deals,
+			final String range, final String layoutFile, final int noOfWorkers)
+	{
+		Thread reader = new Thread("corpus-reader")
+		{
+			public void run()
+			{
+				try
+				{
+					if (layoutFile == null)
+						readRange(deals, range);
+					else
+						readLayouts(deals, layoutFile);
+				}
+				catch (IOException exp)
+				{
+					System.err.println("Error reading the corpus: "
+							+ exp.getMessage());
+				}
+				catch (InterruptedException exp)
+				{
+					return;
+				}
+				finally
+				{
+					for (int worker = 0; worker < noOfWorkers; worker++)
+						putUninterruptibly(deals, END);
+				}
+			}
+		};
+		reader.start();
+		return reader;
+	}
+
+	/**
+	 * Queues a range of numbered deals
+	 *
+	 * @param deals the queue of Deals to solve
+	 * @param range the range, e.g. "1-32000" or a single number
+	 * @throws InterruptedException if the reader is interrupted
+	 */
+	private static void readRange(BlockingQueue<Deal> deals, String range)
+			throws InterruptedException
+	{
+		int dash = range.indexOf('-');
+		long first = Long.parseLong(dash < 0 ? range : range.substring(0, dash));
+		long last = dash < 0 ? first : Long.parseLong(range.substring(dash + 1));
+		for (long dealNo = first; dealNo <= last; dealNo++)
+			deals.put(new Deal("#" + dealNo, Deals.deal(dealNo)));
+	}
+
+	/**
+	 * Queues the layouts in a file, one per line. Blank lines and lines
+	 * starting with # are skipped
+	 *
+	 * @param deals the queue of Deals to solve
+	 * @param layoutFile the name of the file
+	 * @throws IOException if the file cannot be read
+	 * @throws InterruptedException if the reader is interrupted
+	 */
+	private static void readLayouts(BlockingQueue<Deal> deals, String layoutFile)
+			throws IOException, InterruptedException
+	{
+		BufferedReader in = new BufferedReader(new FileReader(layoutFile));
+		try
+		{
+			String line;
+			int lineNo = 0;
+			while ((line = in.readLine()) != null)
+			{
+				lineNo++;
+				line = line.trim();
+				if (line.length() == 0 || line.startsWith("#"))
+					continue;
+				try
+				{
+					deals.put(new Deal("line " + lineNo, Position
+							.deal(Deals.parseLayout(line))));
+				}
+				catch (IllegalArgumentException exp)
+				{
+					System.err.println("Skipping line " + lineNo + ": "
+							+ exp.getMessage());
+				}
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	/**
+	 * Starts a worker thread that solves Deals until it sees the end marker.
+	 * A Deal the Solver fails on is reported and skipped, and the worker
+	 * always sends its end marker, so the tally never waits on it forever
+	 *
+	 * @param deals the queue of Deals to solve
+	 * @param outcomes the queue to send the outcomes to
+	 * @param solver the Solver for this worker
+	 */
+	private static void startWorker(final BlockingQueue<Deal> deals,
+			final BlockingQueue<Outcome> outcomes, final Solver solver)
+	{
+		Thread worker = new Thread("corpus-solver")
+		{
+			public void run()
+			{
+				try
+				{
+					Deal deal;
+					while ((deal = deals.take()) != END)
+					{
+						SolverResult result;
+						try
+						{
+							result = solver.solve(deal.position);
+						}
+						catch (RuntimeException exp)
+						{
+							System.err.println("Deal " + deal.name
+									+ " failed: " + exp);
+							continue;
+						}
+						outcomes.put(new Outcome(deal.name, result));
+					}
+				}
+				catch (InterruptedException exp)
+				{
+					// Fall through and report that this worker is done
+				}
+				finally
+				{
+					putUninterruptibly(outcomes, new Outcome(null, null));
+				}
+			}
+		};
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	/**
+	 * Puts an item in a queue, retrying if the thread is interrupted
+	 *
+	 * @param queue the queue
+	 * @param item the item to put
+	 */
+	private static <T> void putUninterruptibly(BlockingQueue<T> queue, T item)
+	{
+		while (true)
+		{
+			try
+			{
+				queue.put(item);
+				return;
+			}
+			catch (InterruptedException exp)
+			{
+				// Try again
+			}
+		}
+	}
+}
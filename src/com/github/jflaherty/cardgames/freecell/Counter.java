@@ -0,0 +1,71 @@
+package com.github.jflaherty.cardgames.freecell;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A named count of events, kept by Metrics. Counting does nothing when
+ * metrics are turned off
+ */
+public class Counter
+{
+	private final String name;
+	private final AtomicLong count = new AtomicLong();
+
+	/**
+	 * Creates a new Counter starting at 0
+	 *
+	 * @param name the name of the Counter
+	 */
+	Counter(String name)
+	{
+		this.name = name;
+	}
+
+	/**
+	 * Returns the name of this Counter
+	 *
+	 * @return the name of this Counter
+	 */
+	public String getName()
+	{
+		return name;
+	}
+
+	/**
+	 * Adds one to this Counter
+	 */
+	public void increment()
+	{
+		if (Metrics.ENABLED)
+			count.incrementAndGet();
+	}
+
+	/**
+	 * Adds an amount to this Counter
+	 *
+	 * @param amount the amount to add
+	 */
+	public void add(long amount)
+	{
+		if (Metrics.ENABLED)
+			count.addAndGet(amount);
+	}
+
+	/**
+	 * Returns the current count
+	 *
+	 * @return the current count
+	 */
+	public long getCount()
+	{
+		return count.get();
+	}
+
+	/**
+	 * Sets this Counter back to 0
+	 */
+	void reset()
+	{
+		count.set(0);
+	}
+}
@@ -0,0 +1,296 @@
+package com.github.jflaherty.cardgames.freecell;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A read-only database of solved numbered deals, built offline and memory
+ * mapped when read. Looking up a deal is a fixed-size index read followed by
+ * a read of its packed solution, so it takes constant time, and since the
+ * file is only ever mapped read-only every JVM on a machine shares the same
+ * pages through the operating system's page cache.
+ * <p>
+ * File layout (big-endian):
+ *
+ * <pre>
+ * header:  int magic "FCDB", int version, int first deal, int number of deals
+ * index:   per deal: int offset of its solution in the data, short length,
+ *          byte status (SolverResult.SOLVED, UNSOLVABLE or GAVE_UP), byte 0
+ * data:    per Move: byte (from &lt;&lt; 4 | to), byte count; the Hands
+ *          must be below 16
+ * </pre>
+ *
+ * Build a database with
+ *
+ * <pre>
+ * DealDatabase build deals.db [first-last] [nodes]
+ * </pre>
+ */
+public class DealDatabase
+{
+	// Default file name used by the game
+	public static final String FILE_NAME = "deals.db";
+
+	private static final int MAGIC = 0x46434442;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 16;
+	private static final int INDEX_ENTRY_SIZE = 8;
+
+	// A Move's Hands are packed 4 bits each, enough for the classic game
+	private static final int MAX_HANDS = 16;
+
+	private final ByteBuffer buffer;
+	private final int firstDeal;
+	private final int noOfDeals;
+	private final int dataStart;
+
+	/**
+	 * Wraps a mapped database file
+	 *
+	 * @param buffer the contents of the file
+	 */
+	private DealDatabase(ByteBuffer buffer)
+	{
+		if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+			throw new IllegalArgumentException("Not a deal database");
+		this.buffer = buffer;
+		firstDeal = buffer.getInt(8);
+		noOfDeals = buffer.getInt(12);
+		dataStart = HEADER_SIZE + noOfDeals * INDEX_ENTRY_SIZE;
+	}
+
+	/**
+	 * Maps a database file read-only
+	 *
+	 * @param fileName the name of the file
+	 * @return the database, or null if the file does not exist or is not a
+	 *         deal database
+	 */
+	public static DealDatabase open(String fileName)
+	{
+		File file = new File(fileName);
+		if (!file.exists())
+			return null;
+		try
+		{
+			RandomAccessFile fileIn = new RandomAccessFile(file, "r");
+			try
+			{
+				MappedByteBuffer mapped = fileIn.getChannel().map(
+						FileChannel.MapMode.READ_ONLY, 0, fileIn.length());
+				return new DealDatabase(mapped);
+			}
+			finally
+			{
+				// The mapping stays valid after the file is closed
+				fileIn.close();
+			}
+		}
+		catch (Exception exp)
+		{
+			System.out.println("Error reading the deal database");
+			return null;
+		}
+	}
+
+	/**
+	 * Checks if a deal is in this database
+	 *
+	 * @param dealNo the number of the deal
+	 * @return true if the deal is in this database
+	 */
+	public boolean contains(long dealNo)
+	{
+		return dealNo >= firstDeal && dealNo < (long) firstDeal + noOfDeals;
+	}
+
+	/**
+	 * Returns the status of a deal
+	 *
+	 * @param dealNo the number of the deal
+	 * @return SolverResult.SOLVED, UNSOLVABLE or GAVE_UP, or -1 if the deal
+	 *         is not in this database
+	 */
+	public int status(long dealNo)
+	{
+		if (!contains(dealNo))
+			return -1;
+		return buffer.get(indexOf(dealNo) + 6);
+	}
+
+	/**
+	 * Looks up the solution of a deal
+	 *
+	 * @param dealNo the number of the deal
+	 * @return the packed Moves of the solution, or null if the deal is not in
+	 *         this database or was not solved
+	 */
+	public int[] lookup(long dealNo)
+	{
+		if (status(dealNo) != SolverResult.SOLVED)
+			return null;
+		int index = indexOf(dealNo);
+		int offset = dataStart + buffer.getInt(index);
+		int[] solution = new int[buffer.getShort(index + 4) & 0xFFFF];
+		for (int move = 0; move < solution.length; move++)
+		{
+			int hands = buffer.get(offset + 2 * move) & 0xFF;
+			int count = buffer.get(offset + 2 * move + 1) & 0xFF;
+			solution[move] = Position.move(hands >> 4, hands & 0xF, count);
+		}
+		return solution;
+	}
+
+	/**
+	 * Returns the position of a deal's entry in the index
+	 */
+	private int indexOf(long dealNo)
+	{
+		return HEADER_SIZE + (int) (dealNo - firstDeal) * INDEX_ENTRY_SIZE;
+	}
+
+	/**
+	 * Solves a range of deals in parallel and writes them to a database file
+	 *
+	 * @param fileName the name of the file to write
+	 * @param firstDeal the first deal number
+	 * @param lastDeal the last deal number
+	 * @param nodeBudget the node budget for each solve
+	 * @throws IOException if the file cannot be written
+	 * @throws InterruptedException if the build is interrupted
+	 */
+	public static void build(String fileName, int firstDeal, int lastDeal,
+			final long nodeBudget) throws IOException, InterruptedException
+	{
+		int noOfDeals = lastDeal - firstDeal + 1;
+		int noOfThreads = Runtime.getRuntime().availableProcessors();
+		ExecutorService pool = Executors.newFixedThreadPool(noOfThreads);
+		final ThreadLocal<Solver> solvers = new ThreadLocal<Solver>()
+		{
+			protected Solver initialValue()
+			{
+				return new Solver(nodeBudget);
+			}
+		};
+
+		ArrayList<Future<SolverResult>> results = new ArrayList<Future<SolverResult>>(
+				noOfDeals);
+		for (int dealNo = firstDeal; dealNo <= lastDeal; dealNo++)
+		{
+			final int deal = dealNo;
+			results.add(pool.submit(new Callable<SolverResult>()
+			{
+				public SolverResult call()
+				{
+					// Store the optimised solution, which takes less space
+					// and is quicker to replay
+					Position start = Deals.deal(deal);
+					SolverResult result = solvers.get().solve(start);
+					if (!result.isSolved())
+						return result;
+					return new SolverResult(result.getStatus(),
+							SolutionOptimiser.optimise(start,
+									result.getSolution()), result.getNodes(),
+							result.getElapsedNanos());
+				}
+			}));
+		}
+		pool.shutdown();
+
+		RandomAccessFile fileOut = new RandomAccessFile(fileName, "rw");
+		try
+		{
+			fileOut.setLength(0);
+			ByteBuffer index = ByteBuffer.allocate(HEADER_SIZE + noOfDeals
+					* INDEX_ENTRY_SIZE);
+			index.putInt(MAGIC).putInt(VERSION).putInt(firstDeal)
+					.putInt(noOfDeals);
+			FileChannel channel = fileOut.getChannel();
+			channel.position(index.capacity());
+
+			int offset = 0;
+			ByteBuffer data = ByteBuffer.allocate(2 * Solver.MAX_DEPTH);
+			for (int deal = 0; deal < noOfDeals; deal++)
+			{
+				SolverResult result;
+				try
+				{
+					result = results.get(deal).get();
+				}
+				catch (java.util.concurrent.ExecutionException exp)
+				{
+					throw new IOException("Error solving deal "
+							+ (firstDeal + deal), exp.getCause());
+				}
+				int[] solution = result.isSolved() ? result.getSolution()
+						: new int[0];
+				index.putInt(offset).putShort((short) solution.length)
+						.put((byte) result.getStatus()).put((byte) 0);
+
+				data.clear();
+				for (int move : solution)
+				{
+					if (Position.from(move) >= MAX_HANDS
+							|| Position.to(move) >= MAX_HANDS)
+						throw new IOException("Deal " + (firstDeal + deal)
+								+ " has a Move between Hands that do not fit"
+								+ " in 4 bits");
+					data.put((byte) (Position.from(move) << 4 | Position
+							.to(move)));
+					data.put((byte) Position.count(move));
+				}
+				data.flip();
+				offset += data.remaining();
+				while (data.hasRemaining())
+					channel.write(data);
+
+				if ((deal + 1) % 1000 == 0)
+					System.err.println((deal + 1) + " deals solved");
+			}
+
+			index.flip();
+			channel.position(0);
+			while (index.hasRemaining())
+				channel.write(index);
+		}
+		finally
+		{
+			fileOut.close();
+		}
+	}
+
+	/**
+	 * Builds a database from the command line
+	 *
+	 * @param args "build", the file name, optionally a range of deals such as
+	 *            1-32000 and a node budget
+	 * @throws Exception if the database cannot be built
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		if (args.length < 2 || !args[0].equals("build"))
+		{
+			System.err.println("Usage: DealDatabase build file [first-last] [nodes]");
+			return;
+		}
+		int firstDeal = 1;
+		int lastDeal = Deals.NO_OF_CLASSIC_DEALS;
+		if (args.length > 2)
+		{
+			int dash = args[2].indexOf('-');
+			firstDeal = Integer.parseInt(args[2].substring(0, dash));
+			lastDeal = Integer.parseInt(args[2].substring(dash + 1));
+		}
+		long nodeBudget = args.length > 3 ? Long.parseLong(args[3]) : 1000000;
+		build(args[1], firstDeal, lastDeal, nodeBudget);
+	}
+}
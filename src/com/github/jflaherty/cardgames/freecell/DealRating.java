@@ -0,0 +1,134 @@
+package com.github.jflaherty.cardgames.freecell;
+
+/**
+ * Keeps track of how hard a deal is, worked out from how much effort the
+ * Solver needed for it. The score grows by 10 each time the number of
+ * Positions the Solver expanded doubles, plus a point for every 10 Moves in
+ * the solution, plus 20 for each FreeCell the deal needs if that was worked
+ * out, so higher scores are harder deals. Deals the Solver could not win get
+ * UNWINNABLE as their score
+ */
+public class DealRating
+{
+	// Score of deals that could not be won within the Solver's budget
+	public static final int UNWINNABLE = Integer.MAX_VALUE;
+
+	private final long dealNo;
+	private final int status;
+	private final long nodes;
+	private final int length;
+	private final int minFreecells;
+	private final int score;
+
+	/**
+	 * Creates a rating from the outcome of solving a deal
+	 *
+	 * @param dealNo the number of the deal, or 0 if it is not a numbered deal
+	 * @param result the outcome of solving the deal
+	 * @param minFreecells the fewest FreeCells the deal can be won with, or -1
+	 *            if not worked out
+	 */
+	public DealRating(long dealNo, SolverResult result, int minFreecells)
+	{
+		this(dealNo, result.getStatus(), result.getNodes(), result.getLength(),
+				minFreecells);
+	}
+
+	/**
+	 * Creates a rating from its parts, as read back from a file
+	 *
+	 * @param dealNo the number of the deal, or 0 if it is not a numbered deal
+	 * @param status the Solver's SolverResult status
+	 * @param nodes the number of Positions the Solver expanded
+	 * @param length the length of the solution, or -1 if not solved
+	 * @param minFreecells the fewest FreeCells the deal can be won with, or -1
+	 *            if not worked out
+	 */
+	public DealRating(long dealNo, int status, long nodes, int length,
+			int minFreecells)
+	{
+		this.dealNo = dealNo;
+		this.status = status;
+		this.nodes = nodes;
+		this.length = length;
+		this.minFreecells = minFreecells;
+		if (status != SolverResult.SOLVED)
+			score = UNWINNABLE;
+		else
+			score = 10 * (63 - Long.numberOfLeadingZeros(Math.max(1, nodes)))
+					+ length / 10 + 20 * Math.max(0, minFreecells);
+	}
+
+	/**
+	 * Returns the number of the deal
+	 *
+	 * @return the deal number, or 0 if it is not a numbered deal
+	 */
+	public long getDealNo()
+	{
+		return dealNo;
+	}
+
+	/**
+	 * Returns the outcome of solving the deal
+	 *
+	 * @return SolverResult.SOLVED, UNSOLVABLE or GAVE_UP
+	 */
+	public int getStatus()
+	{
+		return status;
+	}
+
+	/**
+	 * Returns the number of Positions the Solver expanded
+	 *
+	 * @return the number of nodes expanded
+	 */
+	public long getNodes()
+	{
+		return nodes;
+	}
+
+	/**
+	 * Returns the length of the solution
+	 *
+	 * @return the number of Moves, or -1 if not solved
+	 */
+	public int getLength()
+	{
+		return length;
+	}
+
+	/**
+	 * Returns the fewest FreeCells the deal can be won with
+	 *
+	 * @return the number of FreeCells, or -1 if not worked out
+	 */
+	public int getMinFreecells()
+	{
+		return minFreecells;
+	}
+
+	/**
+	 * Returns the difficulty score, higher is harder
+	 *
+	 * @return the score, or UNWINNABLE
+	 */
+	public int getScore()
+	{
+		return score;
+	}
+
+	/**
+	 * Returns this rating as a line of comma separated values
+	 *
+	 * @return the deal number, status, nodes, length, fewest FreeCells and
+	 *         score
+	 */
+	public String toString()
+	{
+		return dealNo + "," + status + "," + nodes + "," + length + ","
+				+ minFreecells + ","
+				+ (score == UNWINNABLE ? "-" : String.valueOf(score));
+	}
+}
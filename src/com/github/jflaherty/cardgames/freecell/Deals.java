@@ -0,0 +1,159 @@
+package com.github.jflaherty.cardgames.freecell;
+
+import java.util.StringTokenizer;
+
+/**
+ * Creates the starting Positions of FreeCell games. Numbered deals use the
+ * same random number generator and dealing order as the Microsoft FreeCell
+ * game, so deal 1 here is game #1 there. Deals can also be read from a layout
+ * of 52 Cards written the same way as a Hand String, listed in the order they
+ * are dealt round the Cascades
+ */
+public final class Deals
+{
+	// The classic Microsoft deals are numbered 1 to 32000
+	public static final int NO_OF_CLASSIC_DEALS = 32000;
+
+	/**
+	 * Deals are never instantiated
+	 */
+	private Deals()
+	{
+	}
+
+	/**
+	 * Returns the Cards of a numbered deal in the order they are dealt
+	 *
+	 * @param dealNo the number of the deal, 1 or more
+	 * @return the ids of the 52 Cards in dealing order
+	 */
+	public static byte[] dealOrder(long dealNo)
+	{
+		// The Microsoft deck is ordered AC AD AH AS 2C 2D ... KS
+		byte[] deck = new byte[CardTable.NO_OF_CARDS];
+		for (int index = 0; index < CardTable.NO_OF_CARDS; index++)
+			deck[index] = CardTable.id(index / CardTable.NO_OF_SUITS + 1, index
+					% CardTable.NO_OF_SUITS);
+
+		byte[] order = new byte[CardTable.NO_OF_CARDS];
+		long seed = dealNo;
+		int left = CardTable.NO_OF_CARDS;
+		for (int index = 0; index < CardTable.NO_OF_CARDS; index++)
+		{
+			seed = (seed * 214013 + 2531011) & 0xFFFFFFFFL;
+			int random = (int) (seed >> 16 & 0x7FFF);
+			int pick = random % left;
+			order[index] = deck[pick];
+			deck[pick] = deck[--left];
+		}
+		return order;
+	}
+
+	/**
+	 * Returns the starting Position of a numbered deal
+	 *
+	 * @param dealNo the number of the deal, 1 or more
+	 * @return the dealt Position
+	 */
+	public static Position deal(long dealNo)
+	{
+		return Position.deal(dealOrder(dealNo));
+	}
+
+	/**
+	 * Reads the Cards of a layout written as a Hand String, e.g. "JD 2D 9H
+	 * ..." with the Cards in dealing order. Ranks are A23456789TJQK (10 is
+	 * also accepted) and suits are CDHS in either case
+	 *
+	 * @param layout the 52 Cards of the layout
+	 * @return the ids of the Cards in dealing order
+	 * @throws IllegalArgumentException if a Card is not valid, is repeated or
+	 *             there are not 52 Cards
+	 */
+	public static byte[] parseLayout(String layout)
+	{
+		StringTokenizer tokens = new StringTokenizer(layout);
+		byte[] order = new byte[CardTable.NO_OF_CARDS];
+		long seen = 0;
+		int noOfCards = 0;
+		while (tokens.hasMoreTokens())
+		{
+			String token = tokens.nextToken();
+			byte id = parseCard(token);
+			if (noOfCards == CardTable.NO_OF_CARDS
+					|| (seen & CardTable.bit(id)) != 0)
+				throw new IllegalArgumentException("Extra or repeated card: "
+						+ token);
+			seen |= CardTable.bit(id);
+			order[noOfCards++] = id;
+		}
+		if (noOfCards != CardTable.NO_OF_CARDS)
+			throw new IllegalArgumentException("Layout has " + noOfCards
+					+ " cards");
+		return order;
+	}
+
+	/**
+	 * Reads a single Card written in FreeCell notation, e.g. "TH" or "10H"
+	 *
+	 * @param token the Card notation
+	 * @return the id of the Card
+	 * @throws IllegalArgumentException if the notation is not a Card
+	 */
+	public static byte parseCard(CharSequence token)
+	{
+		return parseCard(token, 0, token.length());
+	}
+
+	/**
+	 * Reads a single Card written in FreeCell notation from part of a longer
+	 * text
+	 *
+	 * @param text the text holding the Card
+	 * @param start the index of the first character of the Card
+	 * @param end the index just past the last character of the Card
+	 * @return the id of the Card
+	 * @throws IllegalArgumentException if the notation is not a Card
+	 */
+	public static byte parseCard(CharSequence text, int start, int end)
+	{
+		int length = end - start;
+		int rank = -1;
+		if (length == 2)
+			rank = rankOf(text.charAt(start));
+		else if (length == 3 && text.charAt(start) == '1'
+				&& text.charAt(start + 1) == '0')
+			rank = 10;
+		int suit = length < 2 ? -1 : CardTable.suitOf(text.charAt(end - 1));
+		if (rank < 0 || suit < 0)
+			throw new IllegalArgumentException("Not a card: "
+					+ text.subSequence(start, end));
+		return CardTable.id(rank, suit);
+	}
+
+	/**
+	 * Returns the rank for a rank character
+	 *
+	 * @param rankChar one of A23456789TJQK in either case
+	 * @return the rank, 1 to 13, or -1 if the character is not a rank
+	 */
+	public static int rankOf(char rankChar)
+	{
+		switch (Character.toUpperCase(rankChar))
+		{
+		case 'A':
+			return 1;
+		case 'T':
+			return 10;
+		case 'J':
+			return 11;
+		case 'Q':
+			return 12;
+		case 'K':
+			return 13;
+		}
+		if (rankChar >= '2' && rankChar <= '9')
+			return rankChar - '0';
+		return -1;
+	}
+}
@@ -0,0 +1,140 @@
+package com.github.jflaherty.cardgames.freecell;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A compact encoding of the change a Move makes to a board, for keeping a
+ * client's board or a replay in step without sending whole boards. A delta
+ * is the Move that was played followed by any Cards that then went up to
+ * the Foundations by themselves, each as a big-endian short holding the
+ * packed Move (from, to and count, the same as a Move's from, to and moved
+ * Cards), with the top bit set on every short but the last. A single Move is
+ * 2 bytes and each auto-move adds 2 more
+ */
+public final class Delta
+{
+	// The most Moves in one delta: the Move played and every Card going up
+	public static final int MAX_MOVES = 1 + CardTable.NO_OF_CARDS;
+
+	// The longest delta in bytes
+	public static final int MAX_LENGTH = 2 * MAX_MOVES;
+
+	// Set on each short that has another after it in the same delta
+	private static final int MORE = 0x8000;
+
+	/**
+	 * Creates nothing, everything is static
+	 */
+	private Delta()
+	{
+	}
+
+	/**
+	 * Makes every safe Move to the Foundations, those of Cards no other Card
+	 * still in play would ever need to be placed on, as the Solver does
+	 * before searching. The GUI's auto complete has its own rule, so it may
+	 * send up different Cards
+	 *
+	 * @param position the board, which is changed
+	 * @param moves where the auto-moves are stored
+	 * @param offset the index to store the first auto-move at
+	 * @return the number of auto-moves made
+	 */
+	public static int autoMoves(Position position, int[] moves, int offset)
+	{
+		int noOfMoves = 0;
+		int move;
+		while ((move = position.safeFoundationMove()) >= 0)
+		{
+			position.apply(move);
+			moves[offset + noOfMoves++] = move;
+		}
+		return noOfMoves;
+	}
+
+	/**
+	 * Writes a delta
+	 *
+	 * @param buffer the buffer, with at least 2 * noOfMoves bytes remaining
+	 * @param moves the packed Moves of the delta, the one played first
+	 * @param offset the index of the first Move
+	 * @param noOfMoves the number of Moves, 1 to MAX_MOVES
+	 */
+	public static void write(ByteBuffer buffer, int[] moves, int offset,
+			int noOfMoves)
+	{
+		for (int index = 0; index < noOfMoves; index++)
+			buffer.putShort((short) (moves[offset + index]
+					| (index < noOfMoves - 1 ? MORE : 0)));
+	}
+
+	/**
+	 * Reads a delta
+	 *
+	 * @param buffer the buffer, positioned at the start of the delta
+	 * @param moves where the packed Moves are stored, at least MAX_MOVES long
+	 * @return the number of Moves in the delta
+	 * @throws IllegalArgumentException if the delta is too long or the buffer
+	 *             ends part way through it
+	 */
+	public static int read(ByteBuffer buffer, int[] moves)
+	{
+		int noOfMoves = 0;
+		int value;
+		do
+		{
+			if (noOfMoves == MAX_MOVES)
+				throw new IllegalArgumentException("Delta has more than "
+						+ MAX_MOVES + " Moves");
+			if (buffer.remaining() < 2)
+				throw new IllegalArgumentException("Delta is cut short");
+			value = buffer.getShort() & 0xFFFF;
+			moves[noOfMoves++] = value & ~MORE;
+		}
+		while ((value & MORE) != 0);
+		return noOfMoves;
+	}
+
+	/**
+	 * Reads a delta and applies it to a board
+	 *
+	 * @param buffer the buffer, positioned at the start of the delta
+	 * @param position the board, which is changed
+	 * @return the number of Moves applied
+	 * @throws IllegalArgumentException if the delta is too long or one of its
+	 *             Moves is not legal on the board, in which case the Moves
+	 *             before it have been applied
+	 */
+	public static int apply(ByteBuffer buffer, Position position)
+	{
+		int[] moves = new int[MAX_MOVES];
+		int noOfMoves = read(buffer, moves);
+		for (int index = 0; index < noOfMoves; index++)
+		{
+			if (!position.isLegal(moves[index]))
+				throw new IllegalArgumentException("Move "
+						+ Position.moveToString(moves[index])
+						+ " of the delta is not legal");
+			position.apply(moves[index]);
+		}
+		return noOfMoves;
+	}
+
+	/**
+	 * Reads a delta and returns the board it leads to. The Moves must be
+	 * legal on the board, which is not checked
+	 *
+	 * @param buffer the buffer, positioned at the start of the delta
+	 * @param board the board before the delta
+	 * @return the board after the delta
+	 * @throws IllegalArgumentException if the delta is too long
+	 */
+	public static Snapshot apply(ByteBuffer buffer, Snapshot board)
+	{
+		int[] moves = new int[MAX_MOVES];
+		int noOfMoves = read(buffer, moves);
+		for (int index = 0; index < noOfMoves; index++)
+			board = board.apply(moves[index]);
+		return board;
+	}
+}
@@ -0,0 +1,281 @@
+package com.github.jflaherty.cardgames.freecell;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Rates how hard deals are by solving them (see DealRating), optionally also
+ * finding the fewest FreeCells each deal needs, and caches the ratings by
+ * deal, so a deal is only ever solved once. Numbered deals and
+ * layouts are both cached by the key of their dealt Position. A whole range
+ * of numbered deals can be rated in parallel and saved to a file, which the
+ * game can read back to pick deals of a wanted difficulty without solving
+ * anything
+ *
+ * <pre>
+ * DifficultyRater [first-last] [nodes] [file] [-freecells]
+ * </pre>
+ */
+public class DifficultyRater
+{
+	// Default file name for saved ratings
+	public static final String FILE_NAME = "ratings.csv";
+
+	private final ConcurrentHashMap<Long, DealRating> cache = new ConcurrentHashMap<Long, DealRating>();
+	private final ThreadLocal<Solver> solvers;
+	private final ThreadLocal<MinimumFreecells> freecellFinders;
+
+	/**
+	 * Creates a DifficultyRater with nothing cached
+	 *
+	 * @param nodeBudget the node budget for solving each deal. Ratings are
+	 *            only comparable when made with the same budget
+	 * @param findFreecells true to also find the fewest FreeCells each deal
+	 *            needs, which takes several more solves per deal
+	 */
+	public DifficultyRater(final long nodeBudget, boolean findFreecells)
+	{
+		solvers = new ThreadLocal<Solver>()
+		{
+			protected Solver initialValue()
+			{
+				return new Solver(nodeBudget);
+			}
+		};
+		if (!findFreecells)
+			freecellFinders = null;
+		else
+			freecellFinders = new ThreadLocal<MinimumFreecells>()
+			{
+				protected MinimumFreecells initialValue()
+				{
+					return new MinimumFreecells(nodeBudget);
+				}
+			};
+	}
+
+	/**
+	 * Rates a numbered deal
+	 *
+	 * @param dealNo the number of the deal
+	 * @return the rating
+	 */
+	public DealRating rate(long dealNo)
+	{
+		return rate(dealNo, Deals.deal(dealNo));
+	}
+
+	/**
+	 * Rates a layout of Cards in dealing order
+	 *
+	 * @param layout the 52 Cards of the layout (see Deals.parseLayout)
+	 * @return the rating
+	 * @throws IllegalArgumentException if the layout is not valid
+	 */
+	public DealRating rateLayout(String layout)
+	{
+		return rate(0, Position.deal(Deals.parseLayout(layout)));
+	}
+
+	/**
+	 * Returns the cached rating of a deal, solving it first if needed
+	 *
+	 * @param dealNo the number of the deal, or 0 if it is not numbered
+	 * @param start the dealt Position
+	 * @return the rating
+	 */
+	private DealRating rate(long dealNo, Position start)
+	{
+		Long key = start.key();
+		DealRating rating = cache.get(key);
+		if (rating == null)
+		{
+			// Two threads may both solve a deal, but they get the same
+			// rating so it does not matter which is kept
+			SolverResult result = solvers.get().solve(start);
+			int minFreecells = -1;
+			if (freecellFinders != null && result.isSolved())
+				minFreecells = freecellFinders.get().find(start,
+						result.getSolution());
+			rating = new DealRating(dealNo, result, minFreecells);
+			DealRating earlier = cache.putIfAbsent(key, rating);
+			if (earlier != null)
+				rating = earlier;
+		}
+		return rating;
+	}
+
+	/**
+	 * Returns the number of deals rated so far
+	 *
+	 * @return the number of cached ratings
+	 */
+	public int size()
+	{
+		return cache.size();
+	}
+
+	/**
+	 * Rates a range of numbered deals in parallel
+	 *
+	 * @param firstDeal the first deal number
+	 * @param lastDeal the last deal number
+	 * @param noOfThreads the number of threads to solve with
+	 * @return the ratings in deal order
+	 * @throws InterruptedException if the rating is interrupted
+	 */
+	public ArrayList<DealRating> rateAll(int firstDeal, int lastDeal,
+			int noOfThreads) throws InterruptedException
+	{
+		ExecutorService pool = Executors.newFixedThreadPool(noOfThreads);
+		ArrayList<Future<DealRating>> futures = new ArrayList<Future<DealRating>>(
+				lastDeal - firstDeal + 1);
+		for (int dealNo = firstDeal; dealNo <= lastDeal; dealNo++)
+		{
+			final int deal = dealNo;
+			futures.add(pool.submit(new Callable<DealRating>()
+			{
+				public DealRating call()
+				{
+					return rate(deal);
+				}
+			}));
+		}
+		pool.shutdown();
+
+		ArrayList<DealRating> ratings = new ArrayList<DealRating>(
+				futures.size());
+		try
+		{
+			for (Future<DealRating> future : futures)
+			{
+				ratings.add(future.get());
+				if (ratings.size() % 1000 == 0)
+					System.err.println(ratings.size() + " deals rated");
+			}
+		}
+		catch (ExecutionException exp)
+		{
+			pool.shutdownNow();
+			throw new IllegalStateException("Error rating deals",
+					exp.getCause());
+		}
+		return ratings;
+	}
+
+	/**
+	 * Picks a random numbered deal among those rated with a score in a range
+	 *
+	 * @param minScore the lowest score wanted
+	 * @param maxScore the highest score wanted
+	 * @param random the source of randomness
+	 * @return the deal number, or 0 if no rated deal is in the range
+	 */
+	public long pickDeal(int minScore, int maxScore, Random random)
+	{
+		ArrayList<DealRating> matches = new ArrayList<DealRating>();
+		for (DealRating rating : cache.values())
+		{
+			if (rating.getDealNo() > 0 && rating.getScore() >= minScore
+					&& rating.getScore() <= maxScore)
+				matches.add(rating);
+		}
+		if (matches.isEmpty())
+			return 0;
+		return matches.get(random.nextInt(matches.size())).getDealNo();
+	}
+
+	/**
+	 * Saves the ratings of the numbered deals to a file, one per line
+	 *
+	 * @param ratings the ratings to save
+	 * @param fileName the name of the file
+	 * @throws IOException if the file cannot be written
+	 */
+	public static void writeToFile(ArrayList<DealRating> ratings,
+			String fileName) throws IOException
+	{
+		PrintWriter fileOut = new PrintWriter(fileName);
+		try
+		{
+			fileOut.println("deal,status,nodes,length,freecells,score");
+			for (DealRating rating : ratings)
+				fileOut.println(rating);
+		}
+		finally
+		{
+			fileOut.close();
+		}
+	}
+
+	/**
+	 * Adds the ratings saved in a file to the cache
+	 *
+	 * @param fileName the name of the file
+	 * @throws IOException if the file cannot be read
+	 */
+	public void readFromFile(String fileName) throws IOException
+	{
+		BufferedReader fileIn = new BufferedReader(new FileReader(fileName));
+		try
+		{
+			String line = fileIn.readLine();
+			while ((line = fileIn.readLine()) != null)
+			{
+				String[] fields = line.split(",");
+				if (fields.length < 5)
+					continue;
+				long dealNo = Long.parseLong(fields[0]);
+				cache.put(Deals.deal(dealNo).key(), new DealRating(dealNo,
+						Integer.parseInt(fields[1]), Long.parseLong(fields[2]),
+						Integer.parseInt(fields[3]),
+						Integer.parseInt(fields[4])));
+			}
+		}
+		finally
+		{
+			fileIn.close();
+		}
+	}
+
+	/**
+	 * Rates a range of numbered deals and saves the ratings
+	 *
+	 * @param args optionally a range of deals such as 1-32000, a node budget,
+	 *            the file to save to and -freecells to find the fewest
+	 *            FreeCells
+	 * @throws Exception if the deals cannot be rated or saved
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		int firstDeal = 1;
+		int lastDeal = Deals.NO_OF_CLASSIC_DEALS;
+		if (args.length > 0)
+		{
+			int dash = args[0].indexOf('-');
+			firstDeal = Integer.parseInt(args[0].substring(0, dash));
+			lastDeal = Integer.parseInt(args[0].substring(dash + 1));
+		}
+		long nodeBudget = args.length > 1 ? Long.parseLong(args[1]) : 200000;
+		String fileName = args.length > 2 ? args[2] : FILE_NAME;
+
+		long start = System.nanoTime();
+		boolean findFreecells = args.length > 3 && args[3].equals("-freecells");
+		DifficultyRater rater = new DifficultyRater(nodeBudget, findFreecells);
+		ArrayList<DealRating> ratings = rater.rateAll(firstDeal, lastDeal,
+				Runtime.getRuntime().availableProcessors());
+		writeToFile(ratings, fileName);
+		System.err.printf("Rated %d deals in %.1f s%n", ratings.size(),
+				(System.nanoTime() - start) / 1e9);
+	}
+}
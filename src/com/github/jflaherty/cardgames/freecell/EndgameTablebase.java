@@ -0,0 +1,504 @@
+package com.github.jflaherty.cardgames.freecell;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * A read-only table of perfect play for the end of a game, when only a few
+ * Cards are left off the Foundations. For every winnable Position with at
+ * most getMaxCards() Cards left it holds the fewest single Card Moves needed
+ * to win, so the best Move near the end is a lookup of each Move's result
+ * instead of a search.
+ * <p>
+ * The table is built offline by retrograde analysis: a breadth first search
+ * backwards from the won Position, undoing one legal Move at a time, so each
+ * Position is first reached at its distance from the end. Positions are
+ * stored by a compact code that is the same whatever order the Cascades and
+ * FreeCells are in, and the file is an open addressing hash table of codes
+ * that is memory mapped read-only when used.
+ * <p>
+ * File layout (big-endian):
+ *
+ * <pre>
+ * header:  int magic "FCTB", int version, int most Cards left, int number of slots
+ * slots:   per slot: long (code + 1) &lt;&lt; 8 | distance, or 0 if empty
+ * </pre>
+ *
+ * Build a table with
+ *
+ * <pre>
+ * EndgameTablebase build endgame.tb [cards]
+ * </pre>
+ */
+public class EndgameTablebase
+{
+	// Default file name used by the game
+	public static final String FILE_NAME = "endgame.tb";
+
+	// The code gives each Card left 3 bits, so this is the most it can hold
+	public static final int MAX_CARDS_LIMIT = 8;
+
+	private static final int MAGIC = 0x46435442;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 16;
+
+	// Bit layout of a code: 4 bits for each Foundation, 3 bits for the
+	// number of Cards in the FreeCells and then 4 bits for each Card left
+	private static final int FREECELL_SHIFT = 16;
+	private static final int CARDS_SHIFT = 19;
+
+	private final ByteBuffer buffer;
+	private final int maxCards;
+	private final int slotMask;
+
+	/**
+	 * Wraps a mapped table file
+	 *
+	 * @param buffer the contents of the file
+	 */
+	private EndgameTablebase(ByteBuffer buffer)
+	{
+		if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+			throw new IllegalArgumentException("Not an endgame tablebase");
+		this.buffer = buffer;
+		maxCards = buffer.getInt(8);
+		slotMask = buffer.getInt(12) - 1;
+	}
+
+	/**
+	 * Maps a table file read-only
+	 *
+	 * @param fileName the name of the file
+	 * @return the table, or null if the file does not exist or is not an
+	 *         endgame tablebase
+	 */
+	public static EndgameTablebase open(String fileName)
+	{
+		File file = new File(fileName);
+		if (!file.exists())
+			return null;
+		try
+		{
+			RandomAccessFile fileIn = new RandomAccessFile(file, "r");
+			try
+			{
+				return new EndgameTablebase(fileIn.getChannel().map(
+						FileChannel.MapMode.READ_ONLY, 0, fileIn.length()));
+			}
+			finally
+			{
+				fileIn.close();
+			}
+		}
+		catch (Exception exp)
+		{
+			System.out.println("Error reading the endgame tablebase");
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the most Cards left off the Foundations that this table covers
+	 *
+	 * @return the most Cards left
+	 */
+	public int getMaxCards()
+	{
+		return maxCards;
+	}
+
+	/**
+	 * Checks if a Position has few enough Cards left to be in this table. The
+	 * table is built for the classic variant with all of the FreeCells in
+	 * play, so it does not cover other variants or Positions with fewer
+	 * FreeCells
+	 *
+	 * @param position the Position to check
+	 * @return true if this table covers the Position
+	 */
+	public boolean covers(Position position)
+	{
+		return CardTable.NO_OF_CARDS - position.cardsOnFoundations() <= maxCards
+				&& position.getVariant() == Variant.CLASSIC
+				&& position.getNoOfFreecells() == Position.NO_OF_FREECELLS;
+	}
+
+	/**
+	 * Returns the fewest single Card Moves needed to win from a Position
+	 *
+	 * @param position a Position this table covers
+	 * @return the number of Moves, or -1 if the Position cannot be won
+	 */
+	public int distance(Position position)
+	{
+		long code = encode(position);
+		long stored = (code + 1) << 8;
+		int slot = (int) Position.mix(code) & slotMask;
+		long entry;
+		while ((entry = buffer.getLong(HEADER_SIZE + 8 * slot)) != 0)
+		{
+			if ((entry & ~0xFFL) == stored)
+				return (int) (entry & 0xFF);
+			slot = (slot + 1) & slotMask;
+		}
+		return -1;
+	}
+
+	/**
+	 * Finds the Move that gets closest to winning from a Position
+	 *
+	 * @param position a Position this table covers, which is left as it was
+	 * @param moves scratch space for the Moves, at least Position.MAX_MOVES
+	 *            long
+	 * @return the packed Move, or -1 if the Position cannot be won or is
+	 *         already won
+	 */
+	public int bestMove(Position position, int[] moves)
+	{
+		int noOfMoves = position.generateMoves(moves);
+		int best = -1;
+		int bestDistance = Integer.MAX_VALUE;
+		for (int index = 0; index < noOfMoves; index++)
+		{
+			position.apply(moves[index]);
+			int distance = covers(position) ? distance(position) : -1;
+			position.undo(moves[index]);
+			if (distance >= 0 && distance < bestDistance)
+			{
+				best = moves[index];
+				bestDistance = distance;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Returns the code of a Position with at most MAX_CARDS_LIMIT Cards left.
+	 * The Cards left are numbered by suit and then rank, the FreeCell Cards
+	 * are listed in order and the Cascades are listed in order of their
+	 * bottom Cards, so the code does not depend on which Cascade or FreeCell
+	 * holds what
+	 *
+	 * @param position the Position
+	 * @return the code
+	 */
+	static long encode(Position position)
+	{
+		long code = 0;
+		for (int suit = 0; suit < Position.NO_OF_FOUNDATIONS; suit++)
+			code |= (long) position.foundation(suit) << 4 * suit;
+
+		// The FreeCell Cards, smallest number first
+		int[] numbers = new int[Position.NO_OF_CASCADES];
+		int noOfCells = 0;
+		for (int cell = 0; cell < Position.NO_OF_FREECELLS; cell++)
+		{
+			byte card = position.freecell(cell);
+			if (card != CardTable.NONE)
+				numbers[noOfCells++] = cardNumber(position, card);
+		}
+		Arrays.sort(numbers, 0, noOfCells);
+		code |= (long) noOfCells << FREECELL_SHIFT;
+		int shift = CARDS_SHIFT;
+		for (int cell = 0; cell < noOfCells; cell++)
+		{
+			code |= (long) (numbers[cell] << 1) << shift;
+			shift += 4;
+		}
+
+		// The Cascades in order of their bottom Cards. The bottom Card's
+		// number is kept above the Cascade's index so one sort does both
+		int noOfCascades = 0;
+		for (int cascade = 0; cascade < Position.NO_OF_CASCADES; cascade++)
+		{
+			if (position.height(cascade) > 0)
+				numbers[noOfCascades++] = cardNumber(position,
+						position.cardAt(cascade, 0)) << 4 | cascade;
+		}
+		Arrays.sort(numbers, 0, noOfCascades);
+		for (int next = 0; next < noOfCascades; next++)
+		{
+			int cascade = numbers[next] & 0xF;
+			for (int index = 0; index < position.height(cascade); index++)
+			{
+				int number = cardNumber(position, position.cardAt(cascade,
+						index));
+				code |= (long) (number << 1 | (index == 0 ? 1 : 0)) << shift;
+				shift += 4;
+			}
+		}
+		return code;
+	}
+
+	/**
+	 * Sets up the Position a code stands for
+	 *
+	 * @param code the code
+	 * @param into the Position to fill, which is cleared first
+	 */
+	static void decode(long code, Position into)
+	{
+		into.clear();
+		byte[] cardsLeft = new byte[MAX_CARDS_LIMIT];
+		int noOfCards = 0;
+		for (int suit = 0; suit < Position.NO_OF_FOUNDATIONS; suit++)
+		{
+			int count = (int) (code >>> 4 * suit & 0xF);
+			into.setFoundation(suit, count);
+			for (int rank = count + 1; rank <= CardTable.NO_OF_RANKS; rank++)
+				cardsLeft[noOfCards++] = CardTable.id(rank, suit);
+		}
+
+		int noOfCells = (int) (code >>> FREECELL_SHIFT & 0x7);
+		int cascade = -1;
+		for (int card = 0; card < noOfCards; card++)
+		{
+			int entry = (int) (code >>> CARDS_SHIFT + 4 * card & 0xF);
+			byte id = cardsLeft[entry >> 1];
+			if (card < noOfCells)
+				into.setFreecell(card, id);
+			else
+			{
+				if ((entry & 1) != 0)
+					cascade++;
+				into.addToCascade(cascade, id);
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of a Card among the Cards left, counting by suit
+	 * and then rank
+	 */
+	private static int cardNumber(Position position, byte card)
+	{
+		int suit = CardTable.suit(card);
+		int number = CardTable.rank(card) - position.foundation(suit) - 1;
+		for (int lower = 0; lower < suit; lower++)
+			number += CardTable.NO_OF_RANKS - position.foundation(lower);
+		return number;
+	}
+
+	/**
+	 * Builds a table by searching backwards from the won Position and writes
+	 * it to a file
+	 *
+	 * @param fileName the name of the file to write
+	 * @param maxCards the most Cards left off the Foundations to cover, at
+	 *            most MAX_CARDS_LIMIT
+	 * @throws IOException if the file cannot be written
+	 */
+	public static void build(String fileName, int maxCards) throws IOException
+	{
+		if (maxCards < 0 || maxCards > MAX_CARDS_LIMIT)
+			throw new IllegalArgumentException("Cards left must be 0 to "
+					+ MAX_CARDS_LIMIT);
+
+		Position position = new Position();
+		for (int suit = 0; suit < Position.NO_OF_FOUNDATIONS; suit++)
+			position.setFoundation(suit, CardTable.NO_OF_RANKS);
+
+		long[] slots = new long[1 << 10];
+		int size = 0;
+		long[] frontier = { encode(position) };
+		int frontierSize = 1;
+		put(slots, frontier[0], 0);
+		size++;
+
+		for (int distance = 1; frontierSize > 0; distance++)
+		{
+			long[] next = new long[Math.max(16, frontierSize * 2)];
+			int nextSize = 0;
+			for (int index = 0; index < frontierSize; index++)
+			{
+				decode(frontier[index], position);
+				for (int to = 0; to < Position.NO_OF_HANDS; to++)
+				{
+					for (int from = 0; from < Position.FIRST_FOUNDATION; from++)
+					{
+						if (!isUnmove(position, from, to, maxCards))
+							continue;
+						int move = Position.move(from, to, 1);
+						position.undo(move);
+						long code = encode(position);
+						position.apply(move);
+						if (contains(slots, code))
+							continue;
+						if ((size + 1) * 2 > slots.length)
+							slots = grow(slots);
+						put(slots, code, distance);
+						size++;
+						if (nextSize == next.length)
+							next = Arrays.copyOf(next, nextSize * 2);
+						next[nextSize++] = code;
+					}
+				}
+			}
+			frontier = next;
+			frontierSize = nextSize;
+			System.err.println("distance " + distance + ": " + nextSize
+					+ " positions");
+		}
+		System.err.println(size + " positions in all");
+
+		RandomAccessFile fileOut = new RandomAccessFile(fileName, "rw");
+		try
+		{
+			fileOut.setLength(0);
+			FileChannel channel = fileOut.getChannel();
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC).putInt(VERSION).putInt(maxCards)
+					.putInt(slots.length);
+			header.flip();
+			while (header.hasRemaining())
+				channel.write(header);
+
+			ByteBuffer data = ByteBuffer.allocate(8 * 4096);
+			for (int slot = 0; slot < slots.length; slot++)
+			{
+				data.putLong(slots[slot]);
+				if (!data.hasRemaining() || slot == slots.length - 1)
+				{
+					data.flip();
+					while (data.hasRemaining())
+						channel.write(data);
+					data.clear();
+				}
+			}
+		}
+		finally
+		{
+			fileOut.close();
+		}
+	}
+
+	/**
+	 * Checks if a Position could have been reached by moving the top Card of
+	 * one Hand from another with a legal Move, keeping within the Cards left
+	 * that the table covers. Only the first empty Cascade or FreeCell is used
+	 * as where the Card came from since the others give the same code
+	 *
+	 * @param position the Position after the Move
+	 * @param from the Hand the Card would have come from
+	 * @param to the Hand the Card is on now
+	 * @param maxCards the most Cards left off the Foundations
+	 * @return true if undoing the Move gives a Position to search
+	 */
+	private static boolean isUnmove(Position position, int from, int to,
+			int maxCards)
+	{
+		byte card = position.topCard(to);
+		if (card == CardTable.NONE || from == to)
+			return false;
+
+		// The Move the Card made must have been legal
+		if (to < Position.FIRST_FREECELL)
+		{
+			int height = position.height(to);
+			if (height > 1
+					&& !Variant.CLASSIC.canStackOn(card, position.cardAt(to,
+							height - 2)))
+				return false;
+		}
+		else if (to < Position.FIRST_FOUNDATION)
+		{
+			if (from >= Position.FIRST_FREECELL)
+				return false;
+		}
+		else if (CardTable.NO_OF_CARDS - position.cardsOnFoundations() >= maxCards)
+			return false;
+
+		// It must have come from the top of a Cascade or an empty FreeCell
+		if (from < Position.FIRST_FREECELL)
+		{
+			if (position.height(from) == 0)
+				return from == firstEmpty(position, 0, Position.FIRST_FREECELL);
+			return true;
+		}
+		return from == firstEmpty(position, Position.FIRST_FREECELL,
+				Position.FIRST_FOUNDATION);
+	}
+
+	/**
+	 * Returns the first empty Hand in a range of Cascades or FreeCells
+	 */
+	private static int firstEmpty(Position position, int first, int end)
+	{
+		for (int hand = first; hand < end; hand++)
+		{
+			if (position.topCard(hand) == CardTable.NONE)
+				return hand;
+		}
+		return -1;
+	}
+
+	/**
+	 * Checks if a code is in a table being built
+	 */
+	private static boolean contains(long[] slots, long code)
+	{
+		int mask = slots.length - 1;
+		int slot = (int) Position.mix(code) & mask;
+		while (slots[slot] != 0)
+		{
+			if (slots[slot] >>> 8 == code + 1)
+				return true;
+			slot = (slot + 1) & mask;
+		}
+		return false;
+	}
+
+	/**
+	 * Adds a code that is not yet in a table being built
+	 */
+	private static void put(long[] slots, long code, int distance)
+	{
+		int mask = slots.length - 1;
+		int slot = (int) Position.mix(code) & mask;
+		while (slots[slot] != 0)
+			slot = (slot + 1) & mask;
+		slots[slot] = (code + 1) << 8 | distance;
+	}
+
+	/**
+	 * Doubles the size of a table being built and puts the codes back in
+	 *
+	 * @return the new table
+	 */
+	private static long[] grow(long[] oldSlots)
+	{
+		long[] slots = new long[oldSlots.length * 2];
+		int mask = slots.length - 1;
+		for (long entry : oldSlots)
+		{
+			if (entry == 0)
+				continue;
+			int slot = (int) Position.mix((entry >>> 8) - 1) & mask;
+			while (slots[slot] != 0)
+				slot = (slot + 1) & mask;
+			slots[slot] = entry;
+		}
+		return slots;
+	}
+
+	/**
+	 * Builds a table from the command line
+	 *
+	 * @param args "build", the file name and optionally the most Cards left,
+	 *            6 if not given
+	 * @throws IOException if the table cannot be written
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length < 2 || !args[0].equals("build"))
+		{
+			System.err.println("Usage: EndgameTablebase build file [cards]");
+			return;
+		}
+		build(args[1], args.length > 2 ? Integer.parseInt(args[2]) : 6);
+	}
+}
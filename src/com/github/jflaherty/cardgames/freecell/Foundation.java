@@ -37,4 +37,20 @@ public class Foundation extends FreeCellHand
 	{
 		return null;
 	}
+
+	/**
+	 * Returns the Card that can be placed on this Foundation. Only an ace can
+	 * go on an empty Foundation
+	 * 
+	 * @return the mask of the ids of the Cards this Foundation accepts
+	 */
+	public long acceptsMask()
+	{
+		if (cardsLeft() == 0)
+			return MoveTables.ACES;
+		byte next = CardTable.foundationNext(getTopCard().getId());
+		if (next == CardTable.NONE)
+			return 0;
+		return CardTable.bit(next);
+	}
 }
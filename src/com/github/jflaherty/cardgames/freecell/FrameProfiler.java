@@ -0,0 +1,171 @@
+package com.github.jflaherty.cardgames.freecell;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Keeps track of the most recent frames painted by the CardPanel for the
+ * debug overlay. For each frame it records when it started, how long it took,
+ * how many Cards were drawn and how many bytes the painting thread allocated.
+ * The frames are kept in a ring buffer, so memory use is fixed, and can be
+ * drawn as a small overlay on the table or dumped to a CSV file. Only used on
+ * the event dispatch thread
+ */
+public class FrameProfiler
+{
+	// Number of recent frames kept
+	public static final int NO_OF_FRAMES = 512;
+
+	private static final long ONE_SECOND = 1000000000L;
+
+	private final long[] startTimes = new long[NO_OF_FRAMES];
+	private final long[] durations = new long[NO_OF_FRAMES];
+	private final long[] allocations = new long[NO_OF_FRAMES];
+	private final int[] cardsDrawn = new int[NO_OF_FRAMES];
+	private int nextFrame;
+	private int noOfFrames;
+
+	// Used to read the bytes allocated by the painting thread, null if the
+	// JVM cannot measure allocations
+	private final com.sun.management.ThreadMXBean threads;
+	private long frameStart;
+	private long allocatedAtStart;
+
+	/**
+	 * Creates a FrameProfiler with no frames recorded
+	 */
+	public FrameProfiler()
+	{
+		java.lang.management.ThreadMXBean threadBean = ManagementFactory
+				.getThreadMXBean();
+		if (threadBean instanceof com.sun.management.ThreadMXBean
+				&& ((com.sun.management.ThreadMXBean) threadBean)
+						.isThreadAllocatedMemorySupported())
+			threads = (com.sun.management.ThreadMXBean) threadBean;
+		else
+			threads = null;
+	}
+
+	/**
+	 * Marks the start of a frame
+	 */
+	public void beginFrame()
+	{
+		allocatedAtStart = allocatedBytes();
+		frameStart = System.nanoTime();
+	}
+
+	/**
+	 * Marks the end of the frame started by the last call to beginFrame()
+	 *
+	 * @param cards the number of Cards drawn in the frame
+	 */
+	public void endFrame(int cards)
+	{
+		long end = System.nanoTime();
+		startTimes[nextFrame] = frameStart;
+		durations[nextFrame] = end - frameStart;
+		allocations[nextFrame] = threads == null ? -1 : allocatedBytes()
+				- allocatedAtStart;
+		cardsDrawn[nextFrame] = cards;
+		nextFrame = (nextFrame + 1) % NO_OF_FRAMES;
+		if (noOfFrames < NO_OF_FRAMES)
+			noOfFrames++;
+	}
+
+	/**
+	 * Returns the bytes allocated so far by the current thread
+	 *
+	 * @return the bytes allocated, or 0 if this cannot be measured
+	 */
+	private long allocatedBytes()
+	{
+		if (threads == null)
+			return 0;
+		return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	/**
+	 * Returns the index in the ring buffer of a recent frame
+	 *
+	 * @param age 0 for the most recent frame, 1 for the one before and so on
+	 * @return the index of the frame
+	 */
+	private int frameIndex(int age)
+	{
+		return (nextFrame - 1 - age + NO_OF_FRAMES) % NO_OF_FRAMES;
+	}
+
+	/**
+	 * Draws the overlay with the rolling frame statistics for the last
+	 * second of frames
+	 *
+	 * @param g the Graphics context to draw in
+	 * @param x the x position of the left of the overlay
+	 * @param y the y position of the top of the overlay
+	 */
+	public void draw(Graphics g, int x, int y)
+	{
+		if (noOfFrames == 0)
+			return;
+
+		// Gather up the frames painted in the last second
+		long latest = startTimes[frameIndex(0)];
+		int frames = 0;
+		long totalTime = 0, maxTime = 0, totalAllocated = 0;
+		while (frames < noOfFrames)
+		{
+			int index = frameIndex(frames);
+			if (latest - startTimes[index] >= ONE_SECOND)
+				break;
+			totalTime += durations[index];
+			maxTime = Math.max(maxTime, durations[index]);
+			totalAllocated += allocations[index];
+			frames++;
+		}
+
+		String[] lines = {
+				String.format("frame %.2f ms (avg %.2f, max %.2f)",
+						durations[frameIndex(0)] / 1e6, totalTime / 1e6
+								/ frames, maxTime / 1e6),
+				String.format("%d repaints/s, %d cards drawn", frames,
+						cardsDrawn[frameIndex(0)]),
+				threads == null ? "allocation not measurable" : String.format(
+						"%.1f KB/frame, %.1f KB/s", totalAllocated / 1024.0
+								/ frames, totalAllocated / 1024.0) };
+
+		g.setColor(new Color(0, 0, 0, 160));
+		g.fillRect(x, y, 260, 16 * lines.length + 8);
+		g.setColor(Color.WHITE);
+		for (int line = 0; line < lines.length; line++)
+			g.drawString(lines[line], x + 6, y + 18 + 16 * line);
+	}
+
+	/**
+	 * Writes the recorded frames to a CSV file, oldest first
+	 *
+	 * @param fileName the name of the file
+	 */
+	public void dumpToFile(String fileName)
+	{
+		try
+		{
+			PrintWriter fileOut = new PrintWriter(fileName);
+			fileOut.println("start_ns,duration_ns,cards_drawn,allocated_bytes");
+			for (int age = noOfFrames - 1; age >= 0; age--)
+			{
+				int index = frameIndex(age);
+				fileOut.println(startTimes[index] + "," + durations[index]
+						+ "," + cardsDrawn[index] + "," + allocations[index]);
+			}
+			fileOut.close();
+		}
+		catch (IOException exp)
+		{
+			System.out.println("Error writing the frame log");
+		}
+	}
+}
@@ -1,5 +1,9 @@
 package com.github.jflaherty.cardgames.freecell;
 import java.awt.Point;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.github.jflaherty.cardgames.playingcards.french.Card;
 
 /**
  * Keeps track of a FreeCell. FreeCells are assumed to be GHands. This class
@@ -52,6 +56,19 @@ public class FreeCell extends FreeCellHand
 		return card;
 	}
 
+	/**
+	 * Returns the Cards that can be placed on this FreeCell. Any Card can go
+	 * on an empty FreeCell and none can go on a full one
+	 * 
+	 * @return the mask of the ids of the Cards this FreeCell accepts
+	 */
+	public long acceptsMask()
+	{
+		if (cardsLeft() == 0)
+			return MoveTables.ALL_CARDS;
+		return 0;
+	}
+
 	/**
 	 * Adds a Card to the FreeCell while updating the number of empty FreeCells
 	 */
@@ -61,6 +78,17 @@ public class FreeCell extends FreeCellHand
 		noOfEmptyFreecells--;
 	}
 
+	/**
+	 * Adds Cards to the FreeCell while updating the number of empty FreeCells
+	 * 
+	 * @param cards the Cards to add
+	 */
+	public void addCards(List<Card> cards)
+	{
+		super.addCards(cards);
+		noOfEmptyFreecells -= cards.size();
+	}
+
 	/**
 	 * Clears the Cards in the FreeCell while updating the number of empty
 	 * FreeCells
@@ -71,7 +99,7 @@ public class FreeCell extends FreeCellHand
 		// Updates the number of Empty FreeCells to the Number of FreeCells in
 		// the game since the only time clear() is used is at the beginning of a
 		// new game
-		noOfEmptyFreecells = 4;
+		noOfEmptyFreecells = variant.getNoOfFreecells();
 	}
 
 	/**
@@ -87,4 +115,18 @@ public class FreeCell extends FreeCellHand
 		noOfEmptyFreecells++;
 		return returnCard;
 	}
+
+	/**
+	 * Removes the Cards from the given index to the top while updating the
+	 * number of empty FreeCells
+	 * 
+	 * @param index the index of the lowest GCard to remove
+	 * @return the GCards removed
+	 */
+	public ArrayList<Card> removeCards(int index)
+	{
+		ArrayList<Card> removed = super.removeCards(index);
+		noOfEmptyFreecells += removed.size();
+		return removed;
+	}
 }
@@ -25,6 +25,22 @@ import java.awt.Rectangle;
  */
 public class FreeCellCard extends Card implements Movable
 {
+	// Interned Rank and Suit for each Card id in the CardTable
+	private static final Rank[] RANKS = new Rank[CardTable.NO_OF_RANKS + 1];
+	private static final Suit[] SUITS = new Suit[CardTable.NO_OF_SUITS];
+
+	static
+	{
+		for (Rank rank : Rank.values())
+		{
+			if (rank != Rank.ACE_H)
+				RANKS[rank.asInt()] = rank;
+		}
+		for (Suit suit : Suit.values())
+			SUITS[CardTable.suitOf(suit.name().charAt(0))] = suit;
+	}
+
+	private final byte id;
 	private Point position;
 	private Image image;
 	private boolean flash;
@@ -46,8 +62,45 @@ public class FreeCellCard extends Card implements Movable
 
 	public FreeCellCard(Rank rank, Suit suit) {
 		super(rank, suit);
+		this.id = idOf(this);
+		this.position = new Point(400 - WIDTH / 2, 470);
+	}
+
+	/**
+	 * Constructs a graphical Card from its id in the CardTable
+	 * 
+	 * @param id the id of the Card
+	 */
+	public FreeCellCard(byte id)
+	{
+		super(RANKS[CardTable.rank(id)], SUITS[CardTable.suit(id)]);
+		this.id = id;
 		this.position = new Point(400 - WIDTH / 2, 470);
 	}
+
+	/**
+	 * Returns the id of any Card in the CardTable
+	 * 
+	 * @param card the Card to look up
+	 * @return the id of the Card
+	 */
+	public static byte idOf(Card card)
+	{
+		if (card instanceof FreeCellCard)
+			return ((FreeCellCard) card).id;
+		return CardTable.id(card.getRank().asInt(),
+				CardTable.suitOf(card.getSuit().name().charAt(0)));
+	}
+
+	/**
+	 * Returns the id of this Card in the CardTable
+	 * 
+	 * @return the id of this Card
+	 */
+	public byte getId()
+	{
+		return id;
+	}
 	
 	/**
 	 * Sets the current position of this GCard
@@ -95,7 +148,23 @@ public class FreeCellCard extends Card implements Movable
 		}
 
 		if (isFaceUp)
-			g.drawImage(image, position.x, position.y, null);
+		{
+			// Face images load in the background, draw a plain Card with its
+			// name until this one is ready
+			if (image == null)
+				image = CardImages.getFace(id);
+			if (image != null)
+				g.drawImage(image, position.x, position.y, null);
+			else
+			{
+				g.setColor(Color.WHITE);
+				g.fillRoundRect(position.x, position.y, WIDTH, HEIGHT, 8, 8);
+				g.setColor(CardTable.colour(id) == CardTable.RED ? Color.RED
+						: Color.BLACK);
+				g.drawString(CardTable.toString(id), position.x + 5,
+						position.y + 15);
+			}
+		}
 		else
 			g.drawImage(BACK_IMAGE, position.x, position.y, null);
 	}
@@ -151,25 +220,9 @@ public class FreeCellCard extends Card implements Movable
 	 */
 	public boolean canPlaceOn(FreeCellHand hand)
 	{
-		// If there are Cards in the Hand, check based on the type of the Hand
-		if (hand.cardsLeft() > 0)
-		{
-			if (hand instanceof Cascade)
-				return canPlaceOnCascade(hand.getTopCard());
-			else if (hand instanceof Foundation)
-				return canPlaceOnFoundation(hand.getTopCard());
-			// Cannot place on a FreeCell that contains Cards
-			return false;
-		}
-
-		if (hand instanceof Cascade)
-			return true;
-		else if (hand instanceof Foundation)
-			// In order to place on an empty Foundation, the current Card must
-			// be an ace
-			return isAce();
-		return true;
-
+		// Each kind of Hand knows the mask of Cards it accepts based on its
+		// top Card, so this is a single bit test
+		return (hand.acceptsMask() & CardTable.bit(id)) != 0;
 	}
 
 	/**
@@ -193,8 +246,7 @@ public class FreeCellCard extends Card implements Movable
 	 */
 	public boolean canPlaceOnCascade(Card otherCard)
 	{
-		return getRank().asInt() + 1 == otherCard.getRank().asInt() 
-				&& this.getSuit().getSuitColor() != otherCard.getSuit().getSuitColor();
+		return FreeCellHand.variant.canStackOn(id, idOf(otherCard));
 	}
 
 	/**
@@ -208,8 +260,7 @@ public class FreeCellCard extends Card implements Movable
 	 */
 	public boolean canPlaceOnFoundation(Card otherCard)
 	{
-		return this.getSuit() == otherCard.getSuit() 
-				&& this.getRank().asInt() == otherCard.getRank().asInt() + 1;
+		return CardTable.isFoundationNext(id, idOf(otherCard));
 	}
 
 	/**
@@ -2,8 +2,6 @@ package com.github.jflaherty.cardgames.freecell;
 import com.github.jflaherty.cardgames.playingcards.exceptions.EmptyDeckException;
 import com.github.jflaherty.cardgames.playingcards.french.Card;
 import com.github.jflaherty.cardgames.playingcards.french.Deck;
-import com.github.jflaherty.cardgames.playingcards.french.Rank;
-import com.github.jflaherty.cardgames.playingcards.french.Suit;
 
 import java.awt.Graphics;
 import java.awt.Point;
@@ -39,14 +37,12 @@ public class FreeCellDeck extends Deck
 		
 	}
 	
+	/**
+	 * Fills the Deck with one Card for each id in the CardTable
+	 */
 	protected void initialize() {
-		for (Suit s : Suit.values()) {
-			for (Rank r : Rank.values()) {
-				if(r.equals(Rank.ACE_H))
-					continue;
-				deck.add(new FreeCellCard(r, s));
-			}
-		}
+		for (byte id = 0; id < CardTable.NO_OF_CARDS; id++)
+			deck.add(new FreeCellCard(id));
 	}
 
 	/**
@@ -82,6 +78,26 @@ public class FreeCellDeck extends Deck
 		}
 	}
 
+	/**
+	 * Deals a particular GCard from this GDeck, so a numbered deal can be
+	 * dealt in its own order
+	 * @param id the id of the GCard to deal
+	 * @return the dealt GCard, or null if it is not in this GDeck
+	 */
+	public FreeCellCard dealCard(byte id)
+	{
+		for (int index = 0; index < deck.size(); index++)
+		{
+			FreeCellCard nextCard = (FreeCellCard) deck.get(index);
+			if (nextCard.getId() == id)
+			{
+				deck.remove(index);
+				return nextCard;
+			}
+		}
+		return null;
+	}
+
 	/**
 	 * Displays the un-dealt Cards in this Hand
 	 * @param g Graphics context to display the deck
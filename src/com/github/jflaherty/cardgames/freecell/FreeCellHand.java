@@ -3,6 +3,8 @@ import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.Point;
 import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
 
 import com.github.jflaherty.cardgames.playingcards.french.Card;
 
@@ -31,6 +33,9 @@ public abstract class FreeCellHand extends Hand
 	private int spacing;
 	private boolean flash;
 
+	// The rules of the game being played, set by the CardPanel
+	static Variant variant = Variant.CLASSIC;
+
 	/**
 	 * Constructs a new GHand with the given x and y position and horizontal
 	 * spacing
@@ -90,6 +95,41 @@ public abstract class FreeCellHand extends Hand
 		return cardToRemove;
 	}
 
+	/**
+	 * Adds a run of GCards to the top of this Hand in one step, updating
+	 * their positions and the height of the Hand once for the whole run
+	 * 
+	 * @param cards the Cards to add, bottom Card first
+	 */
+	public void addCards(List<Card> cards)
+	{
+		int index = hand.size();
+		for (Card card : cards)
+		{
+			((FreeCellCard) card).setPosition(new Point(position.x,
+					position.y + index * spacing));
+			index++;
+		}
+		hand.addAll(cards);
+		updateHeight();
+	}
+
+	/**
+	 * Removes the GCards from the given index to the top of this Hand in one
+	 * step. Since they are the top Cards no other Cards have to be shifted
+	 * 
+	 * @param index the index of the lowest GCard to remove
+	 * @return the GCards removed, bottom Card first
+	 */
+	public ArrayList<Card> removeCards(int index)
+	{
+		List<Card> top = hand.subList(index, hand.size());
+		ArrayList<Card> removed = new ArrayList<Card>(top);
+		top.clear();
+		updateHeight();
+		return removed;
+	}
+
 	/**
 	 * Looks at the top Card in this GHand
 	 * 
@@ -201,4 +241,12 @@ public abstract class FreeCellHand extends Hand
 	 */
 	public abstract Movable pickUp(Point point);
 
+	/**
+	 * Returns the bitboard of the Cards that can be placed on this Hand right
+	 * now, ignoring how many Cards can be moved at once
+	 * 
+	 * @return the mask of the ids of the Cards this Hand accepts
+	 */
+	public abstract long acceptsMask();
+
 }
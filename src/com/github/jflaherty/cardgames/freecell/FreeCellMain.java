@@ -29,8 +29,11 @@ public class FreeCellMain extends JFrame implements ActionListener
 	
 	private CardPanel cardArea;
 	private JMenuItem newMenuItem, statisticsOption, quitMenuItem;
-	JCheckBoxMenuItem autoCompleteOption, animationOption;
+	JCheckBoxMenuItem autoCompleteOption, animationOption, frameStatsOption,
+			skipUnsolvableOption;
+	private JMenuItem dumpFramesMenuItem;
 	private JMenuItem undoOption, hint, aboutMenuItem;
+	private JMenuItem replayBackItem, replayForwardItem;
 
 	/**
 	 * Creates a FreeCellMain from object
@@ -60,7 +63,7 @@ public class FreeCellMain extends JFrame implements ActionListener
 
 		undoOption = new JMenuItem("Undo Move");
 		undoOption.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Z,
-				InputEvent.CTRL_MASK));
+				InputEvent.CTRL_DOWN_MASK));
 		undoOption.addActionListener(this);
 		undoOption.setEnabled(false);
 
@@ -68,10 +71,22 @@ public class FreeCellMain extends JFrame implements ActionListener
 		hint.addActionListener(this);
 		hint.setEnabled(false);
 
+		// Scrub back and forward through the game played so far
+		replayBackItem = new JMenuItem("Replay Back");
+		replayBackItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_LEFT,
+				InputEvent.CTRL_DOWN_MASK));
+		replayBackItem.addActionListener(this);
+		replayForwardItem = new JMenuItem("Replay Forward");
+		replayForwardItem.setAccelerator(KeyStroke.getKeyStroke(
+				KeyEvent.VK_RIGHT, InputEvent.CTRL_DOWN_MASK));
+		replayForwardItem.addActionListener(this);
+
 		gameMenu.add(newMenuItem);
 		gameMenu.add(statisticsOption);
 		gameMenu.add(undoOption);
 		gameMenu.add(hint);
+		gameMenu.add(replayBackItem);
+		gameMenu.add(replayForwardItem);
 		gameMenu.addSeparator();
 		gameMenu.add(quitMenuItem);
 		menuBar.add(gameMenu);
@@ -86,6 +101,19 @@ public class FreeCellMain extends JFrame implements ActionListener
 		settingMenu.setMnemonic('S');
 		settingMenu.add(autoCompleteOption);
 		settingMenu.add(animationOption);
+
+		skipUnsolvableOption = new JCheckBoxMenuItem("Skip Unsolvable Deals",
+				false);
+		skipUnsolvableOption.addActionListener(this);
+		settingMenu.add(skipUnsolvableOption);
+
+		frameStatsOption = new JCheckBoxMenuItem("Show Frame Stats", false);
+		frameStatsOption.addActionListener(this);
+		dumpFramesMenuItem = new JMenuItem("Dump Frame Log");
+		dumpFramesMenuItem.addActionListener(this);
+		settingMenu.addSeparator();
+		settingMenu.add(frameStatsOption);
+		settingMenu.add(dumpFramesMenuItem);
 		menuBar.add(settingMenu);
 
 		JMenu helpMenu = new JMenu("Help");
@@ -98,7 +126,12 @@ public class FreeCellMain extends JFrame implements ActionListener
 
 		// Set up the layout and add in a CardPanel for the card area
 		setLayout(new BorderLayout());
-		cardArea = new CardPanel(this);
+		// The variant can be picked with -Dfreecell.variant="Baker's Game"
+		Variant variant = Variant.forName(System.getProperty(
+				"freecell.variant", Variant.CLASSIC.getName()));
+		if (variant == null)
+			variant = Variant.CLASSIC;
+		cardArea = new CardPanel(this, variant);
 		add(cardArea, BorderLayout.CENTER);
 
 		// Centre the frame in the middle (almost) of the screen
@@ -142,6 +175,14 @@ public class FreeCellMain extends JFrame implements ActionListener
 			if (!cardArea.canShowHint())
 				setHint(false);
 		}
+		else if (event.getSource() == replayBackItem)
+		{
+			cardArea.scrubReplay(-1);
+		}
+		else if (event.getSource() == replayForwardItem)
+		{
+			cardArea.scrubReplay(1);
+		}
 		else if (event.getSource() == autoCompleteOption)
 		{
 			CardPanel.changeAutoComplete();
@@ -150,6 +191,19 @@ public class FreeCellMain extends JFrame implements ActionListener
 		{
 			CardPanel.changeAnimation();
 		}
+		else if (event.getSource() == skipUnsolvableOption)
+		{
+			CardPanel.changeSkipUnsolvable();
+		}
+		else if (event.getSource() == frameStatsOption)
+		{
+			CardPanel.changeFrameStats();
+			cardArea.repaint();
+		}
+		else if (event.getSource() == dumpFramesMenuItem)
+		{
+			cardArea.dumpFrames("frames.csv");
+		}
 		else if (event.getSource() == aboutMenuItem)
 		{
 			JOptionPane.showMessageDialog(cardArea,
@@ -197,6 +251,11 @@ public class FreeCellMain extends JFrame implements ActionListener
 
 	public static void main(String[] args)
 	{
+		Metrics.configure();
+
+		// Start decoding the Card images before building the window so the
+		// table can be shown while they load
+		CardImages.preload();
 		FreeCellMain frame = new FreeCellMain();
 		frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 		frame.pack();
@@ -0,0 +1,120 @@
+package com.github.jflaherty.cardgames.freecell;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events for the life of a game: dealing, moving,
+ * undoing, hints, auto complete, solver runs and saving the Statistics. Each
+ * event is timed from begin() to commit(), so in a recording they line up
+ * with the garbage collector and thread events and show what the game was
+ * doing during a stall. They cost next to nothing when no recording is
+ * running. Start a recording with, for example,
+ * -XX:StartFlightRecording=filename=freecell.jfr
+ */
+public final class GameEvents
+{
+	/**
+	 * The events are never instantiated through this class
+	 */
+	private GameEvents()
+	{
+	}
+
+	@Name("freecell.Deal")
+	@Label("Deal")
+	@Category("FreeCell")
+	@Description("Shuffling the Deck and dealing it to the Cascades")
+	@StackTrace(false)
+	public static class Deal extends Event
+	{
+		@Label("Animated")
+		public boolean animated;
+	}
+
+	@Name("freecell.Move")
+	@Label("Move")
+	@Category("FreeCell")
+	@Description("The player dropping a Card or Tableau on another Hand")
+	@StackTrace(false)
+	public static class Move extends Event
+	{
+		@Label("From Hand")
+		public int from;
+
+		@Label("To Hand")
+		public int to;
+
+		@Label("Cards Moved")
+		public int cards;
+	}
+
+	@Name("freecell.Undo")
+	@Label("Undo")
+	@Category("FreeCell")
+	@Description("Undoing the last Move")
+	@StackTrace(false)
+	public static class Undo extends Event
+	{
+		@Label("Moves Left")
+		public int movesLeft;
+	}
+
+	@Name("freecell.Hint")
+	@Label("Hint Request")
+	@Category("FreeCell")
+	@Description("Finding and flashing a hint")
+	@StackTrace(false)
+	public static class Hint extends Event
+	{
+		@Label("Hint Found")
+		public boolean found;
+	}
+
+	@Name("freecell.AutoComplete")
+	@Label("Auto Complete Batch")
+	@Category("FreeCell")
+	@Description("Moving every Card that can go up to the Foundations after a Move")
+	@StackTrace(false)
+	public static class AutoComplete extends Event
+	{
+		@Label("Cards Moved")
+		public int cards;
+	}
+
+	@Name("freecell.Solver")
+	@Label("Solver Run")
+	@Category("FreeCell")
+	@Description("One search for a solution")
+	@StackTrace(false)
+	public static class Solver extends Event
+	{
+		@Label("Status")
+		@Description("0 solved, 1 unsolvable, 2 gave up")
+		public int status;
+
+		@Label("Nodes Expanded")
+		public long nodes;
+
+		@Label("Solution Length")
+		public int length;
+	}
+
+	@Name("freecell.StatsWrite")
+	@Label("Statistics Persistence")
+	@Category("FreeCell")
+	@Description("Recording the result of a game and saving the Statistics")
+	@StackTrace(false)
+	public static class StatsWrite extends Event
+	{
+		@Label("Won")
+		public boolean won;
+
+		@Label("Moves")
+		public int moves;
+	}
+}
@@ -0,0 +1,205 @@
+package com.github.jflaherty.cardgames.freecell;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The binary protocol spoken between a GameServer and its clients. Every
+ * message is a frame: a big-endian int length followed by that many bytes,
+ * the first of which is the message type.
+ * <p>
+ * Requests:
+ *
+ * <pre>
+ * NEW_GAME  long deal number, 0 for a random deal
+ * MOVE      byte from, byte to, byte count (Position Hand numbers)
+ * BOARD
+ * RESUME    long game id
+ * MOVES     byte n, then n times byte from, byte to, byte count
+ * PLAY      byte from, byte to, byte count
+ * </pre>
+ *
+ * Replies, one per request and in order:
+ *
+ * <pre>
+ * GAME      long game id, long deal number, board
+ * MOVED     byte status (OK, ILLEGAL or NO_GAME), byte 1 if the game is won
+ * BOARD     board
+ * MOVES     byte status (OK, ILLEGAL or NO_GAME), byte number of Moves made,
+ *           byte 1 if the game is won, changes
+ * PLAYED    byte status (OK, ILLEGAL or NO_GAME), byte 1 if the game is won,
+ *           then if OK a Delta of the Move and the auto-moves it led to
+ * ERROR     byte status (NO_GAME or BAD_REQUEST)
+ * </pre>
+ *
+ * A board is each Cascade as a byte height and its Card ids from the bottom,
+ * then each FreeCell's Card id (-1 if empty) and the number of Cards on each
+ * Foundation, all as bytes. Changes are the Hands a batch of MOVES changed:
+ * a byte number of Hands, then for each its byte Hand number and contents in
+ * the same form as in a board. Games are classic FreeCell.
+ * <p>
+ * The Moves of a batch are checked and made in order, stopping at the first
+ * illegal one, so a client can send a run of Moves without waiting for each
+ * reply. A request with a Hand number or count out of range is answered
+ * ERROR BAD_REQUEST and changes nothing. PLAY makes one Move and then every
+ * Card that can safely go up to the Foundations, that is one no other Card
+ * still in play would need to be placed on, and replies with just the Delta.
+ * <p>
+ * A game outlives the connection it was started on: RESUME on any connection
+ * carries on with it, or replies ERROR NO_GAME if the id is unknown. A won
+ * game is dropped once it is left idle, and any other game once it has gone
+ * unused for the server's expiry time, after which its id is unknown. A game
+ * holds at most HostedGame.MAX_MOVES Moves, and a Move past that is ILLEGAL
+ */
+public final class GameProtocol
+{
+	// Request and reply types
+	public static final byte ERROR = 0;
+	public static final byte NEW_GAME = 1;
+	public static final byte GAME = 1;
+	public static final byte MOVE = 2;
+	public static final byte MOVED = 2;
+	public static final byte BOARD = 3;
+	public static final byte RESUME = 4;
+	public static final byte MOVES = 5;
+	public static final byte PLAY = 6;
+	public static final byte PLAYED = 6;
+
+	// Statuses of MOVED and ERROR replies
+	public static final byte OK = 0;
+	public static final byte ILLEGAL = 1;
+	public static final byte NO_GAME = 2;
+	public static final byte BAD_REQUEST = 3;
+
+	// The largest frame either side accepts, not counting the length
+	public static final int MAX_FRAME = 1024;
+
+	// The largest board, with every Card in the Cascades
+	public static final int MAX_BOARD = Position.NO_OF_CASCADES
+			+ CardTable.NO_OF_CARDS + Position.NO_OF_FREECELLS
+			+ Position.NO_OF_FOUNDATIONS;
+
+	// The largest changes, with every Hand changed
+	public static final int MAX_CHANGES = 1 + Position.NO_OF_HANDS + MAX_BOARD;
+
+	// The most Moves in one MOVES request
+	public static final int MAX_BATCH = 255;
+
+	/**
+	 * Creates nothing, everything is static
+	 */
+	private GameProtocol()
+	{
+	}
+
+	/**
+	 * Writes a board to a buffer
+	 *
+	 * @param buffer the buffer, with at least MAX_BOARD bytes remaining
+	 * @param position the board to write
+	 */
+	public static void writeBoard(ByteBuffer buffer, Position position)
+	{
+		for (int cascade = 0; cascade < Position.NO_OF_CASCADES; cascade++)
+		{
+			int height = position.height(cascade);
+			buffer.put((byte) height);
+			for (int index = 0; index < height; index++)
+				buffer.put(position.cardAt(cascade, index));
+		}
+		for (int cell = 0; cell < Position.NO_OF_FREECELLS; cell++)
+			buffer.put(position.freecell(cell));
+		for (int suit = 0; suit < Position.NO_OF_FOUNDATIONS; suit++)
+			buffer.put((byte) position.foundation(suit));
+	}
+
+	/**
+	 * Writes the contents of the Hands a batch of Moves changed to a buffer
+	 *
+	 * @param buffer the buffer, with at least MAX_CHANGES bytes remaining
+	 * @param position the board after the Moves
+	 * @param changed a bit set of the Hand numbers changed
+	 */
+	public static void writeChanges(ByteBuffer buffer, Position position,
+			int changed)
+	{
+		buffer.put((byte) Integer.bitCount(changed));
+		for (int hand = 0; hand < Position.NO_OF_HANDS; hand++)
+		{
+			if ((changed & 1 << hand) == 0)
+				continue;
+			buffer.put((byte) hand);
+			if (hand < Position.FIRST_FREECELL)
+			{
+				int height = position.height(hand);
+				buffer.put((byte) height);
+				for (int index = 0; index < height; index++)
+					buffer.put(position.cardAt(hand, index));
+			}
+			else if (hand < Position.FIRST_FOUNDATION)
+				buffer.put(position.freecell(hand - Position.FIRST_FREECELL));
+			else
+				buffer.put((byte) position.foundation(hand
+						- Position.FIRST_FOUNDATION));
+		}
+	}
+
+	/**
+	 * Reads the contents of changed Hands from a buffer into a board
+	 *
+	 * @param buffer the buffer, positioned at the start of the changes
+	 * @param position the board to change
+	 * @throws IllegalArgumentException if the changes are not well formed
+	 */
+	public static void readChanges(ByteBuffer buffer, Position position)
+	{
+		int noOfHands = buffer.get();
+		for (int changed = 0; changed < noOfHands; changed++)
+		{
+			int hand = buffer.get();
+			if (hand < 0 || hand >= Position.NO_OF_HANDS)
+				throw new IllegalArgumentException("Bad Hand number " + hand);
+			if (hand < Position.FIRST_FREECELL)
+			{
+				int height = buffer.get();
+				if (height < 0 || height > CardTable.NO_OF_CARDS)
+					throw new IllegalArgumentException("Bad Cascade height "
+							+ height);
+				position.clearCascade(hand);
+				for (int index = 0; index < height; index++)
+					position.addToCascade(hand, buffer.get());
+			}
+			else if (hand < Position.FIRST_FOUNDATION)
+				position.setFreecell(hand - Position.FIRST_FREECELL, buffer
+						.get());
+			else
+				position.setFoundation(hand - Position.FIRST_FOUNDATION,
+						buffer.get());
+		}
+	}
+
+	/**
+	 * Reads a board from a buffer
+	 *
+	 * @param buffer the buffer, positioned at the start of the board
+	 * @return a new Position of the board
+	 * @throws IllegalArgumentException if the board is not well formed
+	 */
+	public static Position readBoard(ByteBuffer buffer)
+	{
+		Position position = new Position();
+		for (int cascade = 0; cascade < Position.NO_OF_CASCADES; cascade++)
+		{
+			int height = buffer.get();
+			if (height < 0 || height > CardTable.NO_OF_CARDS)
+				throw new IllegalArgumentException("Bad Cascade height "
+						+ height);
+			for (int index = 0; index < height; index++)
+				position.addToCascade(cascade, buffer.get());
+		}
+		for (int cell = 0; cell < Position.NO_OF_FREECELLS; cell++)
+			position.setFreecell(cell, buffer.get());
+		for (int suit = 0; suit < Position.NO_OF_FOUNDATIONS; suit++)
+			position.setFoundation(suit, buffer.get());
+		return position;
+	}
+}
@@ -0,0 +1,656 @@
+package com.github.jflaherty.cardgames.freecell;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hosts headless games of FreeCell for clients speaking the GameProtocol
+ * over TCP. Each connection is a session with one game at a time and a small
+ * fixed pair of buffers, so the memory a session uses is bounded and the
+ * number of sessions is capped. The games themselves are kept in a
+ * GameStore, which hibernates the ones left idle to a spill file, so games
+ * abandoned by their clients, or waiting to be resumed on a new connection,
+ * cost almost no memory, and drops them once won or long unused.
+ * Connections are spread over a few event loops, each a thread with its own
+ * Selector, so tens of thousands of sessions need no more threads than there
+ * are processors. A request only locks the game it works on, so the loops
+ * run side by side.
+ * Moves are checked with Position.isLegal, which applies the same rules as
+ * the GUI's FreeCellCard.canPlaceOn and Tableau.canPlaceOn, whether they come
+ * one at a time or as a pipelined batch
+ *
+ * <pre>
+ * GameServer [port] [max sessions] [idle seconds] [max resident games]
+ *            [expiry hours]
+ * </pre>
+ */
+public class GameServer implements Runnable
+{
+	// Default port and session cap
+	public static final int DEFAULT_PORT = 4551;
+	public static final int DEFAULT_MAX_SESSIONS = 50000;
+
+	// Default limits on the games kept in memory
+	public static final int DEFAULT_IDLE_SECONDS = 300;
+	public static final int DEFAULT_MAX_RESIDENT = 100000;
+	public static final int DEFAULT_EXPIRY_HOURS = 24;
+
+	// Replies are at most this long, and a session stops reading requests
+	// while it has less than this much room to reply in
+	private static final int MAX_REPLY = 4 + 1 + Math.max(Math.max(8 + 8
+			+ GameProtocol.MAX_BOARD, 3 + GameProtocol.MAX_CHANGES),
+			2 + Delta.MAX_LENGTH);
+	private static final int OUT_BUFFER_SIZE = 4 * MAX_REPLY;
+
+	private static final Histogram MOVE_TIME = Metrics.timer("server.move");
+	private static final Histogram BATCH_TIME = Metrics.timer("server.batch");
+	private static final Counter SESSIONS_OPENED = Metrics
+			.counter("server.sessions");
+
+	private final ServerSocketChannel serverChannel;
+	private final GameStore store;
+	private final Thread hibernator;
+	private final EventLoop[] loops;
+	private final int maxSessions;
+	private final AtomicInteger noOfSessions = new AtomicInteger();
+	private volatile boolean running = true;
+
+	/**
+	 * Creates a GameServer listening on a port, with its games in a temporary
+	 * spill file and the default limits on the games kept in memory
+	 *
+	 * @param port the port to listen on, 0 for any free port
+	 * @param maxSessions the most sessions open at once, further connections
+	 *            are closed straight away
+	 * @param noOfLoops the number of event loop threads
+	 * @throws IOException if the port or spill file cannot be opened
+	 */
+	public GameServer(int port, int maxSessions, int noOfLoops)
+			throws IOException
+	{
+		this(port, maxSessions, noOfLoops, temporaryStore(
+				DEFAULT_MAX_RESIDENT, DEFAULT_IDLE_SECONDS * 1000L,
+				DEFAULT_EXPIRY_HOURS * 3600000L));
+	}
+
+	/**
+	 * Creates a GameServer listening on a port. Call run, or start a thread
+	 * on it, to accept connections
+	 *
+	 * @param port the port to listen on, 0 for any free port
+	 * @param maxSessions the most sessions open at once, further connections
+	 *            are closed straight away
+	 * @param noOfLoops the number of event loop threads
+	 * @param store the store for the games, closed when the server is stopped
+	 * @throws IOException if the port cannot be opened
+	 */
+	public GameServer(int port, int maxSessions, int noOfLoops,
+			final GameStore store) throws IOException
+	{
+		this.maxSessions = maxSessions;
+		this.store = store;
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.bind(new InetSocketAddress(port), 1024);
+		loops = new EventLoop[noOfLoops];
+		for (int loop = 0; loop < noOfLoops; loop++)
+		{
+			loops[loop] = new EventLoop(loop);
+			Thread thread = new Thread(loops[loop], "game-loop-" + loop);
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		// Idle games are looked for a few times per idle time
+		final long period = Math.max(10, store.getIdleMillis() / 4);
+		hibernator = new Thread("game-hibernator")
+		{
+			public void run()
+			{
+				try
+				{
+					while (running)
+					{
+						Thread.sleep(period);
+						try
+						{
+							store.evictIdle();
+						}
+						catch (RuntimeException exp)
+						{
+							// Keep going, the games stay in memory until the
+							// spill file can be written again
+							System.err.println("Hibernating failed: " + exp);
+						}
+					}
+				}
+				catch (InterruptedException exp)
+				{
+					// Stopped
+				}
+			}
+		};
+		hibernator.setDaemon(true);
+		hibernator.start();
+	}
+
+	/**
+	 * Opens a GameStore on a temporary file that is deleted on exit
+	 *
+	 * @param maxResident the most games kept in memory
+	 * @param idleMillis how long a game can go unused before it is
+	 *            hibernated
+	 * @param expiryMillis how long a hibernated game is kept unused before it
+	 *            is dropped
+	 * @return the store
+	 * @throws IOException if the file cannot be created
+	 */
+	public static GameStore temporaryStore(int maxResident, long idleMillis,
+			long expiryMillis) throws IOException
+	{
+		File file = File.createTempFile("freecell-games", ".dat");
+		file.deleteOnExit();
+		return new GameStore(file.getPath(), maxResident, idleMillis,
+				expiryMillis);
+	}
+
+	/**
+	 * Returns the port the server is listening on
+	 *
+	 * @return the port number
+	 */
+	public int getPort()
+	{
+		return serverChannel.socket().getLocalPort();
+	}
+
+	/**
+	 * Returns the number of sessions open
+	 *
+	 * @return the number of sessions
+	 */
+	public int getNoOfSessions()
+	{
+		return noOfSessions.get();
+	}
+
+	/**
+	 * Returns the store holding the games
+	 *
+	 * @return the store
+	 */
+	public GameStore getStore()
+	{
+		return store;
+	}
+
+	/**
+	 * Accepts connections until the server is stopped, handing them to the
+	 * event loops in turn
+	 */
+	public void run()
+	{
+		int next = 0;
+		while (running)
+		{
+			SocketChannel channel;
+			try
+			{
+				channel = serverChannel.accept();
+			}
+			catch (IOException exp)
+			{
+				if (running)
+					System.err.println("Error accepting: " + exp);
+				continue;
+			}
+			if (noOfSessions.incrementAndGet() > maxSessions)
+			{
+				noOfSessions.decrementAndGet();
+				close(channel);
+				continue;
+			}
+			SESSIONS_OPENED.increment();
+			loops[next].add(channel);
+			next = (next + 1) % loops.length;
+		}
+	}
+
+	/**
+	 * Stops accepting connections, closes every session and closes the store
+	 */
+	public void stop()
+	{
+		running = false;
+		close(serverChannel);
+		for (EventLoop loop : loops)
+			loop.stop();
+		hibernator.interrupt();
+		try
+		{
+			store.close();
+		}
+		catch (IOException exp)
+		{
+			System.err.println("Error closing the store: " + exp);
+		}
+	}
+
+	/**
+	 * Closes a channel, ignoring errors
+	 */
+	private static void close(java.nio.channels.Channel channel)
+	{
+		try
+		{
+			channel.close();
+		}
+		catch (IOException exp)
+		{
+			// Nothing more to do with it
+		}
+	}
+
+	/**
+	 * Reads the from, to and count of a Move from a request and packs them.
+	 * Each is checked first, since one out of range would spill into the
+	 * others and pack a different Move
+	 *
+	 * @param frame the request, at the Move
+	 * @return the packed Move
+	 * @throws IllegalArgumentException if any of them is out of range
+	 */
+	private static int readMove(ByteBuffer frame)
+	{
+		int from = frame.get();
+		int to = frame.get();
+		int count = frame.get();
+		if (from < 0 || from >= Position.NO_OF_HANDS || to < 0
+				|| to >= Position.NO_OF_HANDS || count < 1
+				|| count > CardTable.NO_OF_RANKS)
+			throw new IllegalArgumentException("Move out of range");
+		return Position.move(from, to, count);
+	}
+
+	/**
+	 * The state of one connection: the id of its game and its buffers
+	 */
+	private static class Session
+	{
+		final ByteBuffer in = ByteBuffer.allocate(4 + GameProtocol.MAX_FRAME);
+		final ByteBuffer out = ByteBuffer.allocate(OUT_BUFFER_SIZE);
+		long gameId;
+	}
+
+	/**
+	 * A thread that serves its share of the sessions with one Selector
+	 */
+	private class EventLoop implements Runnable
+	{
+		private final Selector selector;
+		private final ConcurrentLinkedQueue<SocketChannel> added = new ConcurrentLinkedQueue<SocketChannel>();
+		private final Random random;
+		private final int[] batch = new int[GameProtocol.MAX_BATCH];
+
+		/**
+		 * Creates an event loop
+		 *
+		 * @param number the number of the loop, used to seed its random deals
+		 * @throws IOException if the Selector cannot be opened
+		 */
+		EventLoop(int number) throws IOException
+		{
+			selector = Selector.open();
+			random = new Random(System.nanoTime() + number);
+		}
+
+		/**
+		 * Hands a new connection to this loop
+		 */
+		void add(SocketChannel channel)
+		{
+			added.add(channel);
+			selector.wakeup();
+		}
+
+		/**
+		 * Wakes the loop so that it notices the server has stopped
+		 */
+		void stop()
+		{
+			selector.wakeup();
+		}
+
+		/**
+		 * Serves the sessions until the server is stopped
+		 */
+		public void run()
+		{
+			try
+			{
+				while (running)
+				{
+					selector.select();
+					registerAdded();
+					Iterator<SelectionKey> keys = selector.selectedKeys()
+							.iterator();
+					while (keys.hasNext())
+					{
+						SelectionKey key = keys.next();
+						keys.remove();
+						try
+						{
+							if (key.isValid() && key.isWritable())
+							{
+								// Requests may be waiting for room to answer
+								flush(key);
+								Session session = (Session) key.attachment();
+								if (session.in.position() > 0
+										&& session.out.remaining() >= MAX_REPLY)
+									serve(key);
+							}
+							if (key.isValid() && key.isReadable())
+								read(key);
+						}
+						catch (IOException exp)
+						{
+							endSession(key);
+						}
+					}
+				}
+				for (SelectionKey key : selector.keys())
+					endSession(key);
+				selector.close();
+			}
+			catch (IOException exp)
+			{
+				System.err.println("Event loop failed: " + exp);
+			}
+		}
+
+		/**
+		 * Registers the connections handed to this loop
+		 */
+		private void registerAdded()
+		{
+			SocketChannel channel;
+			while ((channel = added.poll()) != null)
+			{
+				try
+				{
+					channel.configureBlocking(false);
+					channel.socket().setTcpNoDelay(true);
+					channel.register(selector, SelectionKey.OP_READ,
+							new Session());
+				}
+				catch (IOException exp)
+				{
+					close(channel);
+					noOfSessions.decrementAndGet();
+				}
+			}
+		}
+
+		/**
+		 * Closes a session's connection
+		 */
+		private void endSession(SelectionKey key)
+		{
+			key.cancel();
+			close(key.channel());
+			noOfSessions.decrementAndGet();
+		}
+
+		/**
+		 * Reads what has arrived on a connection and answers every whole
+		 * request in it
+		 */
+		private void read(SelectionKey key) throws IOException
+		{
+			Session session = (Session) key.attachment();
+			if (((SocketChannel) key.channel()).read(session.in) < 0)
+			{
+				endSession(key);
+				return;
+			}
+			serve(key);
+		}
+
+		/**
+		 * Answers the whole requests a session has read while there is room
+		 * for the replies
+		 */
+		private void serve(SelectionKey key) throws IOException
+		{
+			Session session = (Session) key.attachment();
+			session.in.flip();
+			while (session.in.remaining() >= 4
+					&& session.out.remaining() >= MAX_REPLY)
+			{
+				int length = session.in.getInt(session.in.position());
+				if (length < 1 || length > GameProtocol.MAX_FRAME)
+				{
+					endSession(key);
+					return;
+				}
+				if (session.in.remaining() < 4 + length)
+					break;
+				session.in.getInt();
+				int end = session.in.position() + length;
+				ByteBuffer frame = session.in.duplicate();
+				frame.limit(end);
+				try
+				{
+					handle(session, frame);
+				}
+				catch (RuntimeException exp)
+				{
+					// Such as the spill file failing: only this session ends,
+					// not the loop and every session on it
+					System.err.println("Request failed: " + exp);
+					endSession(key);
+					return;
+				}
+				session.in.position(end);
+			}
+			session.in.compact();
+			flush(key);
+		}
+
+		/**
+		 * Sends what a session has waiting to go, and only reads more
+		 * requests while there is room to answer them
+		 */
+		private void flush(SelectionKey key) throws IOException
+		{
+			Session session = (Session) key.attachment();
+			session.out.flip();
+			((SocketChannel) key.channel()).write(session.out);
+			session.out.compact();
+			int ops = 0;
+			if (session.out.position() > 0)
+				ops |= SelectionKey.OP_WRITE;
+			if (session.out.remaining() >= MAX_REPLY)
+				ops |= SelectionKey.OP_READ;
+			key.interestOps(ops);
+		}
+
+		/**
+		 * Answers one request
+		 *
+		 * @param session the session the request came on
+		 * @param frame the request, from its type to its end
+		 */
+		private void handle(Session session, ByteBuffer frame)
+		{
+			ByteBuffer out = session.out;
+			int lengthAt = out.position();
+			out.putInt(0);
+
+			// The game the request works on, held until the reply is written
+			HostedGame game = null;
+			try
+			{
+				byte type = frame.get();
+				if (type == GameProtocol.NEW_GAME)
+				{
+					long dealNo = frame.getLong();
+					if (dealNo <= 0)
+						dealNo = 1 + random.nextInt(Deals.NO_OF_CLASSIC_DEALS);
+					game = store.create(dealNo);
+					session.gameId = game.getId();
+					writeGame(out, game);
+				}
+				else if (type == GameProtocol.RESUME)
+				{
+					long gameId = frame.getLong();
+					game = store.acquire(gameId);
+					if (game == null)
+						out.put(GameProtocol.ERROR).put(GameProtocol.NO_GAME);
+					else
+					{
+						session.gameId = gameId;
+						writeGame(out, game);
+					}
+				}
+				else if (type == GameProtocol.MOVE)
+				{
+					long start = Metrics.start();
+					int move = readMove(frame);
+					out.put(GameProtocol.MOVED);
+					game = store.acquire(session.gameId);
+					if (game == null)
+						out.put(GameProtocol.NO_GAME).put((byte) 0);
+					else if (!game.move(move))
+						out.put(GameProtocol.ILLEGAL).put((byte) 0);
+					else
+						out.put(GameProtocol.OK).put(
+								(byte) (game.getPosition().isSolved() ? 1 : 0));
+					MOVE_TIME.stop(start);
+				}
+				else if (type == GameProtocol.MOVES)
+				{
+					long start = Metrics.start();
+					int noOfMoves = frame.get() & 0xFF;
+					int changed = 0;
+					for (int index = 0; index < noOfMoves; index++)
+						batch[index] = readMove(frame);
+					out.put(GameProtocol.MOVES);
+					game = store.acquire(session.gameId);
+					if (game == null)
+						out.put(GameProtocol.NO_GAME).put((byte) 0).put(
+								(byte) 0).put((byte) 0);
+					else
+					{
+						int made = game.move(batch, noOfMoves);
+						for (int index = 0; index < made; index++)
+							changed |= 1 << Position.from(batch[index])
+									| 1 << Position.to(batch[index]);
+						Position position = game.getPosition();
+						out.put(made == noOfMoves ? GameProtocol.OK
+								: GameProtocol.ILLEGAL).put((byte) made).put(
+								(byte) (position.isSolved() ? 1 : 0));
+						GameProtocol.writeChanges(out, position, changed);
+					}
+					BATCH_TIME.stop(start);
+				}
+				else if (type == GameProtocol.PLAY)
+				{
+					long start = Metrics.start();
+					int move = readMove(frame);
+					out.put(GameProtocol.PLAYED);
+					game = store.acquire(session.gameId);
+					int made;
+					if (game == null)
+						out.put(GameProtocol.NO_GAME).put((byte) 0);
+					else if ((made = game.play(move)) == 0)
+						out.put(GameProtocol.ILLEGAL).put((byte) 0);
+					else
+					{
+						out.put(GameProtocol.OK).put(
+								(byte) (game.getPosition().isSolved() ? 1 : 0));
+						game.writeDelta(out, made);
+					}
+					MOVE_TIME.stop(start);
+				}
+				else if (type == GameProtocol.BOARD)
+				{
+					game = store.acquire(session.gameId);
+					if (game == null)
+						out.put(GameProtocol.ERROR).put(GameProtocol.NO_GAME);
+					else
+					{
+						out.put(GameProtocol.BOARD);
+						GameProtocol.writeBoard(out, game.getPosition());
+					}
+				}
+				else
+					out.put(GameProtocol.ERROR).put(GameProtocol.BAD_REQUEST);
+			}
+			catch (BufferUnderflowException exp)
+			{
+				out.position(lengthAt + 4);
+				out.put(GameProtocol.ERROR).put(GameProtocol.BAD_REQUEST);
+			}
+			catch (IllegalArgumentException exp)
+			{
+				out.position(lengthAt + 4);
+				out.put(GameProtocol.ERROR).put(GameProtocol.BAD_REQUEST);
+			}
+			finally
+			{
+				if (game != null)
+					store.release(game);
+			}
+			out.putInt(lengthAt, out.position() - lengthAt - 4);
+		}
+
+		/**
+		 * Writes a GAME reply
+		 */
+		private void writeGame(ByteBuffer out, HostedGame game)
+		{
+			out.put(GameProtocol.GAME).putLong(game.getId()).putLong(
+					game.getDealNo());
+			GameProtocol.writeBoard(out, game.getPosition());
+		}
+	}
+
+	/**
+	 * Runs a server until it is killed
+	 *
+	 * @param args optionally the port, the most sessions at once, the idle
+	 *            time before a game is hibernated, the most games kept in
+	 *            memory and the time before an unused hibernated game is
+	 *            dropped
+	 * @throws IOException if the port cannot be opened
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+		int maxSessions = args.length > 1 ? Integer.parseInt(args[1])
+				: DEFAULT_MAX_SESSIONS;
+		int idleSeconds = args.length > 2 ? Integer.parseInt(args[2])
+				: DEFAULT_IDLE_SECONDS;
+		int maxResident = args.length > 3 ? Integer.parseInt(args[3])
+				: DEFAULT_MAX_RESIDENT;
+		int expiryHours = args.length > 4 ? Integer.parseInt(args[4])
+				: DEFAULT_EXPIRY_HOURS;
+		Metrics.configure();
+		GameServer server = new GameServer(port, maxSessions, Runtime
+				.getRuntime().availableProcessors(), temporaryStore(
+				maxResident, idleSeconds * 1000L, expiryHours * 3600000L));
+		System.err.println("Listening on port " + server.getPort());
+		server.run();
+	}
+}
@@ -0,0 +1,562 @@
+package com.github.jflaherty.cardgames.freecell;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the games of a GameServer, with only the recently used ones in
+ * memory. The rest are hibernated: written to a spill file in their compact
+ * form (see HostedGame.toBytes) and dropped from the heap, then rebuilt the
+ * next time they are asked for. Games are hibernated when they have not been
+ * used for the idle time, or straight away when more than the most resident
+ * games are in memory, least recently used first. A hibernated game only
+ * costs an entry in a LongIntMap, a few dozen bytes of memory.
+ * <p>
+ * Nothing is kept for ever. A won game is dropped instead of hibernated, and
+ * a hibernated game that has not been used for the expiry time is dropped,
+ * so the games kept are bounded by the games played in that time. Each
+ * record in the file holds a power of two bytes, at least 64, and has an int
+ * length and the compact form. A game hibernated again is written over its
+ * old record if it still fits, and the record of a game that is dropped or
+ * has outgrown it is kept on a free list and used again for the next game of
+ * that size, so the file stops growing once it holds the games kept. The
+ * file is scratch space for one run of the server and is emptied when
+ * opened.
+ * <p>
+ * The games are split between shards by id, each with its own lock, so event
+ * loops working on different games do not wait for each other. Reading a
+ * hibernated game back is done without holding any lock. A game is only
+ * used between acquire and release, which hold the game's own lock, so that
+ * it cannot be hibernated part way through a change
+ */
+public class GameStore
+{
+	// The number of shards, a power of two
+	private static final int NO_OF_SHARDS = 64;
+
+	// A record is 64 << its size class bytes, and is found by its offset in
+	// units of 64 bytes and its size class, packed as unit << 4 | class
+	private static final int UNIT_SHIFT = 6;
+	private static final int CLASS_BITS = 4;
+	private static final int NO_OF_CLASSES = 10;
+	private static final long MAX_UNITS = 1L << 31 - CLASS_BITS;
+
+	private static final Counter HIBERNATED = Metrics
+			.counter("store.hibernated");
+	private static final Counter REHYDRATED = Metrics
+			.counter("store.rehydrated");
+	private static final Counter DROPPED = Metrics.counter("store.dropped");
+
+	private final long idleMillis;
+	private final long expiryMillis;
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final Shard[] shards = new Shard[NO_OF_SHARDS];
+	private final AtomicLong nextId = new AtomicLong(1);
+
+	// When the hibernated games were last moved on a generation
+	private long lastExpiry = System.currentTimeMillis();
+
+	// Where the next new record goes and the records free to use again, by
+	// size class. Guarded by the spill lock, which is never held during I/O
+	private final Object spill = new Object();
+	private long fileEnd;
+	private final int[][] freeRecords = new int[NO_OF_CLASSES][16];
+	private final int[] noOfFree = new int[NO_OF_CLASSES];
+
+	/**
+	 * The games whose ids fall in one shard. Its lock guards its maps
+	 */
+	private class Shard
+	{
+		final LinkedHashMap<Long, HostedGame> resident;
+
+		// The records of the hibernated games by id: those hibernated since
+		// the last expiry, and those hibernated in the expiry time before,
+		// which are dropped at the next expiry unless they are used
+		LongIntMap hibernated = new LongIntMap(16);
+		LongIntMap expiring = new LongIntMap(16);
+
+		// Counts the changes to the records, so a read of the file done
+		// without the lock can tell if its record may have changed under it
+		long changes;
+
+		/**
+		 * Creates an empty shard
+		 *
+		 * @param maxResident the most games of this shard kept in memory
+		 */
+		Shard(final int maxResident)
+		{
+			// Access order, so iteration starts at the least recently used
+			// game
+			resident = new LinkedHashMap<Long, HostedGame>(16, 0.75f, true)
+			{
+				private static final long serialVersionUID = 1L;
+
+				protected boolean removeEldestEntry(
+						Map.Entry<Long, HostedGame> eldest)
+				{
+					// A game in use stays until the next time one is added
+					if (size() <= maxResident
+							|| !eldest.getValue().tryLock())
+						return false;
+					try
+					{
+						putAway(Shard.this, eldest.getValue());
+					}
+					finally
+					{
+						eldest.getValue().unlock();
+					}
+					return true;
+				}
+			};
+		}
+
+		/**
+		 * Returns the record of a hibernated game
+		 *
+		 * @param id the id of the game
+		 * @return the record, or -1 if the game is not hibernated
+		 */
+		int recordOf(long id)
+		{
+			int record = hibernated.get(id, -1);
+			return record >= 0 ? record : expiring.get(id, -1);
+		}
+	}
+
+	/**
+	 * Opens a store with an empty spill file
+	 *
+	 * @param fileName the name of the spill file
+	 * @param maxResident the most games kept in memory, shared evenly between
+	 *            the shards
+	 * @param idleMillis how long a game can go unused before it is
+	 *            hibernated
+	 * @param expiryMillis how long a hibernated game is kept unused before it
+	 *            is dropped; it is dropped after between one and two times
+	 *            this
+	 * @throws IOException if the file cannot be opened
+	 */
+	public GameStore(String fileName, int maxResident, long idleMillis,
+			long expiryMillis) throws IOException
+	{
+		this.idleMillis = idleMillis;
+		this.expiryMillis = expiryMillis;
+		file = new RandomAccessFile(fileName, "rw");
+		file.setLength(0);
+		channel = file.getChannel();
+		for (int shard = 0; shard < NO_OF_SHARDS; shard++)
+			shards[shard] = new Shard(Math.max(1, (maxResident
+					+ NO_OF_SHARDS - 1)
+					/ NO_OF_SHARDS));
+	}
+
+	/**
+	 * Creates a new game and acquires it
+	 *
+	 * @param dealNo the number of the deal
+	 * @return the game, to be given back to release
+	 */
+	public HostedGame create(long dealNo)
+	{
+		HostedGame game = new HostedGame(nextId.getAndIncrement(), dealNo);
+		game.lock();
+		game.setLastUsed(System.currentTimeMillis());
+		Shard shard = shardOf(game.getId());
+		synchronized (shard)
+		{
+			shard.resident.put(game.getId(), game);
+		}
+		return game;
+	}
+
+	/**
+	 * Returns a game with its lock held, rebuilding it from the spill file if
+	 * it was hibernated. Nothing else can change or hibernate the game until
+	 * it is given back to release
+	 *
+	 * @param id the id of the game
+	 * @return the game, or null if there is no game with the id, or it has
+	 *         been dropped
+	 */
+	public HostedGame acquire(long id)
+	{
+		while (true)
+		{
+			HostedGame game = get(id);
+			if (game == null)
+				return null;
+			game.lock();
+			if (!game.isRetired())
+				return game;
+
+			// Hibernated between being found and locked, so find it again
+			game.unlock();
+		}
+	}
+
+	/**
+	 * Gives back a game from acquire or create
+	 *
+	 * @param game the game
+	 */
+	public void release(HostedGame game)
+	{
+		game.unlock();
+	}
+
+	/**
+	 * Returns a game, reading it back from the spill file if it was
+	 * hibernated. The file is read without the shard's lock, and the read is
+	 * tried again if a record of the shard changed meanwhile
+	 */
+	private HostedGame get(long id)
+	{
+		if (id <= 0 || id >= nextId.get())
+			return null;
+		Shard shard = shardOf(id);
+		while (true)
+		{
+			int record;
+			long changes;
+			synchronized (shard)
+			{
+				HostedGame game = shard.resident.get(id);
+				if (game != null)
+				{
+					game.setLastUsed(System.currentTimeMillis());
+					return game;
+				}
+				record = shard.recordOf(id);
+				if (record < 0)
+					return null;
+				changes = shard.changes;
+			}
+
+			HostedGame read = null;
+			RuntimeException failure = null;
+			try
+			{
+				read = rehydrate(id, record);
+			}
+			catch (RuntimeException exp)
+			{
+				failure = exp;
+			}
+
+			synchronized (shard)
+			{
+				HostedGame game = shard.resident.get(id);
+				if (game != null)
+				{
+					// Read back by another event loop first
+					game.setLastUsed(System.currentTimeMillis());
+					return game;
+				}
+				if (shard.changes != changes)
+					continue;
+				if (failure != null)
+					throw failure;
+
+				// The game keeps its record to be written over next time
+				shard.hibernated.remove(id);
+				shard.expiring.remove(id);
+				read.setRecord(record);
+				read.setLastUsed(System.currentTimeMillis());
+				shard.resident.put(id, read);
+				REHYDRATED.increment();
+				return read;
+			}
+		}
+	}
+
+	/**
+	 * Hibernates every game that has not been used for the idle time, or
+	 * drops it if it is won, and once every expiry time drops the hibernated
+	 * games that have gone unused since the expiry before
+	 *
+	 * @return the number of games hibernated or dropped
+	 */
+	public int evictIdle()
+	{
+		long now = System.currentTimeMillis();
+		long oldest = now - idleMillis;
+		boolean expire = now - lastExpiry >= expiryMillis;
+		if (expire)
+			lastExpiry = now;
+		int evicted = 0;
+		for (Shard shard : shards)
+		{
+			synchronized (shard)
+			{
+				Iterator<HostedGame> games = shard.resident.values()
+						.iterator();
+				while (games.hasNext())
+				{
+					HostedGame game = games.next();
+					if (game.getLastUsed() > oldest)
+						break;
+					if (!game.tryLock())
+						continue;
+					try
+					{
+						putAway(shard, game);
+					}
+					finally
+					{
+						game.unlock();
+					}
+					games.remove();
+					evicted++;
+				}
+
+				if (expire)
+				{
+					LongIntMap expired = shard.expiring;
+					shard.expiring = shard.hibernated;
+					shard.hibernated = expired;
+					long[] ids = expired.keys();
+					for (long id : ids)
+						free(expired.get(id, -1));
+					expired.clear();
+					shard.changes++;
+					evicted += ids.length;
+					DROPPED.add(ids.length);
+				}
+			}
+		}
+		return evicted;
+	}
+
+	/**
+	 * Returns how long a game can go unused before it is hibernated
+	 *
+	 * @return the idle time in milliseconds
+	 */
+	public long getIdleMillis()
+	{
+		return idleMillis;
+	}
+
+	/**
+	 * Returns the number of games in memory
+	 *
+	 * @return the number of resident games
+	 */
+	public int getNoOfResident()
+	{
+		int noOfResident = 0;
+		for (Shard shard : shards)
+		{
+			synchronized (shard)
+			{
+				noOfResident += shard.resident.size();
+			}
+		}
+		return noOfResident;
+	}
+
+	/**
+	 * Returns the number of games hibernated and not yet dropped
+	 *
+	 * @return the number of hibernated games
+	 */
+	public int getNoOfHibernated()
+	{
+		int noOfHibernated = 0;
+		for (Shard shard : shards)
+		{
+			synchronized (shard)
+			{
+				noOfHibernated += shard.hibernated.size()
+						+ shard.expiring.size();
+			}
+		}
+		return noOfHibernated;
+	}
+
+	/**
+	 * Returns the number of games created
+	 *
+	 * @return the number of games
+	 */
+	public long getNoOfGames()
+	{
+		return nextId.get() - 1;
+	}
+
+	/**
+	 * Returns the size of the spill file
+	 *
+	 * @return the number of bytes
+	 */
+	public long getFileSize()
+	{
+		synchronized (spill)
+		{
+			return fileEnd;
+		}
+	}
+
+	/**
+	 * Closes the spill file. The hibernated games are lost
+	 *
+	 * @throws IOException if the file cannot be closed
+	 */
+	public void close() throws IOException
+	{
+		file.close();
+	}
+
+	/**
+	 * Returns the shard a game belongs to
+	 */
+	private Shard shardOf(long id)
+	{
+		return shards[(int) id & NO_OF_SHARDS - 1];
+	}
+
+	/**
+	 * Hibernates a game, or drops it and frees its record if it is won, and
+	 * retires it. The caller holds the game's lock and its shard's lock, and
+	 * removes the game from the shard once this returns
+	 */
+	private void putAway(Shard shard, HostedGame game)
+	{
+		if (game.getPosition().isSolved())
+		{
+			free(game.getRecord());
+			game.setRecord(-1);
+			shard.changes++;
+			game.retire();
+			DROPPED.increment();
+			return;
+		}
+
+		byte[] bytes = game.toBytes();
+		int sizeClass = sizeClass(4 + bytes.length);
+		int record = game.getRecord();
+		if (record < 0 || (record & (1 << CLASS_BITS) - 1) != sizeClass)
+		{
+			// Outgrown, or shrunk into a smaller class, so move it
+			int newRecord = allocate(sizeClass);
+			free(record);
+			record = newRecord;
+			game.setRecord(-1);
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(4 + bytes.length);
+		buffer.putInt(bytes.length).put(bytes).flip();
+		long offset = (long) (record >>> CLASS_BITS) << UNIT_SHIFT;
+		shard.changes++;
+		try
+		{
+			while (buffer.hasRemaining())
+				channel.write(buffer, offset + buffer.position());
+		}
+		catch (IOException exp)
+		{
+			if (game.getRecord() != record)
+				free(record);
+			throw new IllegalStateException("Cannot hibernate game "
+					+ game.getId(), exp);
+		}
+		game.setRecord(record);
+		shard.hibernated.put(game.getId(), record);
+		game.retire();
+		HIBERNATED.increment();
+	}
+
+	/**
+	 * Returns the smallest size class that holds a number of bytes
+	 *
+	 * @throws IllegalStateException if no class is big enough
+	 */
+	private static int sizeClass(int length)
+	{
+		for (int sizeClass = 0; sizeClass < NO_OF_CLASSES; sizeClass++)
+		{
+			if (length <= 1 << UNIT_SHIFT + sizeClass)
+				return sizeClass;
+		}
+		throw new IllegalStateException(length + " bytes is too long for a"
+				+ " record");
+	}
+
+	/**
+	 * Takes a free record of a size class, or makes a new one at the end of
+	 * the file
+	 *
+	 * @throws IllegalStateException if the file is full
+	 */
+	private int allocate(int sizeClass)
+	{
+		synchronized (spill)
+		{
+			if (noOfFree[sizeClass] > 0)
+				return freeRecords[sizeClass][--noOfFree[sizeClass]];
+			long unit = fileEnd >>> UNIT_SHIFT;
+			if (unit >= MAX_UNITS)
+				throw new IllegalStateException("The spill file is full");
+			fileEnd += 1L << UNIT_SHIFT + sizeClass;
+			return (int) unit << CLASS_BITS | sizeClass;
+		}
+	}
+
+	/**
+	 * Puts a record on the free list of its size class
+	 *
+	 * @param record the record, or -1 to do nothing
+	 */
+	private void free(int record)
+	{
+		if (record < 0)
+			return;
+		int sizeClass = record & (1 << CLASS_BITS) - 1;
+		synchronized (spill)
+		{
+			if (noOfFree[sizeClass] == freeRecords[sizeClass].length)
+				freeRecords[sizeClass] = Arrays.copyOf(freeRecords[sizeClass],
+						2 * noOfFree[sizeClass]);
+			freeRecords[sizeClass][noOfFree[sizeClass]++] = record;
+		}
+	}
+
+	/**
+	 * Reads a game back from its record in the spill file
+	 */
+	private HostedGame rehydrate(long id, int record)
+	{
+		long offset = (long) (record >>> CLASS_BITS) << UNIT_SHIFT;
+		int capacity = 1 << UNIT_SHIFT + (record & (1 << CLASS_BITS) - 1);
+		try
+		{
+			ByteBuffer length = ByteBuffer.allocate(4);
+			while (length.hasRemaining())
+				if (channel.read(length, offset + length.position()) < 0)
+					throw new IOException("Spill file ends at " + offset);
+			if (length.getInt(0) < 0 || length.getInt(0) > capacity - 4)
+				throw new IOException("Bad record at " + offset);
+			ByteBuffer bytes = ByteBuffer.allocate(length.getInt(0));
+			while (bytes.hasRemaining())
+				if (channel.read(bytes, offset + 4 + bytes.position()) < 0)
+					throw new IOException("Spill file ends at " + offset);
+			bytes.flip();
+			return HostedGame.fromBytes(id, bytes);
+		}
+		catch (IOException exp)
+		{
+			throw new IllegalStateException("Cannot rehydrate game " + id,
+					exp);
+		}
+	}
+}
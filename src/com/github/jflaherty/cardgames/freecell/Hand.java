@@ -87,7 +87,9 @@ public class Hand
 
 
 	/**
-	 * Returns the Hand's Cards in a String
+	 * Returns the Hand's Cards in a String. The rank and suit of a
+	 * FreeCellCard come straight from the CardTable, so no String is made
+	 * for each Card
 	 * 
 	 * @return the Hand's Cards in a String
 	 */
@@ -96,7 +98,16 @@ public class Hand
 		StringBuilder str = new StringBuilder(hand.size() * 3);
 		for (int index = 0; index < hand.size(); index++)
 		{
-			str.append(hand.get(index) + " ");
+			Card card = hand.get(index);
+			if (card instanceof FreeCellCard)
+			{
+				byte id = ((FreeCellCard) card).getId();
+				str.append(CardTable.rankChar(id)).append(
+						CardTable.suitChar(id));
+			}
+			else
+				str.append(card);
+			str.append(' ');
 		}
 		return str.toString();
 	}
@@ -0,0 +1,154 @@
+package com.github.jflaherty.cardgames.freecell;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A named distribution of values, kept by Metrics. Values are counted in 64
+ * buckets by powers of two, so a Histogram uses the same small amount of
+ * memory however many values are recorded, and percentiles are accurate to
+ * within a factor of two. Timers are Histograms of durations in nanoseconds.
+ * Recording does nothing when metrics are turned off
+ */
+public class Histogram
+{
+	private static final int NO_OF_BUCKETS = 64;
+
+	private final String name;
+	private final AtomicLongArray buckets = new AtomicLongArray(NO_OF_BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Creates a new empty Histogram
+	 *
+	 * @param name the name of the Histogram
+	 */
+	Histogram(String name)
+	{
+		this.name = name;
+	}
+
+	/**
+	 * Returns the name of this Histogram
+	 *
+	 * @return the name of this Histogram
+	 */
+	public String getName()
+	{
+		return name;
+	}
+
+	/**
+	 * Records a value
+	 *
+	 * @param value the value to record, 0 or more
+	 */
+	public void record(long value)
+	{
+		if (!Metrics.ENABLED)
+			return;
+		if (value < 0)
+			value = 0;
+		// Bucket b holds the values from 2^(b-1) to 2^b - 1
+		buckets.incrementAndGet(NO_OF_BUCKETS - Long.numberOfLeadingZeros(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+		long oldMax;
+		while (value > (oldMax = max.get()) && !max.compareAndSet(oldMax, value))
+		{
+			// Another thread changed the maximum, try again
+		}
+	}
+
+	/**
+	 * Records the time since a start time taken from Metrics.start()
+	 *
+	 * @param startNanos the start time in nanoseconds
+	 */
+	public void stop(long startNanos)
+	{
+		if (Metrics.ENABLED)
+			record(System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * Returns the number of values recorded
+	 *
+	 * @return the number of values
+	 */
+	public long getCount()
+	{
+		return count.get();
+	}
+
+	/**
+	 * Returns the mean of the values recorded
+	 *
+	 * @return the mean, or 0 if no values have been recorded
+	 */
+	public double getMean()
+	{
+		long noOfValues = count.get();
+		return noOfValues == 0 ? 0 : sum.get() / (double) noOfValues;
+	}
+
+	/**
+	 * Returns the largest value recorded
+	 *
+	 * @return the largest value
+	 */
+	public long getMax()
+	{
+		return max.get();
+	}
+
+	/**
+	 * Returns an upper bound for the value at a percentile
+	 *
+	 * @param percentile the percentile, 0 to 100
+	 * @return the top of the bucket holding that percentile, or 0 if no values
+	 *         have been recorded
+	 */
+	public long getPercentile(double percentile)
+	{
+		long noOfValues = count.get();
+		if (noOfValues == 0)
+			return 0;
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * noOfValues));
+		long seen = 0;
+		for (int bucket = 0; bucket < NO_OF_BUCKETS; bucket++)
+		{
+			seen += buckets.get(bucket);
+			if (seen >= rank)
+				return Math.min(bucketTop(bucket), getMax());
+		}
+		return getMax();
+	}
+
+	/**
+	 * Returns the largest value that goes in a bucket
+	 *
+	 * @param bucket the bucket index
+	 * @return the largest value in the bucket
+	 */
+	private static long bucketTop(int bucket)
+	{
+		if (bucket >= NO_OF_BUCKETS - 1)
+			return Long.MAX_VALUE;
+		return (1L << bucket) - 1;
+	}
+
+	/**
+	 * Removes all of the recorded values
+	 */
+	void reset()
+	{
+		for (int bucket = 0; bucket < NO_OF_BUCKETS; bucket++)
+			buckets.set(bucket, 0);
+		count.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+}
@@ -0,0 +1,290 @@
+package com.github.jflaherty.cardgames.freecell;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A game hosted by a GameServer: a numbered deal, the Moves made in it and
+ * the board they lead to. Its compact form is just the deal number and the
+ * Moves, two bytes each, since the board can be rebuilt by replaying them.
+ * A game takes at most MAX_MOVES Moves, so its history and its record in the
+ * spill file stay bounded however long a client keeps playing. A game is
+ * only used while its lock is held (see GameStore.acquire)
+ */
+public class HostedGame
+{
+	// The most Moves a game keeps, auto-moves included
+	public static final int MAX_MOVES = 10000;
+
+	private final long id;
+	private final long dealNo;
+	private final Position position;
+	private int[] moves;
+	private int noOfMoves;
+	private long lastUsed;
+
+	// Held while the game is used or hibernated. A game that has been
+	// hibernated is retired, and the store rebuilds a new one from its record
+	private final ReentrantLock lock = new ReentrantLock();
+	private boolean retired;
+
+	// The game's record in the spill file, or -1 if it has none
+	private int record = -1;
+
+	/**
+	 * Creates a new game at the start of a deal
+	 *
+	 * @param id the id of the game
+	 * @param dealNo the number of the deal
+	 */
+	public HostedGame(long id, long dealNo)
+	{
+		this.id = id;
+		this.dealNo = dealNo;
+		position = Deals.deal(dealNo);
+		moves = new int[16];
+	}
+
+	/**
+	 * Returns the id of this game
+	 *
+	 * @return the id
+	 */
+	public long getId()
+	{
+		return id;
+	}
+
+	/**
+	 * Returns the number of the deal
+	 *
+	 * @return the deal number
+	 */
+	public long getDealNo()
+	{
+		return dealNo;
+	}
+
+	/**
+	 * Returns the current board, which must not be changed
+	 *
+	 * @return the board
+	 */
+	public Position getPosition()
+	{
+		return position;
+	}
+
+	/**
+	 * Returns the number of Moves made
+	 *
+	 * @return the number of Moves
+	 */
+	public int getNoOfMoves()
+	{
+		return noOfMoves;
+	}
+
+	/**
+	 * Returns one of the Moves made
+	 *
+	 * @param index the index of the Move, 0 for the first
+	 * @return the packed Move
+	 */
+	public int getMove(int index)
+	{
+		return moves[index];
+	}
+
+	/**
+	 * Makes a Move if it is legal
+	 *
+	 * @param move the packed Move
+	 * @return true if the Move was made, false if it is not legal or the game
+	 *         already has MAX_MOVES Moves
+	 */
+	public boolean move(int move)
+	{
+		if (noOfMoves == MAX_MOVES || !position.isLegal(move))
+			return false;
+		position.apply(move);
+		if (noOfMoves == moves.length)
+			moves = Arrays.copyOf(moves, Math.min(2 * moves.length, MAX_MOVES));
+		moves[noOfMoves++] = move;
+		return true;
+	}
+
+	/**
+	 * Makes a Move if it is legal, then every safe Move to the Foundations
+	 *
+	 * @param move the packed Move
+	 * @return the number of Moves made, 0 if the Move is not legal or there
+	 *         is not room for it and the auto-moves it could lead to
+	 */
+	public int play(int move)
+	{
+		if (noOfMoves + Delta.MAX_MOVES > MAX_MOVES || !move(move))
+			return 0;
+		if (noOfMoves + Delta.MAX_MOVES > moves.length)
+			moves = Arrays.copyOf(moves, Math.min(2 * moves.length
+					+ Delta.MAX_MOVES, MAX_MOVES));
+		int noOfAutoMoves = Delta.autoMoves(position, moves, noOfMoves);
+		noOfMoves += noOfAutoMoves;
+		return 1 + noOfAutoMoves;
+	}
+
+	/**
+	 * Writes the last Moves made as a Delta
+	 *
+	 * @param buffer the buffer, with at least 2 * noOfMoves bytes remaining
+	 * @param noOfMoves the number of Moves, as returned by play
+	 */
+	public void writeDelta(ByteBuffer buffer, int noOfMoves)
+	{
+		Delta.write(buffer, moves, this.noOfMoves - noOfMoves, noOfMoves);
+	}
+
+	/**
+	 * Makes a batch of Moves in order, stopping at the first illegal one
+	 *
+	 * @param batch the packed Moves
+	 * @param noOfMoves the number of Moves in the batch
+	 * @return the number of Moves made
+	 */
+	public int move(int[] batch, int noOfMoves)
+	{
+		for (int index = 0; index < noOfMoves; index++)
+		{
+			if (!move(batch[index]))
+				return index;
+		}
+		return noOfMoves;
+	}
+
+	/**
+	 * Returns when this game was last used
+	 *
+	 * @return the time in milliseconds
+	 */
+	long getLastUsed()
+	{
+		return lastUsed;
+	}
+
+	/**
+	 * Records that this game has just been used
+	 *
+	 * @param now the time in milliseconds
+	 */
+	void setLastUsed(long now)
+	{
+		lastUsed = now;
+	}
+
+	/**
+	 * Waits for this game's lock
+	 */
+	void lock()
+	{
+		lock.lock();
+	}
+
+	/**
+	 * Takes this game's lock if no one else holds it
+	 *
+	 * @return true if the lock was taken, false if it is held
+	 */
+	boolean tryLock()
+	{
+		return lock.tryLock();
+	}
+
+	/**
+	 * Lets go of this game's lock
+	 */
+	void unlock()
+	{
+		lock.unlock();
+	}
+
+	/**
+	 * Returns whether this game has been hibernated, after which it must no
+	 * longer be used or changed
+	 *
+	 * @return true if the game is retired
+	 */
+	boolean isRetired()
+	{
+		return retired;
+	}
+
+	/**
+	 * Marks this game as hibernated. Only call this with the lock held
+	 */
+	void retire()
+	{
+		retired = true;
+	}
+
+	/**
+	 * Returns the game's record in the spill file
+	 *
+	 * @return the record, or -1 if it has none
+	 */
+	int getRecord()
+	{
+		return record;
+	}
+
+	/**
+	 * Sets the game's record in the spill file
+	 *
+	 * @param record the record, or -1 for none
+	 */
+	void setRecord(int record)
+	{
+		this.record = record;
+	}
+
+	/**
+	 * Returns the compact form of this game: the deal number, the number of
+	 * Moves and each Move as a short (a packed Move fits in 14 bits)
+	 *
+	 * @return the bytes of the compact form
+	 */
+	public byte[] toBytes()
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(8 + 4 + 2 * noOfMoves);
+		buffer.putLong(dealNo).putInt(noOfMoves);
+		for (int index = 0; index < noOfMoves; index++)
+			buffer.putShort((short) moves[index]);
+		return buffer.array();
+	}
+
+	/**
+	 * Rebuilds a game from its compact form by replaying its Moves
+	 *
+	 * @param id the id of the game
+	 * @param buffer the compact form, which is read
+	 * @return the game
+	 * @throws IllegalArgumentException if there are too many Moves or one of
+	 *             them is not legal
+	 */
+	public static HostedGame fromBytes(long id, ByteBuffer buffer)
+	{
+		HostedGame game = new HostedGame(id, buffer.getLong());
+		int noOfMoves = buffer.getInt();
+		if (noOfMoves < 0 || noOfMoves > MAX_MOVES)
+			throw new IllegalArgumentException("Game " + id + " has "
+					+ noOfMoves + " Moves");
+		game.moves = new int[Math.max(16, noOfMoves)];
+		for (int index = 0; index < noOfMoves; index++)
+		{
+			if (!game.move(buffer.getShort()))
+				throw new IllegalArgumentException("Move " + (index + 1)
+						+ " of game " + id + " is not legal");
+		}
+		return game;
+	}
+}
@@ -0,0 +1,387 @@
+package com.github.jflaherty.cardgames.freecell;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads and writes whole boards (all 16 Hands) in the usual FreeCell text
+ * notation, one line per Hand:
+ *
+ * <pre>
+ * Foundations: C-0 D-A H-0 S-2
+ * Freecells: 5H - - TC
+ * : JD KD 2S 4C 3S 6D 6S
+ * : 2D KC KS 5C TD 8S 9C
+ * ...
+ * </pre>
+ *
+ * Foundations show the top rank of each suit (0 if empty), an empty FreeCell
+ * is "-" and each Cascade is listed from its bottom Card to its top Card. The
+ * leading ":" on Cascade lines is optional. Several boards in one text are
+ * separated by blank lines.
+ * <p>
+ * The parser reads straight from a CharSequence or a ByteBuffer of ASCII
+ * text into a Position supplied by the caller, and the writer writes into a
+ * buffer supplied by the caller, so importing and exporting many boards does
+ * not create any Strings or Cards. A LayoutCodec keeps some scratch space, so
+ * each thread should use its own.
+ */
+public class LayoutCodec
+{
+	// The longest text of one board is well under this
+	public static final int MAX_BOARD_LENGTH = 512;
+
+	private static final String FOUNDATIONS = "Foundations:";
+	private static final String FREECELLS = "Freecells:";
+	private static final char[] FOUNDATION_RANKS = "0A23456789TJQK"
+			.toCharArray();
+
+	private final byte[] scratch = new byte[MAX_BOARD_LENGTH];
+	private final AsciiView view = new AsciiView();
+
+	/**
+	 * A CharSequence view of ASCII bytes in a ByteBuffer, so the bytes can be
+	 * parsed without decoding them into a String first
+	 */
+	private static class AsciiView implements CharSequence
+	{
+		private ByteBuffer buffer;
+		private int offset;
+		private int length;
+
+		void wrap(ByteBuffer buffer)
+		{
+			this.buffer = buffer;
+			offset = buffer.position();
+			length = buffer.remaining();
+		}
+
+		public char charAt(int index)
+		{
+			return (char) (buffer.get(offset + index) & 0xFF);
+		}
+
+		public int length()
+		{
+			return length;
+		}
+
+		public CharSequence subSequence(int start, int end)
+		{
+			return toString().substring(start, end);
+		}
+
+		public String toString()
+		{
+			StringBuilder str = new StringBuilder(length);
+			for (int index = 0; index < length; index++)
+				str.append(charAt(index));
+			return str.toString();
+		}
+	}
+
+	/**
+	 * Reads one board from a CharSequence
+	 *
+	 * @param text the text to read
+	 * @param start the index to start reading at
+	 * @param into the Position to fill, which is cleared first
+	 * @return the index just past the board, or -1 if there are no more
+	 *         boards in the text
+	 * @throws IllegalArgumentException if the board is not valid
+	 */
+	public int parse(CharSequence text, int start, Position into)
+	{
+		into.clear();
+		int length = text.length();
+		int index = skipBlankLines(text, start);
+		if (index >= length)
+			return -1;
+
+		int noOfCascades = 0;
+		long cards = 0;
+		while (index < length)
+		{
+			int lineEnd = index;
+			while (lineEnd < length && text.charAt(lineEnd) != '\n')
+				lineEnd++;
+			int next = lineEnd < length ? lineEnd + 1 : lineEnd;
+
+			// A blank line ends the board
+			int first = skipSpaces(text, index, lineEnd);
+			if (first == lineEnd)
+			{
+				index = next;
+				break;
+			}
+
+			if (startsWith(text, first, lineEnd, FOUNDATIONS))
+				cards = parseFoundations(text, first + FOUNDATIONS.length(),
+						lineEnd, into, cards);
+			else if (startsWith(text, first, lineEnd, FREECELLS))
+				cards = parseFreecells(text, first + FREECELLS.length(),
+						lineEnd, into, cards);
+			else
+			{
+				if (noOfCascades == Position.NO_OF_CASCADES)
+					throw error("Too many cascades", first);
+				if (text.charAt(first) == ':')
+					first++;
+				cards = parseCascade(text, first, lineEnd, into, noOfCascades,
+						cards);
+				noOfCascades++;
+			}
+			index = next;
+		}
+
+		if (noOfCascades != Position.NO_OF_CASCADES)
+			throw error("Board has " + noOfCascades + " cascades", index);
+		if (cards != MoveTables.ALL_CARDS)
+			throw error("Board does not have all 52 cards", index);
+		return index;
+	}
+
+	/**
+	 * Reads one board from ASCII text in a ByteBuffer. The buffer's position
+	 * is moved past the board
+	 *
+	 * @param buffer the buffer to read from its position to its limit
+	 * @param into the Position to fill, which is cleared first
+	 * @return true if a board was read, false if there are no more boards
+	 * @throws IllegalArgumentException if the board is not valid
+	 */
+	public boolean parse(ByteBuffer buffer, Position into)
+	{
+		view.wrap(buffer);
+		int end = parse(view, 0, into);
+		view.buffer = null;
+		if (end < 0)
+		{
+			buffer.position(buffer.limit());
+			return false;
+		}
+		buffer.position(buffer.position() + end);
+		return true;
+	}
+
+	/**
+	 * Reads the Foundations line
+	 */
+	private static long parseFoundations(CharSequence text, int index,
+			int lineEnd, Position into, long cards)
+	{
+		while ((index = skipSpaces(text, index, lineEnd)) < lineEnd)
+		{
+			if (index + 3 > lineEnd || text.charAt(index + 1) != '-')
+				throw error("Bad foundation", index);
+			int suit = CardTable.suitOf(text.charAt(index));
+			char rankChar = text.charAt(index + 2);
+			int count = rankChar == '0' ? 0 : Deals.rankOf(rankChar);
+			if (suit < 0 || count < 0)
+				throw error("Bad foundation", index);
+			into.setFoundation(suit, count);
+			for (int rank = 1; rank <= count; rank++)
+				cards = addCard(cards, CardTable.id(rank, suit), index);
+			index += 3;
+		}
+		return cards;
+	}
+
+	/**
+	 * Reads the FreeCells line
+	 */
+	private static long parseFreecells(CharSequence text, int index,
+			int lineEnd, Position into, long cards)
+	{
+		int cell = 0;
+		while ((index = skipSpaces(text, index, lineEnd)) < lineEnd)
+		{
+			if (cell == Position.NO_OF_FREECELLS)
+				throw error("Too many freecells", index);
+			if (text.charAt(index) == '-')
+			{
+				into.setFreecell(cell++, CardTable.NONE);
+				index++;
+				continue;
+			}
+			byte card = parseCard(text, index, lineEnd);
+			cards = addCard(cards, card, index);
+			into.setFreecell(cell++, card);
+			index = skipToken(text, index, lineEnd);
+		}
+		return cards;
+	}
+
+	/**
+	 * Reads one Cascade line
+	 */
+	private static long parseCascade(CharSequence text, int index,
+			int lineEnd, Position into, int cascade, long cards)
+	{
+		while ((index = skipSpaces(text, index, lineEnd)) < lineEnd)
+		{
+			byte card = parseCard(text, index, lineEnd);
+			cards = addCard(cards, card, index);
+			into.addToCascade(cascade, card);
+			index = skipToken(text, index, lineEnd);
+		}
+		return cards;
+	}
+
+	/**
+	 * Reads a Card such as "TH" or "10H" at the given index
+	 */
+	private static byte parseCard(CharSequence text, int index, int lineEnd)
+	{
+		return Deals.parseCard(text, index, skipToken(text, index, lineEnd));
+	}
+
+	/**
+	 * Adds a Card to the mask of Cards seen, checking it is not repeated
+	 */
+	private static long addCard(long cards, byte card, int index)
+	{
+		if ((cards & CardTable.bit(card)) != 0)
+			throw error("Repeated card " + CardTable.toString(card), index);
+		return cards | CardTable.bit(card);
+	}
+
+	private static int skipSpaces(CharSequence text, int index, int end)
+	{
+		while (index < end && Character.isWhitespace(text.charAt(index)))
+			index++;
+		return index;
+	}
+
+	private static int skipToken(CharSequence text, int index, int end)
+	{
+		while (index < end && !Character.isWhitespace(text.charAt(index)))
+			index++;
+		return index;
+	}
+
+	private static int skipBlankLines(CharSequence text, int index)
+	{
+		int length = text.length();
+		int lineStart = index;
+		while (index < length && Character.isWhitespace(text.charAt(index)))
+		{
+			if (text.charAt(index) == '\n')
+				lineStart = index + 1;
+			index++;
+		}
+		return index < length ? lineStart : length;
+	}
+
+	private static boolean startsWith(CharSequence text, int index, int end,
+			String prefix)
+	{
+		if (end - index < prefix.length())
+			return false;
+		for (int offset = 0; offset < prefix.length(); offset++)
+		{
+			if (text.charAt(index + offset) != prefix.charAt(offset))
+				return false;
+		}
+		return true;
+	}
+
+	private static IllegalArgumentException error(String message, int index)
+	{
+		return new IllegalArgumentException(message + " at offset " + index);
+	}
+
+	/**
+	 * Writes a board as ASCII text into a byte array, followed by a blank line
+	 *
+	 * @param position the board to write
+	 * @param out the array to write into, with at least MAX_BOARD_LENGTH bytes
+	 *            free after offset
+	 * @param offset the index to start writing at
+	 * @return the index just past the text written
+	 */
+	public static int write(Position position, byte[] out, int offset)
+	{
+		offset = putString(FOUNDATIONS, out, offset);
+		for (int suit = 0; suit < Position.NO_OF_FOUNDATIONS; suit++)
+		{
+			out[offset++] = ' ';
+			out[offset++] = (byte) CardTable.suitChar(CardTable.id(1, suit));
+			out[offset++] = '-';
+			out[offset++] = (byte) FOUNDATION_RANKS[position.foundation(suit)];
+		}
+		out[offset++] = '\n';
+
+		offset = putString(FREECELLS, out, offset);
+		for (int cell = 0; cell < Position.NO_OF_FREECELLS; cell++)
+		{
+			out[offset++] = ' ';
+			byte card = position.freecell(cell);
+			if (card == CardTable.NONE)
+				out[offset++] = '-';
+			else
+				offset = putCard(card, out, offset);
+		}
+		out[offset++] = '\n';
+
+		for (int cascade = 0; cascade < Position.NO_OF_CASCADES; cascade++)
+		{
+			out[offset++] = ':';
+			for (int index = 0; index < position.height(cascade); index++)
+			{
+				out[offset++] = ' ';
+				offset = putCard(position.cardAt(cascade, index), out, offset);
+			}
+			out[offset++] = '\n';
+		}
+		out[offset++] = '\n';
+		return offset;
+	}
+
+	/**
+	 * Writes a board as ASCII text into a ByteBuffer at its position
+	 *
+	 * @param position the board to write
+	 * @param buffer the buffer to write into
+	 * @throws java.nio.BufferOverflowException if the buffer is too full
+	 */
+	public void write(Position position, ByteBuffer buffer)
+	{
+		if (buffer.hasArray() && buffer.remaining() >= MAX_BOARD_LENGTH)
+		{
+			int start = buffer.arrayOffset() + buffer.position();
+			int end = write(position, buffer.array(), start);
+			buffer.position(buffer.position() + end - start);
+			return;
+		}
+		int length = write(position, scratch, 0);
+		buffer.put(scratch, 0, length);
+	}
+
+	/**
+	 * Appends a board to a StringBuilder
+	 *
+	 * @param position the board to write
+	 * @param str the StringBuilder to append to
+	 */
+	public void write(Position position, StringBuilder str)
+	{
+		int length = write(position, scratch, 0);
+		str.ensureCapacity(str.length() + length);
+		for (int index = 0; index < length; index++)
+			str.append((char) scratch[index]);
+	}
+
+	private static int putString(String text, byte[] out, int offset)
+	{
+		for (int index = 0; index < text.length(); index++)
+			out[offset++] = (byte) text.charAt(index);
+		return offset;
+	}
+
+	private static int putCard(byte card, byte[] out, int offset)
+	{
+		out[offset++] = (byte) CardTable.rankChar(card);
+		out[offset++] = (byte) CardTable.suitChar(card);
+		return offset;
+	}
+}
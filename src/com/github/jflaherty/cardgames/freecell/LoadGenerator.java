@@ -0,0 +1,359 @@
+package com.github.jflaherty.cardgames.freecell;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Puts a GameServer under load. Many sessions are opened and kept open at
+ * once, and a few threads take turns making a random legal Move in each of
+ * their sessions, starting a new game whenever one is won or stuck. The
+ * round trip of every Move is timed, and the percentiles are printed at the
+ * end. Each session keeps its own copy of the board to choose Moves from, so
+ * a Move the server calls illegal is counted as an error. With a batch size
+ * above 1, each request is a pipelined batch of that many Moves (fewer if the
+ * game runs out of them), the round trip of each batch is timed, and the
+ * copy of the board is updated from the changes in the reply and checked
+ * against the Moves sent
+ *
+ * <pre>
+ * LoadGenerator [host|local] [port] [sessions] [requests per session] [threads] [batch]
+ * </pre>
+ *
+ * With "local" a GameServer is started in the same JVM on a free port
+ */
+public class LoadGenerator
+{
+	/**
+	 * One connection to the server and the board of its game
+	 */
+	private static class Session
+	{
+		final Socket socket;
+		final DataInputStream in;
+		final DataOutputStream out;
+		final byte[] reply = new byte[GameProtocol.MAX_FRAME];
+		Position position;
+
+		/**
+		 * Opens a session
+		 */
+		Session(String host, int port) throws IOException
+		{
+			socket = new Socket(host, port);
+			socket.setTcpNoDelay(true);
+			in = new DataInputStream(new BufferedInputStream(
+					socket.getInputStream(), 256));
+			out = new DataOutputStream(new BufferedOutputStream(
+					socket.getOutputStream(), 64));
+		}
+
+		/**
+		 * Reads the next reply
+		 *
+		 * @return the reply, from its type to its end
+		 */
+		ByteBuffer readReply() throws IOException
+		{
+			int length = in.readInt();
+			if (length < 1 || length > reply.length)
+				throw new IOException("Bad reply length " + length);
+			in.readFully(reply, 0, length);
+			return ByteBuffer.wrap(reply, 0, length);
+		}
+
+		/**
+		 * Starts a new random game
+		 */
+		void newGame() throws IOException
+		{
+			out.writeInt(9);
+			out.writeByte(GameProtocol.NEW_GAME);
+			out.writeLong(0);
+			out.flush();
+			ByteBuffer reply = readReply();
+			if (reply.get() != GameProtocol.GAME)
+				throw new IOException("Game not started");
+			reply.getLong();
+			reply.getLong();
+			position = GameProtocol.readBoard(reply);
+		}
+
+		/**
+		 * Makes a Move
+		 *
+		 * @return the status of the reply
+		 */
+		byte move(int move) throws IOException
+		{
+			out.writeInt(4);
+			out.writeByte(GameProtocol.MOVE);
+			out.writeByte(Position.from(move));
+			out.writeByte(Position.to(move));
+			out.writeByte(Position.count(move));
+			out.flush();
+			ByteBuffer reply = readReply();
+			if (reply.get() != GameProtocol.MOVED)
+				throw new IOException("Move not answered");
+			return reply.get();
+		}
+
+		/**
+		 * Makes a batch of Moves and updates the board from the reply
+		 *
+		 * @return the status of the reply
+		 */
+		byte moves(int[] batch, int noOfMoves) throws IOException
+		{
+			out.writeInt(2 + 3 * noOfMoves);
+			out.writeByte(GameProtocol.MOVES);
+			out.writeByte(noOfMoves);
+			for (int index = 0; index < noOfMoves; index++)
+			{
+				out.writeByte(Position.from(batch[index]));
+				out.writeByte(Position.to(batch[index]));
+				out.writeByte(Position.count(batch[index]));
+			}
+			out.flush();
+			ByteBuffer reply = readReply();
+			if (reply.get() != GameProtocol.MOVES)
+				throw new IOException("Moves not answered");
+			byte status = reply.get();
+			reply.get();
+			reply.get();
+			GameProtocol.readChanges(reply, position);
+			return status;
+		}
+
+		/**
+		 * Closes the connection
+		 */
+		void close() throws IOException
+		{
+			socket.close();
+		}
+	}
+
+	/**
+	 * Runs the load and prints the round trip percentiles
+	 *
+	 * @param args optionally the host or "local", port, number of sessions,
+	 *            requests per session, number of threads and Moves per
+	 *            request
+	 * @throws Exception if the server cannot be reached
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		String host = args.length > 0 ? args[0] : "local";
+		int port = args.length > 1 ? Integer.parseInt(args[1])
+				: GameServer.DEFAULT_PORT;
+		int noOfSessions = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+		final int movesPerSession = args.length > 3 ? Integer
+				.parseInt(args[3]) : 100;
+		int noOfThreads = args.length > 4 ? Integer.parseInt(args[4]) : 4;
+		final int batchSize = args.length > 5 ? Math.min(Integer
+				.parseInt(args[5]), GameProtocol.MAX_BATCH) : 1;
+
+		GameServer server = null;
+		if (host.equals("local"))
+		{
+			server = new GameServer(0, noOfSessions, Runtime.getRuntime()
+					.availableProcessors());
+			Thread acceptor = new Thread(server, "game-acceptor");
+			acceptor.setDaemon(true);
+			acceptor.start();
+			host = "localhost";
+			port = server.getPort();
+		}
+
+		// Open every session before any Moves so they are all open at once
+		long start = System.nanoTime();
+		final Session[] sessions = new Session[noOfSessions];
+		for (int session = 0; session < noOfSessions; session++)
+			sessions[session] = new Session(host, port);
+		System.err.printf("Opened %d sessions in %.1f s%n", noOfSessions,
+				(System.nanoTime() - start) / 1e9);
+
+		ExecutorService pool = Executors.newFixedThreadPool(noOfThreads);
+		ArrayList<Future<long[]>> results = new ArrayList<Future<long[]>>();
+		for (int thread = 0; thread < noOfThreads; thread++)
+		{
+			final int first = thread;
+			final int step = noOfThreads;
+			results.add(pool.submit(new Callable<long[]>()
+			{
+				public long[] call() throws IOException
+				{
+					if (batchSize > 1)
+						return driveBatches(sessions, first, step,
+								movesPerSession, batchSize);
+					return drive(sessions, first, step, movesPerSession);
+				}
+			}));
+		}
+		pool.shutdown();
+
+		start = System.nanoTime();
+		long[][] parts = new long[noOfThreads][];
+		int total = 0;
+		try
+		{
+			for (int thread = 0; thread < noOfThreads; thread++)
+			{
+				parts[thread] = results.get(thread).get();
+				total += parts[thread].length;
+			}
+		}
+		catch (ExecutionException exp)
+		{
+			throw new IllegalStateException("Error driving sessions",
+					exp.getCause());
+		}
+		long elapsed = System.nanoTime() - start;
+
+		long[] latencies = new long[total];
+		int filled = 0;
+		for (long[] part : parts)
+		{
+			System.arraycopy(part, 0, latencies, filled, part.length);
+			filled += part.length;
+		}
+		Arrays.sort(latencies);
+		System.out.printf("%d sessions, %d requests of up to %d Moves in %.1f s"
+				+ " (%.0f requests/s)%n", noOfSessions, total, batchSize,
+				elapsed / 1e9, total / (elapsed / 1e9));
+		System.out.println("percentile,round trip us");
+		double[] percentiles = { 50, 90, 99, 99.9, 100 };
+		for (double percentile : percentiles)
+			System.out.printf("%s,%.1f%n", percentile, percentile(latencies,
+					percentile) / 1e3);
+
+		for (Session session : sessions)
+			session.close();
+		if (server != null)
+			server.stop();
+	}
+
+	/**
+	 * Makes Moves in every step-th session, one session at a time
+	 *
+	 * @param sessions all of the sessions
+	 * @param first the first session this thread drives
+	 * @param step the number of threads sharing the sessions
+	 * @param movesPerSession the number of Moves to make in each session
+	 * @return the round trip time of every Move in nanoseconds
+	 * @throws IOException if a session fails or a Move is refused
+	 */
+	private static long[] drive(Session[] sessions, int first, int step,
+			int movesPerSession) throws IOException
+	{
+		int noOfSessions = (sessions.length - first + step - 1) / step;
+		long[] latencies = new long[noOfSessions * movesPerSession];
+		int timed = 0;
+		int[] moves = new int[Position.MAX_MOVES];
+		Random random = new Random(first);
+		for (int round = 0; round < movesPerSession; round++)
+		{
+			for (int index = first; index < sessions.length; index += step)
+			{
+				Session session = sessions[index];
+				int noOfMoves = 0;
+				if (session.position != null && !session.position.isSolved())
+					noOfMoves = session.position.generateMoves(moves);
+				if (noOfMoves == 0)
+				{
+					session.newGame();
+					noOfMoves = session.position.generateMoves(moves);
+				}
+
+				int move = moves[random.nextInt(noOfMoves)];
+				long start = System.nanoTime();
+				byte status = session.move(move);
+				latencies[timed++] = System.nanoTime() - start;
+				if (status != GameProtocol.OK)
+					throw new IOException("Move "
+							+ Position.moveToString(move) + " refused: "
+							+ status);
+				session.position.apply(move);
+			}
+		}
+		return latencies;
+	}
+
+	/**
+	 * Makes batches of Moves in every step-th session, one session at a time
+	 *
+	 * @param sessions all of the sessions
+	 * @param first the first session this thread drives
+	 * @param step the number of threads sharing the sessions
+	 * @param batchesPerSession the number of batches to send to each session
+	 * @param batchSize the most Moves in each batch
+	 * @return the round trip time of every batch in nanoseconds
+	 * @throws IOException if a session fails, a Move is refused or the board
+	 *             in a reply does not match the Moves sent
+	 */
+	private static long[] driveBatches(Session[] sessions, int first,
+			int step, int batchesPerSession, int batchSize) throws IOException
+	{
+		int noOfSessions = (sessions.length - first + step - 1) / step;
+		long[] latencies = new long[noOfSessions * batchesPerSession];
+		int timed = 0;
+		int[] moves = new int[Position.MAX_MOVES];
+		int[] batch = new int[batchSize];
+		Random random = new Random(first);
+		for (int round = 0; round < batchesPerSession; round++)
+		{
+			for (int index = first; index < sessions.length; index += step)
+			{
+				Session session = sessions[index];
+				if (session.position == null || session.position.isSolved()
+						|| session.position.generateMoves(moves) == 0)
+					session.newGame();
+
+				// Choose the batch on a copy, the reply updates the original
+				Position expected = new Position(session.position);
+				int noOfMoves = 0;
+				while (noOfMoves < batchSize && !expected.isSolved())
+				{
+					int noOfChoices = expected.generateMoves(moves);
+					if (noOfChoices == 0)
+						break;
+					batch[noOfMoves] = moves[random.nextInt(noOfChoices)];
+					expected.apply(batch[noOfMoves++]);
+				}
+
+				long start = System.nanoTime();
+				byte status = session.moves(batch, noOfMoves);
+				latencies[timed++] = System.nanoTime() - start;
+				if (status != GameProtocol.OK)
+					throw new IOException("Batch refused: " + status);
+				if (session.position.layoutKey() != expected.layoutKey())
+					throw new IOException("Board does not match the batch");
+			}
+		}
+		return latencies;
+	}
+
+	/**
+	 * Returns the value at a percentile of sorted values
+	 */
+	private static long percentile(long[] sorted, double percentile)
+	{
+		if (sorted.length == 0)
+			return 0;
+		int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+		return sorted[Math.max(0, Math.min(sorted.length, rank) - 1)];
+	}
+}
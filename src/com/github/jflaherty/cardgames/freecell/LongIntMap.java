@@ -0,0 +1,188 @@
+package com.github.jflaherty.cardgames.freecell;
+
+/**
+ * A map from longs to ints using open addressing, used to remember a number
+ * for each searched Position by its key without boxing. The key 0 is kept
+ * separately since it marks an empty slot
+ */
+public class LongIntMap
+{
+	private long[] keys;
+	private int[] values;
+	private int size;
+	private boolean hasZero;
+	private int zeroValue;
+
+	/**
+	 * Creates an empty map
+	 *
+	 * @param capacity the number of keys to make room for, rounded up to a
+	 *            power of two
+	 */
+	public LongIntMap(int capacity)
+	{
+		int length = 16;
+		while (length < capacity * 2)
+			length *= 2;
+		keys = new long[length];
+		values = new int[length];
+	}
+
+	/**
+	 * Sets the value of a key, adding the key if it is not in the map
+	 *
+	 * @param key the key
+	 * @param value the value
+	 */
+	public void put(long key, int value)
+	{
+		if (key == 0)
+		{
+			if (!hasZero)
+				size++;
+			hasZero = true;
+			zeroValue = value;
+			return;
+		}
+		int mask = keys.length - 1;
+		int slot = (int) Position.mix(key) & mask;
+		while (keys[slot] != 0)
+		{
+			if (keys[slot] == key)
+			{
+				values[slot] = value;
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+		keys[slot] = key;
+		values[slot] = value;
+		size++;
+		if (size * 2 > keys.length)
+			grow();
+	}
+
+	/**
+	 * Returns the value of a key
+	 *
+	 * @param key the key to look for
+	 * @param missing the value to return if the key is not in the map
+	 * @return the value of the key, or missing if it is not in the map
+	 */
+	public int get(long key, int missing)
+	{
+		if (key == 0)
+			return hasZero ? zeroValue : missing;
+		int mask = keys.length - 1;
+		int slot = (int) Position.mix(key) & mask;
+		while (keys[slot] != 0)
+		{
+			if (keys[slot] == key)
+				return values[slot];
+			slot = (slot + 1) & mask;
+		}
+		return missing;
+	}
+
+	/**
+	 * Removes a key from the map if it is there
+	 *
+	 * @param key the key to remove
+	 */
+	public void remove(long key)
+	{
+		if (key == 0)
+		{
+			if (hasZero)
+				size--;
+			hasZero = false;
+			return;
+		}
+		int mask = keys.length - 1;
+		int slot = (int) Position.mix(key) & mask;
+		while (keys[slot] != key)
+		{
+			if (keys[slot] == 0)
+				return;
+			slot = (slot + 1) & mask;
+		}
+
+		// Move back any key after the hole that probed past it, so every
+		// key can still be found from its own slot
+		int hole = slot;
+		for (int next = (hole + 1) & mask; keys[next] != 0; next = (next + 1)
+				& mask)
+		{
+			int home = (int) Position.mix(keys[next]) & mask;
+			if (((next - home) & mask) >= ((next - hole) & mask))
+			{
+				keys[hole] = keys[next];
+				values[hole] = values[next];
+				hole = next;
+			}
+		}
+		keys[hole] = 0;
+		size--;
+	}
+
+	/**
+	 * Returns every key in the map
+	 *
+	 * @return the keys, in no particular order
+	 */
+	public long[] keys()
+	{
+		long[] all = new long[size];
+		int index = 0;
+		if (hasZero)
+			all[index++] = 0;
+		for (int slot = 0; slot < keys.length; slot++)
+		{
+			if (keys[slot] != 0)
+				all[index++] = keys[slot];
+		}
+		return all;
+	}
+
+	/**
+	 * Returns the number of keys in the map
+	 *
+	 * @return the number of keys
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Removes all of the keys from the map
+	 */
+	public void clear()
+	{
+		java.util.Arrays.fill(keys, 0);
+		size = 0;
+		hasZero = false;
+	}
+
+	/**
+	 * Doubles the size of the table and puts the keys back in
+	 */
+	private void grow()
+	{
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		keys = new long[oldKeys.length * 2];
+		values = new int[keys.length];
+		int mask = keys.length - 1;
+		for (int old = 0; old < oldKeys.length; old++)
+		{
+			if (oldKeys[old] == 0)
+				continue;
+			int slot = (int) Position.mix(oldKeys[old]) & mask;
+			while (keys[slot] != 0)
+				slot = (slot + 1) & mask;
+			keys[slot] = oldKeys[old];
+			values[slot] = oldValues[old];
+		}
+	}
+}
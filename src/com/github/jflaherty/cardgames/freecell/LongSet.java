@@ -0,0 +1,118 @@
+package com.github.jflaherty.cardgames.freecell;
+
+/**
+ * A set of longs using open addressing, used to remember the keys of searched
+ * Positions without boxing them. The key 0 is kept separately since it marks
+ * an empty slot
+ */
+public class LongSet
+{
+	private long[] keys;
+	private int size;
+	private boolean hasZero;
+
+	/**
+	 * Creates an empty set
+	 *
+	 * @param capacity the number of keys to make room for, rounded up to a
+	 *            power of two
+	 */
+	public LongSet(int capacity)
+	{
+		int length = 16;
+		while (length < capacity * 2)
+			length *= 2;
+		keys = new long[length];
+	}
+
+	/**
+	 * Adds a key to the set
+	 *
+	 * @param key the key to add
+	 * @return true if the key was added, false if it was already in the set
+	 */
+	public boolean add(long key)
+	{
+		if (key == 0)
+		{
+			if (hasZero)
+				return false;
+			hasZero = true;
+			size++;
+			return true;
+		}
+		int mask = keys.length - 1;
+		int slot = (int) Position.mix(key) & mask;
+		while (keys[slot] != 0)
+		{
+			if (keys[slot] == key)
+				return false;
+			slot = (slot + 1) & mask;
+		}
+		keys[slot] = key;
+		size++;
+		if (size * 2 > keys.length)
+			grow();
+		return true;
+	}
+
+	/**
+	 * Checks if a key is in the set
+	 *
+	 * @param key the key to look for
+	 * @return true if the key is in the set, false otherwise
+	 */
+	public boolean contains(long key)
+	{
+		if (key == 0)
+			return hasZero;
+		int mask = keys.length - 1;
+		int slot = (int) Position.mix(key) & mask;
+		while (keys[slot] != 0)
+		{
+			if (keys[slot] == key)
+				return true;
+			slot = (slot + 1) & mask;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the number of keys in the set
+	 *
+	 * @return the number of keys
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Removes all of the keys from the set
+	 */
+	public void clear()
+	{
+		java.util.Arrays.fill(keys, 0);
+		size = 0;
+		hasZero = false;
+	}
+
+	/**
+	 * Doubles the size of the table and puts the keys back in
+	 */
+	private void grow()
+	{
+		long[] oldKeys = keys;
+		keys = new long[oldKeys.length * 2];
+		int mask = keys.length - 1;
+		for (long key : oldKeys)
+		{
+			if (key == 0)
+				continue;
+			int slot = (int) Position.mix(key) & mask;
+			while (keys[slot] != 0)
+				slot = (slot + 1) & mask;
+			keys[slot] = key;
+		}
+	}
+}
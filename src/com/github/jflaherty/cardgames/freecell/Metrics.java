@@ -0,0 +1,284 @@
+package com.github.jflaherty.cardgames.freecell;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.ObjectName;
+
+/**
+ * Keeps track of the named Counters and Histograms used to see where the
+ * game spends its time. Metrics are turned on by starting the game with
+ * -Dfreecell.metrics=true. ENABLED is read from that property once, when
+ * the class is loaded, so it is not a compile time constant and javac keeps
+ * every check; but it cannot change during a run, so once the JIT compiles
+ * a hot path with metrics off its checks cost next to nothing. Once turned
+ * on the metrics can be read through JMX (see MetricsMXBean) and written to
+ * a local file every so often as text or JSON.
+ * <p>
+ * Timing a piece of code looks like this:
+ *
+ * <pre>
+ * private static final Histogram DEAL_TIME = Metrics.timer(&quot;game.deal&quot;);
+ * ...
+ * long start = Metrics.start();
+ * ... deal the Cards ...
+ * DEAL_TIME.stop(start);
+ * </pre>
+ */
+public final class Metrics implements MetricsMXBean
+{
+	public static final boolean ENABLED = Boolean.getBoolean("freecell.metrics");
+
+	// Name the MBean is registered under
+	public static final String OBJECT_NAME = "com.github.jflaherty.cardgames.freecell:type=Metrics";
+
+	private static final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<String, Counter>();
+	private static final ConcurrentHashMap<String, Histogram> histograms = new ConcurrentHashMap<String, Histogram>();
+
+	private static java.util.Timer flushTimer;
+
+	/**
+	 * Only used as the MBean
+	 */
+	private Metrics()
+	{
+	}
+
+	/**
+	 * Returns the Counter with the given name, creating it if needed
+	 *
+	 * @param name the name of the Counter
+	 * @return the Counter
+	 */
+	public static Counter counter(String name)
+	{
+		Counter counter = counters.get(name);
+		if (counter == null)
+		{
+			counters.putIfAbsent(name, new Counter(name));
+			counter = counters.get(name);
+		}
+		return counter;
+	}
+
+	/**
+	 * Returns the Histogram with the given name, creating it if needed
+	 *
+	 * @param name the name of the Histogram
+	 * @return the Histogram
+	 */
+	public static Histogram histogram(String name)
+	{
+		Histogram histogram = histograms.get(name);
+		if (histogram == null)
+		{
+			histograms.putIfAbsent(name, new Histogram(name));
+			histogram = histograms.get(name);
+		}
+		return histogram;
+	}
+
+	/**
+	 * Returns the Histogram used to time something, creating it if needed.
+	 * Times are recorded in nanoseconds
+	 *
+	 * @param name the name of the timer
+	 * @return the Histogram of times
+	 */
+	public static Histogram timer(String name)
+	{
+		return histogram(name);
+	}
+
+	/**
+	 * Returns the start time to pass to Histogram.stop()
+	 *
+	 * @return the current time in nanoseconds, or 0 if metrics are off
+	 */
+	public static long start()
+	{
+		return ENABLED ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Registers the metrics with the platform MBean server
+	 */
+	public static void registerMBean()
+	{
+		try
+		{
+			ManagementFactory.getPlatformMBeanServer().registerMBean(
+					new Metrics(), new ObjectName(OBJECT_NAME));
+		}
+		catch (Exception exp)
+		{
+			System.out.println("Error registering the metrics MBean");
+		}
+	}
+
+	/**
+	 * Starts writing the metrics to a file every so often on a background
+	 * thread. The file is replaced each time
+	 *
+	 * @param fileName the name of the file, JSON if it ends in .json and text
+	 *            otherwise
+	 * @param periodMillis the time between writes in milliseconds
+	 */
+	public static synchronized void startFlushing(final String fileName,
+			long periodMillis)
+	{
+		if (flushTimer != null)
+			flushTimer.cancel();
+		flushTimer = new java.util.Timer("metrics-flush", true);
+		flushTimer.schedule(new TimerTask()
+		{
+			public void run()
+			{
+				writeToFile(fileName);
+			}
+		}, periodMillis, periodMillis);
+	}
+
+	/**
+	 * Sets up the metrics from the system properties when they are turned
+	 * on: registers the MBean and, if freecell.metrics.file is set, writes
+	 * that file every freecell.metrics.period milliseconds (default 10000)
+	 */
+	public static void configure()
+	{
+		if (!ENABLED)
+			return;
+		registerMBean();
+		String fileName = System.getProperty("freecell.metrics.file");
+		if (fileName != null)
+			startFlushing(fileName,
+					Long.getLong("freecell.metrics.period", 10000));
+	}
+
+	/**
+	 * Writes the metrics to a file
+	 *
+	 * @param fileName the name of the file, JSON if it ends in .json and text
+	 *            otherwise
+	 */
+	public static void writeToFile(String fileName)
+	{
+		try
+		{
+			FileWriter fileOut = new FileWriter(fileName);
+			fileOut.write(fileName.endsWith(".json") ? toJson() : toText());
+			fileOut.close();
+		}
+		catch (IOException exp)
+		{
+			System.out.println("Error writing the metrics file");
+		}
+	}
+
+	/**
+	 * Returns the metrics as text, one metric per line
+	 *
+	 * @return the metrics as text
+	 */
+	public static String toText()
+	{
+		StringBuilder str = new StringBuilder(1024);
+		for (String name : sortedNames(counters.keySet()))
+			str.append(String.format("%s count=%d%n", name, counters.get(name)
+					.getCount()));
+		for (String name : sortedNames(histograms.keySet()))
+		{
+			Histogram histogram = histograms.get(name);
+			str.append(String.format(
+					"%s count=%d mean=%.0f p50=%d p90=%d p99=%d max=%d%n",
+					name, histogram.getCount(), histogram.getMean(),
+					histogram.getPercentile(50), histogram.getPercentile(90),
+					histogram.getPercentile(99), histogram.getMax()));
+		}
+		return str.toString();
+	}
+
+	/**
+	 * Returns the metrics as a JSON object with one member per metric
+	 *
+	 * @return the metrics as JSON
+	 */
+	public static String toJson()
+	{
+		StringBuilder str = new StringBuilder(1024);
+		str.append('{');
+		String separator = "";
+		for (String name : sortedNames(counters.keySet()))
+		{
+			str.append(String.format("%s\"%s\":{\"count\":%d}", separator,
+					name, counters.get(name).getCount()));
+			separator = ",";
+		}
+		for (String name : sortedNames(histograms.keySet()))
+		{
+			Histogram histogram = histograms.get(name);
+			str.append(String.format(
+					"%s\"%s\":{\"count\":%d,\"mean\":%.0f,\"p50\":%d,\"p90\":%d,\"p99\":%d,\"max\":%d}",
+					separator, name, histogram.getCount(), histogram.getMean(),
+					histogram.getPercentile(50), histogram.getPercentile(90),
+					histogram.getPercentile(99), histogram.getMax()));
+			separator = ",";
+		}
+		return str.append('}').toString();
+	}
+
+	private static ArrayList<String> sortedNames(java.util.Set<String> names)
+	{
+		ArrayList<String> sorted = new ArrayList<String>(names);
+		Collections.sort(sorted);
+		return sorted;
+	}
+
+	// MBean methods
+
+	public String[] getNames()
+	{
+		ArrayList<String> names = sortedNames(counters.keySet());
+		names.addAll(sortedNames(histograms.keySet()));
+		return names.toArray(new String[names.size()]);
+	}
+
+	public long getCount(String name)
+	{
+		if (counters.containsKey(name))
+			return counters.get(name).getCount();
+		if (histograms.containsKey(name))
+			return histograms.get(name).getCount();
+		return -1;
+	}
+
+	public double getMean(String name)
+	{
+		Histogram histogram = histograms.get(name);
+		return histogram == null ? 0 : histogram.getMean();
+	}
+
+	public long getPercentile(String name, double percentile)
+	{
+		Histogram histogram = histograms.get(name);
+		return histogram == null ? 0 : histogram.getPercentile(percentile);
+	}
+
+	public String getJson()
+	{
+		return toJson();
+	}
+
+	public void reset()
+	{
+		for (Counter counter : counters.values())
+			counter.reset();
+		for (Histogram histogram : histograms.values())
+			histogram.reset();
+	}
+}
@@ -0,0 +1,47 @@
+package com.github.jflaherty.cardgames.freecell;
+
+/**
+ * The management interface for Metrics, so the counters and timers of a
+ * running game can be read with jconsole or any other JMX client
+ */
+public interface MetricsMXBean
+{
+	/**
+	 * Returns the names of all of the Counters and Histograms
+	 * @return the names of the metrics
+	 */
+	public String[] getNames();
+
+	/**
+	 * Returns the count of a Counter, or the number of values in a Histogram
+	 * @param name the name of the metric
+	 * @return the count, or -1 if there is no such metric
+	 */
+	public long getCount(String name);
+
+	/**
+	 * Returns the mean of a Histogram
+	 * @param name the name of the Histogram
+	 * @return the mean, or 0 if there is no such Histogram
+	 */
+	public double getMean(String name);
+
+	/**
+	 * Returns an upper bound for a percentile of a Histogram
+	 * @param name the name of the Histogram
+	 * @param percentile the percentile, 0 to 100
+	 * @return the value at the percentile, or 0 if there is no such Histogram
+	 */
+	public long getPercentile(String name, double percentile);
+
+	/**
+	 * Returns all of the metrics as JSON
+	 * @return the metrics as a JSON object
+	 */
+	public String getJson();
+
+	/**
+	 * Sets all of the metrics back to 0
+	 */
+	public void reset();
+}
@@ -0,0 +1,184 @@
+package com.github.jflaherty.cardgames.freecell;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Finds the fewest FreeCells a deal can be won with. The deal is solved with
+ * all of the FreeCells first, and then with fewer and fewer. Each run reuses
+ * what the earlier ones found:
+ * <ul>
+ * <li>a solution may never need all of its FreeCells at once, so the most it
+ * needs at any time is already an answer and the runs in between are skipped
+ * <li>Positions found to be unwinnable are unwinnable with fewer FreeCells
+ * too, so they are shared with the later runs and never searched again
+ * </ul>
+ *
+ * <pre>
+ * MinimumFreecells [first-last] [nodes]
+ * </pre>
+ */
+public class MinimumFreecells
+{
+	private final Solver solver;
+
+	/**
+	 * Creates a MinimumFreecells finder. Each one should only be used by one
+	 * thread at a time
+	 *
+	 * @param nodeBudget the node budget for each solve
+	 */
+	public MinimumFreecells(long nodeBudget)
+	{
+		solver = new Solver(nodeBudget);
+	}
+
+	/**
+	 * Finds the fewest FreeCells a Position can be won with
+	 *
+	 * @param start the Position, which is not changed
+	 * @return the fewest FreeCells found, or -1 if the Position could not be
+	 *         won with all of them. If a run gives up the answer may be too
+	 *         high
+	 */
+	public int find(Position start)
+	{
+		solver.setDeadEnds(null);
+		SolverResult result = solver.solve(start);
+		return result.isSolved() ? find(start, result.getSolution()) : -1;
+	}
+
+	/**
+	 * Finds the fewest FreeCells a Position can be won with, given a solution
+	 * with all of the FreeCells
+	 *
+	 * @param start the Position, which is not changed
+	 * @param solution a solution of the Position with all of the FreeCells
+	 * @return the fewest FreeCells found
+	 */
+	public int find(Position start, int[] solution)
+	{
+		int fewest = freecellsUsed(start, solution);
+		int inUse = start.getNoOfFreecells() - start.emptyFreecells();
+		solver.setDeadEnds(new LongSet(1024));
+		Position fewer = new Position(start);
+		while (fewest > inUse)
+		{
+			fewer.setNoOfFreecells(fewest - 1);
+			SolverResult result = solver.solve(fewer);
+			if (!result.isSolved())
+				break;
+			fewest = Math.min(fewest - 1, freecellsUsed(fewer,
+					result.getSolution()));
+		}
+		solver.setDeadEnds(null);
+		return fewest;
+	}
+
+	/**
+	 * Works out the most FreeCells a solution needs at once. Moving a run of
+	 * Cards needs enough empty FreeCells for the Cards in between as well as
+	 * the FreeCells already in use
+	 *
+	 * @param start the Position the solution starts from
+	 * @param solution the packed Moves of the solution
+	 * @return the most FreeCells needed at any time
+	 */
+	public static int freecellsUsed(Position start, int[] solution)
+	{
+		Position position = new Position(start);
+		int most = 0;
+		for (int move : solution)
+		{
+			int inUse = position.getNoOfFreecells() - position.emptyFreecells();
+			int needed = inUse;
+			int count = Position.count(move);
+			if (count > 1)
+			{
+				int to = Position.to(move);
+				int emptyCascades = position.emptyCascades();
+				if (position.height(to) == 0)
+					emptyCascades--;
+				int spare = 0;
+				while ((1 + spare) << emptyCascades < count)
+					spare++;
+				needed += spare;
+			}
+			position.apply(move);
+			int after = position.getNoOfFreecells()
+					- position.emptyFreecells();
+			most = Math.max(most, Math.max(needed, after));
+		}
+		return most;
+	}
+
+	/**
+	 * Finds the fewest FreeCells for a range of numbered deals in parallel and
+	 * prints how many deals need each number of FreeCells
+	 *
+	 * @param args optionally a range of deals such as 1-1000 and a node
+	 *            budget
+	 * @throws Exception if the deals cannot be solved
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		int firstDeal = 1;
+		int lastDeal = 1000;
+		if (args.length > 0)
+		{
+			int dash = args[0].indexOf('-');
+			firstDeal = Integer.parseInt(args[0].substring(0, dash));
+			lastDeal = Integer.parseInt(args[0].substring(dash + 1));
+		}
+		final long nodeBudget = args.length > 1 ? Long.parseLong(args[1])
+				: 200000;
+
+		long start = System.nanoTime();
+		final ThreadLocal<MinimumFreecells> finders = new ThreadLocal<MinimumFreecells>()
+		{
+			protected MinimumFreecells initialValue()
+			{
+				return new MinimumFreecells(nodeBudget);
+			}
+		};
+		ExecutorService pool = Executors.newFixedThreadPool(Runtime
+				.getRuntime().availableProcessors());
+		ArrayList<Future<Integer>> results = new ArrayList<Future<Integer>>();
+		for (int dealNo = firstDeal; dealNo <= lastDeal; dealNo++)
+		{
+			final int deal = dealNo;
+			results.add(pool.submit(new Callable<Integer>()
+			{
+				public Integer call()
+				{
+					return finders.get().find(Deals.deal(deal));
+				}
+			}));
+		}
+		pool.shutdown();
+
+		// Index 0 counts the deals not won with all of the FreeCells
+		int[] counts = new int[Position.NO_OF_FREECELLS + 2];
+		try
+		{
+			for (Future<Integer> result : results)
+				counts[result.get() + 1]++;
+		}
+		catch (ExecutionException exp)
+		{
+			throw new IllegalStateException("Error solving deals",
+					exp.getCause());
+		}
+
+		System.out.println("freecells,deals");
+		for (int cells = 0; cells <= Position.NO_OF_FREECELLS; cells++)
+			System.out.println(cells + "," + counts[cells + 1]);
+		System.out.println("not won," + counts[0]);
+		System.err.printf("%d deals in %.1f s%n", lastDeal - firstDeal + 1,
+				(System.nanoTime() - start) / 1e9);
+	}
+}
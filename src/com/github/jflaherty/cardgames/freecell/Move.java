@@ -1,4 +1,8 @@
 package com.github.jflaherty.cardgames.freecell;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
 /**
  * Keeps track of a Move. This class contains methods to undo a Move or to show
  * or not show a Move
@@ -26,6 +30,85 @@ public class Move
 		this.moved = moved;
 	}
 
+	/**
+	 * Returns the Hand that the Movable was moved from
+	 * 
+	 * @return the Hand moved from
+	 */
+	public FreeCellHand getFrom()
+	{
+		return from;
+	}
+
+	/**
+	 * Returns the Hand that the Movable was moved to
+	 * 
+	 * @return the Hand moved to
+	 */
+	public FreeCellHand getTo()
+	{
+		return to;
+	}
+
+	/**
+	 * Returns the Card or Tableau that was moved
+	 * 
+	 * @return the Movable that was moved
+	 */
+	public Movable getMoved()
+	{
+		return moved;
+	}
+
+	/**
+	 * Works out which Foundation each suit is on after the first Moves of a
+	 * game. A suit goes on whichever empty Foundation its ace was dropped on,
+	 * so following the Moves on and off the Foundations is the only way to
+	 * put the Cards back where the player had them
+	 * 
+	 * @param hands the Hands of the table, the Foundations last
+	 * @param firstFoundation the index of the first Foundation in hands
+	 * @param moves the Moves of the game, the first one made first
+	 * @param plies the number of Moves to follow
+	 * @return the index in hands of each suit's Foundation, or -1 for a suit
+	 *         with no Cards up
+	 */
+	public static int[] foundationsOf(List<FreeCellHand> hands,
+			int firstFoundation, List<Move> moves, int plies)
+	{
+		int noOfFoundations = hands.size() - firstFoundation;
+		int[] suitOn = new int[noOfFoundations];
+		int[] height = new int[noOfFoundations];
+		Iterator<Move> played = moves.iterator();
+		for (int ply = 0; ply < plies; ply++)
+		{
+			Move move = played.next();
+			int from = hands.indexOf(move.from) - firstFoundation;
+			int to = hands.indexOf(move.to) - firstFoundation;
+			if (from >= 0)
+				height[from]--;
+			if (to >= 0)
+			{
+				FreeCellCard card;
+				if (move.moved instanceof Tableau)
+					card = ((Tableau) move.moved).getBaseCard();
+				else
+					card = (FreeCellCard) move.moved;
+				suitOn[to] = CardTable.suit(card.getId());
+				height[to]++;
+			}
+		}
+
+		int[] foundations = new int[noOfFoundations];
+		Arrays.fill(foundations, -1);
+		for (int foundation = 0; foundation < noOfFoundations; foundation++)
+		{
+			if (height[foundation] > 0)
+				foundations[suitOn[foundation]] = firstFoundation + foundation;
+		}
+		return foundations;
+	}
+
 	/**
 	 * Undo a move
 	 */
@@ -40,13 +123,11 @@ public class Move
 			return;
 		}
 
-		// Move the tableau back to where it was from
+		// Take the whole tableau off the Hand it was moved to and put it back
+		// where it was from
 		Tableau tableau = (Tableau) moved;
+		to.removeCards(to.cardsLeft() - tableau.cardsLeft());
 		tableau.placeOn(from);
-		for (int index = 0; index < tableau.cardsLeft(); index++)
-		{
-			to.removeTopCard();
-		}
 
 	}
 
@@ -0,0 +1,99 @@
+package com.github.jflaherty.cardgames.freecell;
+
+/**
+ * Precomputed move tables built on the CardTable ids. A set of Cards is kept
+ * as a 64 bit mask (a bitboard) with bit id set for each Card in the set, so
+ * the Cascades a Card can move to are found with a single AND of its Variant's
+ * legality mask against the bitboard of the current top Cards. Keeps the
+ * per-suit Foundation successor tables used to find the Cards that can go up
+ * to the Foundations, and the helpers for walking a bitboard
+ */
+public final class MoveTables
+{
+	// Masks for every Card and for the aces
+	public static final long ALL_CARDS = (1L << CardTable.NO_OF_CARDS) - 1;
+	public static final long ACES;
+
+	// FOUNDATION_SUCCESSOR[suit][count] is the Card that goes next on the
+	// Foundation of the given suit holding count Cards
+	private static final byte[][] FOUNDATION_SUCCESSOR = new byte[CardTable.NO_OF_SUITS][CardTable.NO_OF_RANKS + 1];
+
+	static
+	{
+		long aces = 0;
+		for (byte id = 0; id < CardTable.NO_OF_CARDS; id++)
+		{
+			if (CardTable.rank(id) == 1)
+				aces |= CardTable.bit(id);
+		}
+		ACES = aces;
+
+		for (int suit = 0; suit < CardTable.NO_OF_SUITS; suit++)
+		{
+			for (int count = 0; count < CardTable.NO_OF_RANKS; count++)
+				FOUNDATION_SUCCESSOR[suit][count] = CardTable.id(count + 1, suit);
+			FOUNDATION_SUCCESSOR[suit][CardTable.NO_OF_RANKS] = CardTable.NONE;
+		}
+	}
+
+	/**
+	 * The tables are never instantiated
+	 */
+	private MoveTables()
+	{
+	}
+
+	/**
+	 * Returns the Card that goes next on a Foundation
+	 *
+	 * @param suit the suit index of the Foundation
+	 * @param count the number of Cards already on the Foundation
+	 * @return the id of the next Card, or CardTable.NONE if the Foundation is
+	 *         complete
+	 */
+	public static byte foundationSuccessor(int suit, int count)
+	{
+		return FOUNDATION_SUCCESSOR[suit][count];
+	}
+
+	/**
+	 * Returns the mask of the Cards that can be placed on the Foundations
+	 *
+	 * @param counts the number of Cards on the Foundation of each suit
+	 * @return the bitboard of the Cards that can go up next
+	 */
+	public static long foundationPlayable(int[] counts)
+	{
+		long playable = 0;
+		for (int suit = 0; suit < CardTable.NO_OF_SUITS; suit++)
+		{
+			byte next = FOUNDATION_SUCCESSOR[suit][counts[suit]];
+			if (next != CardTable.NONE)
+				playable |= CardTable.bit(next);
+		}
+		return playable;
+	}
+
+	/**
+	 * Returns the lowest Card in a bitboard. Used with removeLowest to walk
+	 * through the Cards in a mask
+	 *
+	 * @param mask a non-empty bitboard
+	 * @return the id of the lowest Card in the mask
+	 */
+	public static byte lowest(long mask)
+	{
+		return (byte) Long.numberOfTrailingZeros(mask);
+	}
+
+	/**
+	 * Removes the lowest Card from a bitboard
+	 *
+	 * @param mask a bitboard
+	 * @return the bitboard without its lowest Card
+	 */
+	public static long removeLowest(long mask)
+	{
+		return mask & (mask - 1);
+	}
+}
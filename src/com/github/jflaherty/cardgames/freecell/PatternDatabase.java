@@ -0,0 +1,707 @@
+package com.github.jflaherty.cardgames.freecell;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * A read-only table of lower bounds on the number of Cards that must be moved
+ * to win, for searches that need a bound that is never too high, such as
+ * Solver.solveOptimal. A Move of a run counts every Card in the run.
+ * <p>
+ * The bound comes from a simpler game on a pattern of Cards: the next
+ * PATTERN_RANKS Cards each of two suits still need to go up, with every other
+ * Card taken away. The Foundation rule is kept as it is
+ * (FreeCellCard.canPlaceOnFoundation), but the Cascade rule
+ * (FreeCellCard.canPlaceOnCascade) is dropped, so any top part of a pile can
+ * go on any other pile or start a new one. Every real Move is also a Move of
+ * the simpler game, or no Move at all, and moves at least as many of the
+ * pattern's Cards, so the fewest Cards moved to get the pattern up is a lower
+ * bound for the real game. What is left is how the two suits block each
+ * other in the piles, which is what makes a deal hard.
+ * <p>
+ * The four suits make two pairs, and no Card is in both, so the bounds of
+ * the two pairs add up. The other Cards each need at least one Move up, and
+ * another first if a lower Card of their suit is under them in their
+ * Cascade. The bound is the best of the three ways of pairing the suits.
+ * <p>
+ * The table is built offline by working up from the pattern with no Cards
+ * left. The distance of each arrangement with a given set of Cards left is
+ * found by a shortest path search from the Moves up, which lead to
+ * arrangements already done. Arrangements are stored by a code that is the
+ * same whatever order the piles are in, and the file is an open addressing
+ * hash table of codes that is memory mapped read-only when used. It holds
+ * every arrangement of the pattern and does not depend on the variant.
+ * <p>
+ * File layout (big-endian):
+ *
+ * <pre>
+ * header:  int magic "FCPD", int version, int pattern ranks, int number of slots
+ * slots:   per slot: long (code + 1) &lt;&lt; 8 | distance, or 0 if empty
+ * </pre>
+ *
+ * Build a table with the first command below. The second solves deals with
+ * Solver.solve, then finishes each from the given number of Cards left with
+ * Solver.solveOptimal, and prints how many Cards the two finishes move
+ *
+ * <pre>
+ * PatternDatabase build patterns.pdb
+ * PatternDatabase endgames patterns.pdb [first-last] [cards] [nodes]
+ * </pre>
+ */
+public class PatternDatabase
+{
+	// Default file name used by the game
+	public static final String FILE_NAME = "patterns.pdb";
+
+	// The number of Cards of each suit in a pattern
+	public static final int PATTERN_RANKS = 4;
+
+	// The Cards of a pattern are labelled 0 to PATTERN_CARDS - 1, the first
+	// suit's and then the second's, lowest rank first
+	private static final int PATTERN_CARDS = 2 * PATTERN_RANKS;
+
+	private static final int MAGIC = 0x46435044;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 16;
+
+	// A code holds 4 bits for each Card left, the label and whether it
+	// starts a pile, then the number of Cards left
+	private static final int COUNT_SHIFT = 4 * PATTERN_CARDS;
+
+	// Marks the first pattern Card in a Cascade or FreeCell
+	private static final int NEW_PILE = 1 << 4;
+
+	// The three ways of splitting the suits into two pairs
+	private static final int[][] PAIRINGS = { { 0, 1, 2, 3 },
+			{ 0, 2, 1, 3 }, { 0, 3, 1, 2 } };
+
+	private final ByteBuffer buffer;
+	private final int slotMask;
+
+	/**
+	 * Wraps a mapped table file
+	 *
+	 * @param buffer the contents of the file
+	 */
+	private PatternDatabase(ByteBuffer buffer)
+	{
+		if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+				|| buffer.getInt(8) != PATTERN_RANKS)
+			throw new IllegalArgumentException("Not a pattern database");
+		this.buffer = buffer;
+		slotMask = buffer.getInt(12) - 1;
+	}
+
+	/**
+	 * Maps a table file read-only
+	 *
+	 * @param fileName the name of the file
+	 * @return the table, or null if the file does not exist or is not a
+	 *         pattern database
+	 */
+	public static PatternDatabase open(String fileName)
+	{
+		File file = new File(fileName);
+		if (!file.exists())
+			return null;
+		try
+		{
+			RandomAccessFile fileIn = new RandomAccessFile(file, "r");
+			try
+			{
+				return new PatternDatabase(fileIn.getChannel().map(
+						FileChannel.MapMode.READ_ONLY, 0, fileIn.length()));
+			}
+			finally
+			{
+				fileIn.close();
+			}
+		}
+		catch (Exception exp)
+		{
+			System.out.println("Error reading the pattern database");
+			return null;
+		}
+	}
+
+	/**
+	 * Returns a lower bound on the number of Cards that must be moved to win
+	 * from a Position, counting every Card of a run that is moved. It is 0
+	 * only for a won Position
+	 *
+	 * @param position the Position
+	 * @return the lower bound
+	 */
+	public int lowerBound(Position position)
+	{
+		int bound = 0;
+
+		// Collect the Cards of every suit's pattern, in the order they are
+		// found, so each pairing only has to look at these. Cards outside
+		// the patterns need a Move up, and a Move out of the way first if a
+		// lower Card of their suit is under them
+		int[] pattern = new int[Position.NO_OF_FOUNDATIONS * PATTERN_RANKS];
+		int noOfPatternCards = 0;
+		int[] lowestBelow = new int[Position.NO_OF_FOUNDATIONS];
+		for (int cascade = 0; cascade < position.getNoOfCascades(); cascade++)
+		{
+			Arrays.fill(lowestBelow, CardTable.NO_OF_RANKS + 1);
+			int newPile = NEW_PILE;
+			for (int index = 0; index < position.height(cascade); index++)
+			{
+				byte card = position.cardAt(cascade, index);
+				int suit = CardTable.suit(card);
+				int rank = CardTable.rank(card);
+				int step = step(position, card);
+				if (step < PATTERN_RANKS)
+				{
+					pattern[noOfPatternCards++] = newPile | suit << 2 | step;
+					newPile = 0;
+				}
+				else
+					bound += lowestBelow[suit] < rank ? 2 : 1;
+				lowestBelow[suit] = Math.min(lowestBelow[suit], rank);
+			}
+		}
+		for (int cell = 0; cell < position.getNoOfFreecells(); cell++)
+		{
+			byte card = position.freecell(cell);
+			if (card == CardTable.NONE)
+				continue;
+			int step = step(position, card);
+			if (step < PATTERN_RANKS)
+				pattern[noOfPatternCards++] = NEW_PILE
+						| CardTable.suit(card) << 2 | step;
+			else
+				bound++;
+		}
+
+		// The best of the pairings of the patterns
+		int best = 0;
+		for (int[] pairing : PAIRINGS)
+			best = Math.max(best, distance(encode(pattern, noOfPatternCards,
+					pairing[0], pairing[1]))
+					+ distance(encode(pattern, noOfPatternCards, pairing[2],
+							pairing[3])));
+		return bound + best;
+	}
+
+	/**
+	 * Returns the fewest Cards moved to get a pattern up
+	 *
+	 * @param code the code of the pattern's arrangement
+	 * @return the distance
+	 */
+	private int distance(long code)
+	{
+		long stored = (code + 1) << 8;
+		int slot = (int) Position.mix(code) & slotMask;
+		long entry;
+		while ((entry = buffer.getLong(HEADER_SIZE + 8 * slot)) != 0)
+		{
+			if ((entry & ~0xFFL) == stored)
+				return (int) (entry & 0xFF);
+			slot = (slot + 1) & slotMask;
+		}
+
+		// Every arrangement is in the table, but 0 is always a lower bound
+		return 0;
+	}
+
+	/**
+	 * Returns the code of the pattern of two suits. Each Cascade with Cards
+	 * of the pattern is a pile of them, bottom first, and each FreeCell with
+	 * one is a pile of its own. The piles are listed in order of their bottom
+	 * Cards, so the code does not depend on which Cascade or FreeCell holds
+	 * what
+	 *
+	 * @param pattern the Cards of every suit's pattern in the order they are
+	 *            in the Cascades and then the FreeCells, each NEW_PILE if it
+	 *            is the first in its Cascade or FreeCell, then the suit and
+	 *            the step
+	 * @param noOfCards the number of Cards in the patterns
+	 * @param first the first suit of the pattern
+	 * @param second the second suit of the pattern
+	 * @return the code
+	 */
+	private static long encode(int[] pattern, int noOfCards, int first,
+			int second)
+	{
+		int[] above = new int[PATTERN_CARDS];
+		int bottoms = 0;
+		int below = -1;
+		for (int index = 0; index < noOfCards; index++)
+		{
+			int entry = pattern[index];
+			if ((entry & NEW_PILE) != 0)
+				below = -1;
+			int suit = entry >> 2 & 0x3;
+			int label;
+			if (suit == first)
+				label = entry & 0x3;
+			else if (suit == second)
+				label = PATTERN_RANKS + (entry & 0x3);
+			else
+				continue;
+			above[label] = -1;
+			if (below < 0)
+				bottoms |= 1 << label;
+			else
+				above[below] = label;
+			below = label;
+		}
+
+		long code = 0;
+		int noOfLabels = 0;
+		for (int bottom = 0; bottom < PATTERN_CARDS; bottom++)
+		{
+			if ((bottoms & 1 << bottom) == 0)
+				continue;
+			for (int label = bottom; label >= 0; label = above[label])
+			{
+				code |= (long) (label << 1 | (label == bottom ? 1 : 0)) << 4 * noOfLabels;
+				noOfLabels++;
+			}
+		}
+		return code | (long) noOfLabels << COUNT_SHIFT;
+	}
+
+	/**
+	 * Returns where a Card is in its suit's pattern. With fewer Cards left
+	 * than the pattern holds, they are its last Cards and the others are up
+	 *
+	 * @param position the Position, for the Foundations
+	 * @param card the Card
+	 * @return the step, 0 to PATTERN_RANKS - 1, or PATTERN_RANKS or more if
+	 *         the Card is not in the pattern
+	 */
+	private static int step(Position position, byte card)
+	{
+		int up = position.foundation(CardTable.suit(card));
+		return CardTable.rank(card) - up - 1
+				+ Math.max(0, PATTERN_RANKS - CardTable.NO_OF_RANKS + up);
+	}
+
+	/**
+	 * Returns the code of a list of piles
+	 *
+	 * @param piles the piles of labels, bottom first, in any order
+	 * @return the code
+	 */
+	private static long encode(ArrayList<int[]> piles)
+	{
+		int[][] byBottom = new int[PATTERN_CARDS][];
+		for (int[] pile : piles)
+			byBottom[pile[0]] = pile;
+		long code = 0;
+		int noOfCards = 0;
+		for (int[] pile : byBottom)
+		{
+			if (pile == null)
+				continue;
+			for (int index = 0; index < pile.length; index++)
+			{
+				code |= (long) (pile[index] << 1 | (index == 0 ? 1 : 0)) << 4 * noOfCards;
+				noOfCards++;
+			}
+		}
+		return code | (long) noOfCards << COUNT_SHIFT;
+	}
+
+	/**
+	 * Returns the piles a code stands for
+	 *
+	 * @param code the code
+	 * @return the piles, bottom first
+	 */
+	private static ArrayList<int[]> decode(long code)
+	{
+		ArrayList<int[]> piles = new ArrayList<int[]>();
+		int noOfCards = (int) (code >>> COUNT_SHIFT);
+		int[] labels = new int[noOfCards];
+		int start = 0;
+		for (int card = 0; card <= noOfCards; card++)
+		{
+			int entry = card < noOfCards ? (int) (code >>> 4 * card & 0xF) : 1;
+			if ((entry & 1) != 0 && card > start)
+			{
+				piles.add(Arrays.copyOfRange(labels, start, card));
+				start = card;
+			}
+			if (card < noOfCards)
+				labels[card] = entry >> 1;
+		}
+		return piles;
+	}
+
+	/**
+	 * Adds the arrangements one Move of part of a pile away, with the same
+	 * Cards left, to lists
+	 *
+	 * @param code the code of the arrangement
+	 * @param codes the list to add the codes of the arrangements to
+	 * @param costs the list to add the number of Cards each Move moves to
+	 */
+	private static void neighbours(long code, ArrayList<Long> codes,
+			ArrayList<Integer> costs)
+	{
+		ArrayList<int[]> piles = decode(code);
+		for (int from = 0; from < piles.size(); from++)
+		{
+			int[] pile = piles.get(from);
+			for (int count = 1; count <= pile.length; count++)
+			{
+				int[] rest = Arrays.copyOf(pile, pile.length - count);
+				int[] part = Arrays.copyOfRange(pile, pile.length - count,
+						pile.length);
+				for (int to = -1; to < piles.size(); to++)
+				{
+					// A whole pile on its own again is no Move
+					if (to == from || (to < 0 && rest.length == 0))
+						continue;
+					ArrayList<int[]> next = new ArrayList<int[]>(piles);
+					if (to < 0)
+						next.add(part);
+					else
+					{
+						int[] onto = piles.get(to);
+						int[] joined = Arrays.copyOf(onto, onto.length + count);
+						System.arraycopy(part, 0, joined, onto.length, count);
+						next.set(to, joined);
+					}
+					if (rest.length > 0)
+						next.set(from, rest);
+					else
+						next.remove(from);
+					codes.add(encode(next));
+					costs.add(count);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Builds the table and writes it to a file
+	 *
+	 * @param fileName the name of the file to write
+	 * @throws IOException if the file cannot be written
+	 */
+	public static void build(String fileName) throws IOException
+	{
+		long[] slots = new long[1 << 10];
+		int size = 0;
+		ArrayList<Long> codes = new ArrayList<Long>();
+		ArrayList<Integer> costs = new ArrayList<Integer>();
+
+		// Fewest Cards left first, so every Move up leads to an arrangement
+		// that is already in the table
+		for (int left = 0; left <= PATTERN_CARDS; left++)
+		{
+			for (int firstUp = 0; firstUp <= PATTERN_RANKS; firstUp++)
+			{
+				int secondUp = PATTERN_CARDS - left - firstUp;
+				if (secondUp < 0 || secondUp > PATTERN_RANKS)
+					continue;
+
+				// Find every arrangement of these Cards by searching out from
+				// each Card in a pile of its own
+				ArrayList<int[]> piles = new ArrayList<int[]>();
+				for (int step = firstUp; step < PATTERN_RANKS; step++)
+					piles.add(new int[] { step });
+				for (int step = secondUp; step < PATTERN_RANKS; step++)
+					piles.add(new int[] { PATTERN_RANKS + step });
+				HashMap<Long, Integer> indexes = new HashMap<Long, Integer>();
+				ArrayList<Long> level = new ArrayList<Long>();
+				level.add(encode(piles));
+				indexes.put(level.get(0), 0);
+				for (int next = 0; next < level.size(); next++)
+				{
+					codes.clear();
+					costs.clear();
+					neighbours(level.get(next), codes, costs);
+					for (long code : codes)
+					{
+						if (!indexes.containsKey(code))
+						{
+							indexes.put(code, level.size());
+							level.add(code);
+						}
+					}
+				}
+
+				// Start from the Moves up, then find shorter ways round
+				// through the rest of the level, cheapest first
+				int[] distances = new int[level.size()];
+				ArrayList<ArrayList<Integer>> buckets = new ArrayList<ArrayList<Integer>>();
+				for (int index = 0; index < level.size(); index++)
+				{
+					distances[index] = left == 0 ? 0 : movesUp(level
+							.get(index), firstUp, secondUp, slots);
+					addToBucket(buckets, distances[index], index);
+				}
+				boolean[] done = new boolean[level.size()];
+				for (int distance = 0; distance < buckets.size(); distance++)
+				{
+					for (int next = 0; next < buckets.get(distance).size(); next++)
+					{
+						int index = buckets.get(distance).get(next);
+						if (done[index] || distances[index] != distance)
+							continue;
+						done[index] = true;
+						codes.clear();
+						costs.clear();
+						neighbours(level.get(index), codes, costs);
+						for (int neighbour = 0; neighbour < codes.size(); neighbour++)
+						{
+							int other = indexes.get(codes.get(neighbour));
+							int through = distance + costs.get(neighbour);
+							if (through < distances[other])
+							{
+								distances[other] = through;
+								addToBucket(buckets, through, other);
+							}
+						}
+					}
+				}
+
+				int most = 0;
+				for (int index = 0; index < level.size(); index++)
+				{
+					most = Math.max(most, distances[index]);
+					if ((size + 1) * 2 > slots.length)
+						slots = grow(slots);
+					put(slots, level.get(index), distances[index]);
+					size++;
+				}
+				System.err.println(left + " Cards left (" + firstUp + " and "
+						+ secondUp + " up): " + level.size()
+						+ " arrangements, most Cards moved " + most);
+			}
+		}
+		System.err.println(size + " arrangements in all");
+
+		RandomAccessFile fileOut = new RandomAccessFile(fileName, "rw");
+		try
+		{
+			fileOut.setLength(0);
+			FileChannel channel = fileOut.getChannel();
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC).putInt(VERSION).putInt(PATTERN_RANKS)
+					.putInt(slots.length);
+			header.flip();
+			while (header.hasRemaining())
+				channel.write(header);
+
+			ByteBuffer data = ByteBuffer.allocate(8 * 4096);
+			for (int slot = 0; slot < slots.length; slot++)
+			{
+				data.putLong(slots[slot]);
+				if (!data.hasRemaining() || slot == slots.length - 1)
+				{
+					data.flip();
+					while (data.hasRemaining())
+						channel.write(data);
+					data.clear();
+				}
+			}
+		}
+		finally
+		{
+			fileOut.close();
+		}
+	}
+
+	/**
+	 * Returns the fewest Cards moved to get a pattern up when the first
+	 * Move is a Card going up, or Integer.MAX_VALUE if no Card can go up
+	 *
+	 * @param code the code of the arrangement
+	 * @param firstUp the number of Cards of the first suit already up
+	 * @param secondUp the number of Cards of the second suit already up
+	 * @param slots the table so far, which has every arrangement with fewer
+	 *            Cards left
+	 * @return the distance
+	 */
+	private static int movesUp(long code, int firstUp, int secondUp,
+			long[] slots)
+	{
+		int best = Integer.MAX_VALUE;
+		ArrayList<int[]> piles = decode(code);
+		for (int from = 0; from < piles.size(); from++)
+		{
+			int[] pile = piles.get(from);
+			int top = pile[pile.length - 1];
+			if (top != firstUp && top != PATTERN_RANKS + secondUp)
+				continue;
+			ArrayList<int[]> next = new ArrayList<int[]>(piles);
+			if (pile.length > 1)
+				next.set(from, Arrays.copyOf(pile, pile.length - 1));
+			else
+				next.remove(from);
+			best = Math.min(best, 1 + get(slots, encode(next)));
+		}
+		return best;
+	}
+
+	/**
+	 * Adds an arrangement to the list of those at a distance
+	 */
+	private static void addToBucket(ArrayList<ArrayList<Integer>> buckets,
+			int distance, int index)
+	{
+		if (distance == Integer.MAX_VALUE)
+			return;
+		while (buckets.size() <= distance)
+			buckets.add(new ArrayList<Integer>());
+		buckets.get(distance).add(index);
+	}
+
+	/**
+	 * Returns the distance of a code in a table being built
+	 */
+	private static int get(long[] slots, long code)
+	{
+		int mask = slots.length - 1;
+		int slot = (int) Position.mix(code) & mask;
+		while (slots[slot] >>> 8 != code + 1)
+			slot = (slot + 1) & mask;
+		return (int) (slots[slot] & 0xFF);
+	}
+
+	/**
+	 * Adds a code that is not yet in a table being built
+	 */
+	private static void put(long[] slots, long code, int distance)
+	{
+		int mask = slots.length - 1;
+		int slot = (int) Position.mix(code) & mask;
+		while (slots[slot] != 0)
+			slot = (slot + 1) & mask;
+		slots[slot] = (code + 1) << 8 | distance;
+	}
+
+	/**
+	 * Doubles the size of a table being built and puts the codes back in
+	 *
+	 * @return the new table
+	 */
+	private static long[] grow(long[] oldSlots)
+	{
+		long[] slots = new long[oldSlots.length * 2];
+		int mask = slots.length - 1;
+		for (long entry : oldSlots)
+		{
+			if (entry == 0)
+				continue;
+			int slot = (int) Position.mix((entry >>> 8) - 1) & mask;
+			while (slots[slot] != 0)
+				slot = (slot + 1) & mask;
+			slots[slot] = entry;
+		}
+		return slots;
+	}
+
+	/**
+	 * Solves a range of numbered deals and finishes each solution from a
+	 * number of Cards left with the fewest Cards moved, printing both
+	 * finishes
+	 *
+	 * @param patterns the pattern database
+	 * @param firstDeal the first deal
+	 * @param lastDeal the last deal
+	 * @param cardsLeft the number of Cards left to finish from
+	 * @param nodeBudget the most Positions to expand in each solve
+	 */
+	private static void finishEndgames(PatternDatabase patterns,
+			int firstDeal, int lastDeal, int cardsLeft, long nodeBudget)
+	{
+		Solver solver = new Solver(nodeBudget);
+		solver.setPatternDatabase(patterns);
+		long solvedMoved = 0;
+		long optimalMoved = 0;
+		long nodes = 0;
+		long nanos = 0;
+		int noOfEndgames = 0;
+		for (int dealNo = firstDeal; dealNo <= lastDeal; dealNo++)
+		{
+			Position position = Deals.deal(dealNo);
+			SolverResult result = solver.solve(position);
+			if (!result.isSolved())
+				continue;
+			int[] solution = result.getSolution();
+			int ply = 0;
+			while (CardTable.NO_OF_CARDS - position.cardsOnFoundations() > cardsLeft)
+				position.apply(solution[ply++]);
+			int moved = 0;
+			for (int rest = ply; rest < solution.length; rest++)
+				moved += Position.count(solution[rest]);
+
+			SolverResult optimal = solver.solveOptimal(position);
+			if (!optimal.isSolved())
+			{
+				System.out.println("Deal " + dealNo + ": gave up after "
+						+ optimal.getNodes() + " nodes");
+				continue;
+			}
+			int optimalCards = 0;
+			for (int move : optimal.getSolution())
+				optimalCards += Position.count(move);
+			System.out.printf(
+					"Deal %d: bound %d, %d Cards moved, %d at best (%d nodes, %.1f ms)%n",
+					dealNo, patterns.lowerBound(position), moved,
+					optimalCards, optimal.getNodes(),
+					optimal.getElapsedNanos() / 1e6);
+			solvedMoved += moved;
+			optimalMoved += optimalCards;
+			nodes += optimal.getNodes();
+			nanos += optimal.getElapsedNanos();
+			noOfEndgames++;
+		}
+		System.out.printf(
+				"%d endgames: %d Cards moved, %d at best, %d nodes in %.1f s%n",
+				noOfEndgames, solvedMoved, optimalMoved, nodes, nanos / 1e9);
+	}
+
+	/**
+	 * Builds a table or finishes endgames from the command line
+	 *
+	 * @param args "build" and the file name, or "endgames", the file name
+	 *            and optionally a range of deals such as 1-100, the number of
+	 *            Cards left, 32 if not given, and a node budget
+	 * @throws IOException if the table cannot be written
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length >= 2 && args[0].equals("build"))
+		{
+			build(args[1]);
+			return;
+		}
+		if (args.length < 2 || !args[0].equals("endgames"))
+		{
+			System.err.println("Usage: PatternDatabase build file");
+			System.err.println("       PatternDatabase endgames file [first-last] [cards] [nodes]");
+			return;
+		}
+		PatternDatabase patterns = open(args[1]);
+		if (patterns == null)
+			return;
+		int firstDeal = 1;
+		int lastDeal = 100;
+		if (args.length > 2)
+		{
+			int dash = args[2].indexOf('-');
+			firstDeal = Integer.parseInt(args[2].substring(0, dash));
+			lastDeal = Integer.parseInt(args[2].substring(dash + 1));
+		}
+		int cardsLeft = args.length > 3 ? Integer.parseInt(args[3]) : 32;
+		long nodeBudget = args.length > 4 ? Long.parseLong(args[4]) : 200000;
+		finishEndgames(patterns, firstDeal, lastDeal, cardsLeft, nodeBudget);
+	}
+}
@@ -0,0 +1,276 @@
+package com.github.jflaherty.cardgames.freecell;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Counts every sequence of Moves to a given depth from a deal, as a check
+ * that Moves are generated correctly and a measure of how fast they are. With
+ * all Moves, the Moves are every one the GUI allows, the rules of
+ * Cascade.getAllMovables() and Movable.canPlaceOn, so each empty FreeCell and
+ * empty Cascade is counted as a target of its own. With distinct Moves, they
+ * are the ones the Solver searches. The counts of a few deals are kept here,
+ * and -check on counts them again and fails if any has changed, which makes
+ * it both a regression test for move generation and its benchmark. The Moves
+ * of the first ply can be shared between threads
+ *
+ * <pre>
+ * Perft [-deal n] [-depth n] [-threads n] [-moves all|distinct]
+ *       [-variant name] [-check on]
+ * </pre>
+ */
+public class Perft
+{
+	// The classic deals whose counts are kept, with the depth they go to
+	private static final long[] REFERENCE_DEALS = { 1, 617, 11982 };
+	private static final int REFERENCE_DEPTH = 5;
+
+	// The number of sequences of each length 1 to REFERENCE_DEPTH with all
+	// Moves, one row per reference deal
+	private static final long[][] ALL_COUNTS = {
+			{ 32, 888, 19812, 326856, 3824592 },
+			{ 35, 1062, 26456, 514354, 7768652 },
+			{ 35, 1062, 26466, 514208, 7696472 } };
+
+	// The same for distinct Moves
+	private static final long[][] DISTINCT_COUNTS = {
+			{ 8, 70, 661, 6648, 37734 }, { 11, 118, 1259, 13506, 113698 },
+			{ 11, 118, 1250, 13216, 107913 } };
+
+	private final int depth;
+	private final boolean allMoves;
+
+	/**
+	 * Creates a counter
+	 *
+	 * @param depth the number of Moves in the longest sequences counted
+	 * @param allMoves true to count every Move the GUI allows, false to count
+	 *            the distinct Moves the Solver searches
+	 */
+	public Perft(int depth, boolean allMoves)
+	{
+		this.depth = depth;
+		this.allMoves = allMoves;
+	}
+
+	/**
+	 * Counts the sequences of Moves from a Position
+	 *
+	 * @param start the Position, which is not changed
+	 * @param noOfThreads the number of threads to share the first ply between
+	 * @return the number of sequences of each length, index 0 for the empty
+	 *         sequence
+	 * @throws InterruptedException if interrupted while waiting
+	 * @throws ExecutionException if counting fails on a thread
+	 */
+	public long[] count(Position start, int noOfThreads)
+			throws InterruptedException, ExecutionException
+	{
+		long[] counts = new long[depth + 1];
+		counts[0] = 1;
+		if (depth == 0)
+			return counts;
+		if (noOfThreads <= 1)
+		{
+			count(new Position(start), 0, new int[depth][Position.MAX_MOVES],
+					counts);
+			return counts;
+		}
+
+		final int[] firstMoves = new int[Position.MAX_MOVES];
+		Position first = new Position(start);
+		int noOfFirstMoves = generate(first, firstMoves);
+		counts[1] = noOfFirstMoves;
+		if (depth == 1)
+			return counts;
+
+		ExecutorService pool = Executors.newFixedThreadPool(noOfThreads);
+		ArrayList<Future<long[]>> subtrees = new ArrayList<Future<long[]>>();
+		for (int index = 0; index < noOfFirstMoves; index++)
+		{
+			final Position position = new Position(first);
+			position.apply(firstMoves[index]);
+			subtrees.add(pool.submit(new Callable<long[]>()
+			{
+				public long[] call()
+				{
+					long[] subtreeCounts = new long[depth + 1];
+					count(position, 1, new int[depth][Position.MAX_MOVES],
+							subtreeCounts);
+					return subtreeCounts;
+				}
+			}));
+		}
+		pool.shutdown();
+		try
+		{
+			for (Future<long[]> subtree : subtrees)
+			{
+				long[] subtreeCounts = subtree.get();
+				for (int ply = 2; ply <= depth; ply++)
+					counts[ply] += subtreeCounts[ply];
+			}
+		}
+		finally
+		{
+			pool.shutdownNow();
+		}
+		return counts;
+	}
+
+	/**
+	 * Adds the sequences below a Position to the counts. The Moves of the
+	 * last ply are counted without being made
+	 *
+	 * @param position the Position, which is left as it was
+	 * @param ply the number of Moves already made
+	 * @param moves a buffer of Moves for each ply
+	 * @param counts the counts of each length to add to
+	 */
+	private void count(Position position, int ply, int[][] moves,
+			long[] counts)
+	{
+		int[] plyMoves = moves[ply];
+		int noOfMoves = generate(position, plyMoves);
+		counts[ply + 1] += noOfMoves;
+		if (ply + 1 == depth)
+			return;
+		for (int index = 0; index < noOfMoves; index++)
+		{
+			position.apply(plyMoves[index]);
+			count(position, ply + 1, moves, counts);
+			position.undo(plyMoves[index]);
+		}
+	}
+
+	/**
+	 * Generates the Moves counted
+	 *
+	 * @param position the Position
+	 * @param moves the array to fill with packed Moves
+	 * @return the number of Moves generated
+	 */
+	private int generate(Position position, int[] moves)
+	{
+		return allMoves ? position.generateAllMoves(moves) : position
+				.generateMoves(moves);
+	}
+
+	/**
+	 * Counts the sequences from a deal and prints them with the time taken
+	 *
+	 * @param dealNo the number of the deal
+	 * @param variant the rules the deal is played by
+	 * @param noOfThreads the number of threads
+	 * @return the number of sequences of each length
+	 * @throws InterruptedException if interrupted while waiting
+	 * @throws ExecutionException if counting fails on a thread
+	 */
+	private long[] report(long dealNo, Variant variant, int noOfThreads)
+			throws InterruptedException, ExecutionException
+	{
+		long start = System.nanoTime();
+		long[] counts = count(Position.deal(Deals.dealOrder(dealNo), variant),
+				noOfThreads);
+		double seconds = (System.nanoTime() - start) / 1e9;
+		long nodes = 0;
+		System.out.println("Deal " + dealNo + " (" + variant.getName() + ", "
+				+ (allMoves ? "all" : "distinct") + " Moves)");
+		for (int ply = 1; ply <= depth; ply++)
+		{
+			System.out.printf("%3d %,18d%n", ply, counts[ply]);
+			nodes += counts[ply];
+		}
+		System.out.printf("%,d nodes in %.3f s, %,.0f nodes/s%n", nodes,
+				seconds, nodes / Math.max(seconds, 1e-9));
+		return counts;
+	}
+
+	/**
+	 * Counts the sequences of the reference deals again and compares them
+	 * with the kept counts
+	 *
+	 * @param noOfThreads the number of threads
+	 * @return true if every count is the same, false otherwise
+	 * @throws InterruptedException if interrupted while waiting
+	 * @throws ExecutionException if counting fails on a thread
+	 */
+	private static boolean check(int noOfThreads)
+			throws InterruptedException, ExecutionException
+	{
+		boolean same = true;
+		long start = System.nanoTime();
+		for (int moves = 0; moves < 2; moves++)
+		{
+			boolean allMoves = moves == 0;
+			long[][] expected = allMoves ? ALL_COUNTS : DISTINCT_COUNTS;
+			Perft perft = new Perft(REFERENCE_DEPTH, allMoves);
+			for (int deal = 0; deal < REFERENCE_DEALS.length; deal++)
+			{
+				long[] counts = perft.report(REFERENCE_DEALS[deal],
+						Variant.CLASSIC, noOfThreads);
+				for (int ply = 1; ply <= REFERENCE_DEPTH; ply++)
+				{
+					if (counts[ply] != expected[deal][ply - 1])
+					{
+						System.out.println("Ply " + ply + " should be "
+								+ expected[deal][ply - 1]);
+						same = false;
+					}
+				}
+			}
+		}
+		System.out.printf("%s in %.3f s%n", same ? "All counts match"
+				: "COUNTS DIFFER", (System.nanoTime() - start) / 1e9);
+		return same;
+	}
+
+	/**
+	 * Counts the sequences from a deal, or checks the reference deals
+	 *
+	 * @param args the options
+	 * @throws Exception if counting fails
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		long dealNo = 1;
+		int depth = 4;
+		int noOfThreads = 1;
+		boolean allMoves = true;
+		Variant variant = Variant.CLASSIC;
+		boolean check = false;
+		for (int index = 0; index + 1 < args.length; index += 2)
+		{
+			String value = args[index + 1];
+			if (args[index].equals("-deal"))
+				dealNo = Long.parseLong(value);
+			else if (args[index].equals("-depth"))
+				depth = Integer.parseInt(value);
+			else if (args[index].equals("-threads"))
+				noOfThreads = Integer.parseInt(value);
+			else if (args[index].equals("-moves"))
+				allMoves = value.equals("all");
+			else if (args[index].equals("-variant"))
+				variant = Variant.forName(value);
+			else if (args[index].equals("-check"))
+				check = value.equals("on");
+			else
+				throw new IllegalArgumentException("Unknown option "
+						+ args[index]);
+		}
+		if (variant == null)
+			throw new IllegalArgumentException("Unknown variant");
+
+		if (check)
+		{
+			if (!check(noOfThreads))
+				System.exit(1);
+			return;
+		}
+		new Perft(depth, allMoves).report(dealNo, variant, noOfThreads);
+	}
+}
@@ -0,0 +1,36 @@
+package com.github.jflaherty.cardgames.freecell;
+
+import java.util.Random;
+
+/**
+ * A way of choosing Moves in a headless game, for SelfPlay. A new Policy is
+ * made for every batch of games a worker thread plays, so a Policy can keep
+ * state between Moves and need not be thread safe. A Policy that chooses
+ * with randomness must only use the Random it is given, so that games are
+ * the same for the same seed
+ */
+public interface Policy
+{
+	/**
+	 * Returns the name of this Policy, used in the results
+	 *
+	 * @return the name
+	 */
+	public String getName();
+
+	/**
+	 * Starts a new game
+	 *
+	 * @param start the board of the new deal, which must not be changed
+	 */
+	public void newGame(Position start);
+
+	/**
+	 * Chooses the next Move
+	 *
+	 * @param position the current board, which must be left as it was
+	 * @param random the source of randomness for this game
+	 * @return the packed Move, which must be legal, or -1 to give up
+	 */
+	public int chooseMove(Position position, Random random);
+}
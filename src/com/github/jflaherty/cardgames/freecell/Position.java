@@ -0,0 +1,913 @@
+package com.github.jflaherty.cardgames.freecell;
+
+/**
+ * A compact FreeCell position for searching without the graphical Hands. Cards
+ * are kept as CardTable ids. The Hands are numbered the same way as in the
+ * CardPanel: the Cascades first, then the FreeCells and then the Foundations,
+ * one Foundation per suit. Moves are packed into an int holding the Hand the
+ * Cards come from, the Hand they go to and the number of Cards moved, so that
+ * a search can apply and undo Moves without creating any objects.
+ * <p>
+ * Each Position plays by the rules of a Variant, which also sets how many
+ * Cascades and FreeCells there are. The Hand index constants below are for
+ * the classic variant; code that handles any variant uses the instance
+ * methods such as firstFreecell() instead
+ */
+public class Position
+{
+	// Constants for the layout of the Hands in the classic variant
+	public static final int NO_OF_CASCADES = 8;
+	public static final int NO_OF_FREECELLS = 4;
+	public static final int NO_OF_FOUNDATIONS = CardTable.NO_OF_SUITS;
+	public static final int FIRST_FREECELL = NO_OF_CASCADES;
+	public static final int FIRST_FOUNDATION = FIRST_FREECELL + NO_OF_FREECELLS;
+	public static final int NO_OF_HANDS = FIRST_FOUNDATION + NO_OF_FOUNDATIONS;
+
+	// The most Moves generateMoves can return for any position
+	public static final int MAX_MOVES = 1024;
+
+	private final Variant variant;
+	private final int noOfCascades;
+	private final int firstFreecell;
+	private final int firstFoundation;
+
+	private final byte[][] cascades;
+	private final int[] heights;
+	private final byte[] freecells;
+	private final int[] foundations;
+	private int cardsOnFoundations;
+
+	// The number of FreeCells in play, the others are never used
+	private int noOfFreecells;
+
+	// Scratch space so generating Moves and keys does not create objects
+	private final int[] cascadeWithTop = new int[CardTable.NO_OF_CARDS];
+	private final long[] cascadeKeys;
+
+	/**
+	 * Creates an empty classic Position with no Cards in any Hand
+	 */
+	public Position()
+	{
+		this(Variant.CLASSIC);
+	}
+
+	/**
+	 * Creates an empty Position with no Cards in any Hand
+	 *
+	 * @param variant the rules the Position is played by
+	 */
+	public Position(Variant variant)
+	{
+		this.variant = variant;
+		noOfCascades = variant.getNoOfCascades();
+		noOfFreecells = variant.getNoOfFreecells();
+		firstFreecell = noOfCascades;
+		firstFoundation = firstFreecell + noOfFreecells;
+		cascades = new byte[noOfCascades][CardTable.NO_OF_CARDS];
+		heights = new int[noOfCascades];
+		freecells = new byte[noOfFreecells];
+		foundations = new int[NO_OF_FOUNDATIONS];
+		cascadeKeys = new long[noOfCascades];
+		for (int cell = 0; cell < noOfFreecells; cell++)
+			freecells[cell] = CardTable.NONE;
+	}
+
+	/**
+	 * Creates a copy of another Position
+	 *
+	 * @param other the Position to copy
+	 */
+	public Position(Position other)
+	{
+		this(other.variant);
+		for (int cascade = 0; cascade < noOfCascades; cascade++)
+		{
+			System.arraycopy(other.cascades[cascade], 0, cascades[cascade], 0,
+					other.heights[cascade]);
+			heights[cascade] = other.heights[cascade];
+		}
+		System.arraycopy(other.freecells, 0, freecells, 0, freecells.length);
+		System.arraycopy(other.foundations, 0, foundations, 0,
+				NO_OF_FOUNDATIONS);
+		cardsOnFoundations = other.cardsOnFoundations;
+		noOfFreecells = other.noOfFreecells;
+	}
+
+	/**
+	 * Creates a classic Position by dealing the given Cards round the
+	 * Cascades the same way CardPanel.newGame() does
+	 *
+	 * @param deal the ids of the 52 Cards in the order they are dealt
+	 * @return the dealt Position
+	 */
+	public static Position deal(byte[] deal)
+	{
+		return deal(deal, Variant.CLASSIC);
+	}
+
+	/**
+	 * Creates a Position by dealing the given Cards round the Cascades, with
+	 * the last Cards going to the FreeCells if the variant deals any there
+	 *
+	 * @param deal the ids of the 52 Cards in the order they are dealt
+	 * @param variant the rules the Position is played by
+	 * @return the dealt Position
+	 */
+	public static Position deal(byte[] deal, Variant variant)
+	{
+		Position position = new Position(variant);
+		int toCascades = deal.length - variant.getNoOfDealtToFreecells();
+		for (int index = 0; index < toCascades; index++)
+			position.addToCascade(index % position.noOfCascades, deal[index]);
+		for (int index = toCascades; index < deal.length; index++)
+			position.setFreecell(index - toCascades, deal[index]);
+		return position;
+	}
+
+	/**
+	 * Returns the rules this Position is played by
+	 *
+	 * @return the variant
+	 */
+	public Variant getVariant()
+	{
+		return variant;
+	}
+
+	/**
+	 * Returns the number of Cascades
+	 *
+	 * @return the number of Cascades
+	 */
+	public int getNoOfCascades()
+	{
+		return noOfCascades;
+	}
+
+	/**
+	 * Returns the index of the first FreeCell Hand
+	 *
+	 * @return the Hand index
+	 */
+	public int firstFreecell()
+	{
+		return firstFreecell;
+	}
+
+	/**
+	 * Returns the index of the first Foundation Hand, the clubs Foundation
+	 *
+	 * @return the Hand index
+	 */
+	public int firstFoundation()
+	{
+		return firstFoundation;
+	}
+
+	/**
+	 * Returns the number of Hands
+	 *
+	 * @return the number of Hands
+	 */
+	public int noOfHands()
+	{
+		return firstFoundation + NO_OF_FOUNDATIONS;
+	}
+
+	/**
+	 * Removes all of the Cards from every Hand, so that a Position can be
+	 * reused
+	 */
+	public void clear()
+	{
+		for (int cascade = 0; cascade < noOfCascades; cascade++)
+			heights[cascade] = 0;
+		for (int cell = 0; cell < freecells.length; cell++)
+			freecells[cell] = CardTable.NONE;
+		for (int suit = 0; suit < NO_OF_FOUNDATIONS; suit++)
+			foundations[suit] = 0;
+		cardsOnFoundations = 0;
+	}
+
+	/**
+	 * Adds a Card to the top of a Cascade, used when setting up a Position
+	 *
+	 * @param cascade the index of the Cascade
+	 * @param id the id of the Card to add
+	 */
+	public void addToCascade(int cascade, byte id)
+	{
+		cascades[cascade][heights[cascade]++] = id;
+	}
+
+	/**
+	 * Removes every Card from a Cascade, used when setting up a Position
+	 *
+	 * @param cascade the index of the Cascade
+	 */
+	public void clearCascade(int cascade)
+	{
+		heights[cascade] = 0;
+	}
+
+	/**
+	 * Puts a Card in a FreeCell, used when setting up a Position
+	 *
+	 * @param cell the index of the FreeCell, 0 to noOfFreecells - 1
+	 * @param id the id of the Card
+	 */
+	public void setFreecell(int cell, byte id)
+	{
+		freecells[cell] = id;
+	}
+
+	/**
+	 * Sets the number of Cards on a Foundation, used when setting up a
+	 * Position
+	 *
+	 * @param suit the suit index of the Foundation
+	 * @param count the number of Cards on the Foundation
+	 */
+	public void setFoundation(int suit, int count)
+	{
+		cardsOnFoundations += count - foundations[suit];
+		foundations[suit] = count;
+	}
+
+	/**
+	 * Sets the number of FreeCells in play, so that a Position can be solved
+	 * with fewer than the variant has. The FreeCells taken out of
+	 * play must be empty
+	 *
+	 * @param noOfFreecells the number of FreeCells, 0 to the variant's number
+	 */
+	public void setNoOfFreecells(int noOfFreecells)
+	{
+		this.noOfFreecells = noOfFreecells;
+	}
+
+	/**
+	 * Returns the number of FreeCells in play
+	 *
+	 * @return the number of FreeCells
+	 */
+	public int getNoOfFreecells()
+	{
+		return noOfFreecells;
+	}
+
+	/**
+	 * Packs a Move into an int
+	 *
+	 * @param from the index of the Hand the Cards come from
+	 * @param to the index of the Hand the Cards go to
+	 * @param count the number of Cards moved
+	 * @return the packed Move
+	 */
+	public static int move(int from, int to, int count)
+	{
+		return from | to << 5 | count << 10;
+	}
+
+	/**
+	 * Returns the Hand a packed Move comes from
+	 *
+	 * @param move the packed Move
+	 * @return the index of the Hand
+	 */
+	public static int from(int move)
+	{
+		return move & 0x1F;
+	}
+
+	/**
+	 * Returns the Hand a packed Move goes to
+	 *
+	 * @param move the packed Move
+	 * @return the index of the Hand
+	 */
+	public static int to(int move)
+	{
+		return move >> 5 & 0x1F;
+	}
+
+	/**
+	 * Returns the number of Cards in a packed Move
+	 *
+	 * @param move the packed Move
+	 * @return the number of Cards moved
+	 */
+	public static int count(int move)
+	{
+		return move >> 10;
+	}
+
+	/**
+	 * Returns a packed Move in a readable form, e.g. "3 to 12 (1)"
+	 *
+	 * @param move the packed Move
+	 * @return the Move as a String
+	 */
+	public static String moveToString(int move)
+	{
+		return from(move) + " to " + to(move) + " (" + count(move) + ")";
+	}
+
+	/**
+	 * Returns the number of Cards in a Cascade
+	 *
+	 * @param cascade the index of the Cascade
+	 * @return the number of Cards in the Cascade
+	 */
+	public int height(int cascade)
+	{
+		return heights[cascade];
+	}
+
+	/**
+	 * Returns a Card in a Cascade
+	 *
+	 * @param cascade the index of the Cascade
+	 * @param index the index of the Card, 0 being the bottom Card
+	 * @return the id of the Card
+	 */
+	public byte cardAt(int cascade, int index)
+	{
+		return cascades[cascade][index];
+	}
+
+	/**
+	 * Returns the Card in a FreeCell
+	 *
+	 * @param cell the index of the FreeCell
+	 * @return the id of the Card or CardTable.NONE if the FreeCell is empty
+	 */
+	public byte freecell(int cell)
+	{
+		return freecells[cell];
+	}
+
+	/**
+	 * Returns the number of Cards on a Foundation
+	 *
+	 * @param suit the suit index of the Foundation
+	 * @return the number of Cards on the Foundation
+	 */
+	public int foundation(int suit)
+	{
+		return foundations[suit];
+	}
+
+	/**
+	 * Returns the number of Cards on all of the Foundations
+	 *
+	 * @return the number of Cards on the Foundations
+	 */
+	public int cardsOnFoundations()
+	{
+		return cardsOnFoundations;
+	}
+
+	/**
+	 * Checks if all of the Cards are on the Foundations
+	 *
+	 * @return true if the game is won, false otherwise
+	 */
+	public boolean isSolved()
+	{
+		return cardsOnFoundations == CardTable.NO_OF_CARDS;
+	}
+
+	/**
+	 * Returns the number of empty FreeCells
+	 *
+	 * @return the number of empty FreeCells
+	 */
+	public int emptyFreecells()
+	{
+		int empty = 0;
+		for (int cell = 0; cell < noOfFreecells; cell++)
+		{
+			if (freecells[cell] == CardTable.NONE)
+				empty++;
+		}
+		return empty;
+	}
+
+	/**
+	 * Returns the number of empty Cascades
+	 *
+	 * @return the number of empty Cascades
+	 */
+	public int emptyCascades()
+	{
+		int empty = 0;
+		for (int cascade = 0; cascade < noOfCascades; cascade++)
+		{
+			if (heights[cascade] == 0)
+				empty++;
+		}
+		return empty;
+	}
+
+	/**
+	 * Returns the number of Cards that can be moved at once, using the same
+	 * rule as Tableau.canPlaceOn for variants with supermoves
+	 *
+	 * @param toEmptyCascade true if the Cards are moved to an empty Cascade
+	 * @return the largest number of Cards that can be moved at once
+	 */
+	public int maxMovable(boolean toEmptyCascade)
+	{
+		int emptyCascades = emptyCascades();
+		if (toEmptyCascade)
+			emptyCascades--;
+		return variant.maxMovable(emptyFreecells(), emptyCascades);
+	}
+
+	/**
+	 * Returns the number of Cards on top of a Cascade that are in sequence
+	 * and so can be moved together
+	 *
+	 * @param cascade the index of the Cascade
+	 * @return the length of the run on top of the Cascade
+	 */
+	public int runLength(int cascade)
+	{
+		int height = heights[cascade];
+		if (height == 0)
+			return 0;
+		byte[] cards = cascades[cascade];
+		int run = 1;
+		while (run < height
+				&& variant.canStackOn(cards[height - run],
+						cards[height - run - 1]))
+			run++;
+		return run;
+	}
+
+	/**
+	 * Returns the top Card of a Hand
+	 *
+	 * @param hand the index of the Hand
+	 * @return the id of the top Card or CardTable.NONE if the Hand is empty
+	 */
+	public byte topCard(int hand)
+	{
+		if (hand < firstFreecell)
+			return heights[hand] == 0 ? CardTable.NONE
+					: cascades[hand][heights[hand] - 1];
+		if (hand < firstFoundation)
+			return freecells[hand - firstFreecell];
+		int count = foundations[hand - firstFoundation];
+		return count == 0 ? CardTable.NONE : CardTable.id(count,
+				hand - firstFoundation);
+	}
+
+	/**
+	 * Returns the bitboard of the top Cards of the non-empty Cascades
+	 *
+	 * @return the mask of the top Cards
+	 */
+	public long cascadeTops()
+	{
+		long tops = 0;
+		for (int cascade = 0; cascade < noOfCascades; cascade++)
+		{
+			if (heights[cascade] > 0)
+				tops |= CardTable.bit(cascades[cascade][heights[cascade] - 1]);
+		}
+		return tops;
+	}
+
+	/**
+	 * Generates all of the legal Moves in this Position. Moves to the
+	 * Foundations come first, then Moves between Cascades, then Moves from
+	 * the FreeCells and last Moves to the FreeCells. Only the first empty
+	 * FreeCell and the first empty Cascade are used as targets since the
+	 * others give the same Positions
+	 *
+	 * @param moves the array to fill with packed Moves, at least MAX_MOVES
+	 *            long
+	 * @return the number of Moves generated
+	 */
+	public int generateMoves(int[] moves)
+	{
+		int noOfMoves = 0;
+		long foundationPlayable = MoveTables.foundationPlayable(foundations);
+
+		// Find the top Card of each Cascade and the first empty Cascade and
+		// FreeCell
+		long tops = 0;
+		int emptyCascade = -1;
+		for (int cascade = 0; cascade < noOfCascades; cascade++)
+		{
+			if (heights[cascade] > 0)
+			{
+				byte top = cascades[cascade][heights[cascade] - 1];
+				tops |= CardTable.bit(top);
+				cascadeWithTop[top] = cascade;
+			}
+			else if (emptyCascade < 0)
+				emptyCascade = cascade;
+		}
+		int emptyCell = -1;
+		for (int cell = noOfFreecells - 1; cell >= 0; cell--)
+		{
+			if (freecells[cell] == CardTable.NONE)
+				emptyCell = cell;
+		}
+
+		// Moves to the Foundations
+		for (int cascade = 0; cascade < noOfCascades; cascade++)
+		{
+			if (heights[cascade] > 0)
+			{
+				byte top = cascades[cascade][heights[cascade] - 1];
+				if ((foundationPlayable & CardTable.bit(top)) != 0)
+					moves[noOfMoves++] = move(cascade, firstFoundation
+							+ CardTable.suit(top), 1);
+			}
+		}
+		for (int cell = 0; cell < freecells.length; cell++)
+		{
+			byte card = freecells[cell];
+			if (card != CardTable.NONE
+					&& (foundationPlayable & CardTable.bit(card)) != 0)
+				moves[noOfMoves++] = move(firstFreecell + cell,
+						firstFoundation + CardTable.suit(card), 1);
+		}
+
+		// Moves between Cascades, including runs of Cards
+		int maxToCascade = maxMovable(false);
+		int maxToEmpty = emptyCascade < 0 ? 0 : maxMovable(true);
+		long emptyAccepts = variant.emptyCascadeAccepts();
+		for (int cascade = 0; cascade < noOfCascades; cascade++)
+		{
+			int run = runLength(cascade);
+			int height = heights[cascade];
+			for (int count = 1; count <= run; count++)
+			{
+				byte base = cascades[cascade][height - count];
+				if (count <= maxToCascade)
+				{
+					for (long targets = variant.cascadeTargets(base, tops); targets != 0; targets = MoveTables
+							.removeLowest(targets))
+						moves[noOfMoves++] = move(cascade,
+								cascadeWithTop[MoveTables.lowest(targets)],
+								count);
+				}
+
+				// Moving a whole Cascade to an empty Cascade is pointless
+				if (count <= maxToEmpty && count < height
+						&& (emptyAccepts & CardTable.bit(base)) != 0)
+					moves[noOfMoves++] = move(cascade, emptyCascade, count);
+			}
+		}
+
+		// Moves from the FreeCells to the Cascades
+		for (int cell = 0; cell < freecells.length; cell++)
+		{
+			byte card = freecells[cell];
+			if (card == CardTable.NONE)
+				continue;
+			for (long targets = variant.cascadeTargets(card, tops); targets != 0; targets = MoveTables
+					.removeLowest(targets))
+				moves[noOfMoves++] = move(firstFreecell + cell,
+						cascadeWithTop[MoveTables.lowest(targets)], 1);
+			if (emptyCascade >= 0 && (emptyAccepts & CardTable.bit(card)) != 0)
+				moves[noOfMoves++] = move(firstFreecell + cell, emptyCascade, 1);
+		}
+
+		// Moves from the Cascades to the FreeCells
+		if (emptyCell >= 0)
+		{
+			for (int cascade = 0; cascade < noOfCascades; cascade++)
+			{
+				if (heights[cascade] > 0)
+					moves[noOfMoves++] = move(cascade, firstFreecell + emptyCell,
+							1);
+			}
+		}
+		return noOfMoves;
+	}
+
+	/**
+	 * Generates every legal Move in this Position as the GUI allows them.
+	 * Unlike generateMoves, each empty FreeCell and each empty Cascade is a
+	 * target of its own, and a whole Cascade can move to an empty Cascade.
+	 * Used where the number of Moves itself matters, such as Perft
+	 *
+	 * @param moves the array to fill with packed Moves, at least MAX_MOVES
+	 *            long
+	 * @return the number of Moves generated
+	 */
+	public int generateAllMoves(int[] moves)
+	{
+		int noOfMoves = generateMoves(moves);
+
+		// generateMoves only uses the first empty Cascade and FreeCell
+		int emptyCascade = -1;
+		for (int cascade = noOfCascades - 1; cascade >= 0; cascade--)
+		{
+			if (heights[cascade] == 0)
+				emptyCascade = cascade;
+		}
+		int emptyCell = -1;
+		for (int cell = noOfFreecells - 1; cell >= 0; cell--)
+		{
+			if (freecells[cell] == CardTable.NONE)
+				emptyCell = cell;
+		}
+		int generated = noOfMoves;
+		for (int index = 0; index < generated; index++)
+		{
+			int from = from(moves[index]);
+			int to = to(moves[index]);
+			if (emptyCell >= 0 && to == firstFreecell + emptyCell)
+			{
+				for (int cell = emptyCell + 1; cell < noOfFreecells; cell++)
+				{
+					if (freecells[cell] == CardTable.NONE)
+						moves[noOfMoves++] = move(from, firstFreecell + cell, 1);
+				}
+			}
+			else if (to == emptyCascade)
+			{
+				for (int cascade = emptyCascade + 1; cascade < noOfCascades; cascade++)
+				{
+					if (heights[cascade] == 0)
+						moves[noOfMoves++] = move(from, cascade,
+								count(moves[index]));
+				}
+			}
+		}
+
+		// Cards between FreeCells
+		if (emptyCell >= 0)
+		{
+			for (int from = 0; from < noOfFreecells; from++)
+			{
+				if (freecells[from] == CardTable.NONE)
+					continue;
+				for (int to = emptyCell; to < noOfFreecells; to++)
+				{
+					if (freecells[to] == CardTable.NONE)
+						moves[noOfMoves++] = move(firstFreecell + from,
+								firstFreecell + to, 1);
+				}
+			}
+		}
+
+		// Whole Cascades to empty Cascades
+		if (emptyCascade >= 0)
+		{
+			int maxToEmpty = maxMovable(true);
+			long emptyAccepts = variant.emptyCascadeAccepts();
+			for (int cascade = 0; cascade < noOfCascades; cascade++)
+			{
+				int height = heights[cascade];
+				if (height == 0 || height > maxToEmpty
+						|| (emptyAccepts & CardTable.bit(cascades[cascade][0])) == 0
+						|| runLength(cascade) != height)
+					continue;
+				for (int to = emptyCascade; to < noOfCascades; to++)
+				{
+					if (heights[to] == 0)
+						moves[noOfMoves++] = move(cascade, to, height);
+				}
+			}
+		}
+		return noOfMoves;
+	}
+
+	/**
+	 * Checks if a packed Move is legal in this Position. Unlike
+	 * generateMoves, any empty FreeCell or Cascade can be the target
+	 *
+	 * @param move the packed Move
+	 * @return true if the Move can be applied
+	 */
+	public boolean isLegal(int move)
+	{
+		int from = from(move);
+		int to = to(move);
+		int count = count(move);
+		if (from == to || from >= firstFoundation || to >= noOfHands()
+				|| from >= firstFreecell && from - firstFreecell >= noOfFreecells
+				|| count < 1)
+			return false;
+		byte card = topCard(from);
+		if (card == CardTable.NONE)
+			return false;
+		if (from < firstFreecell)
+		{
+			if (count > runLength(from))
+				return false;
+			card = cascades[from][heights[from] - count];
+		}
+		else if (count > 1)
+			return false;
+
+		if (to >= firstFoundation)
+			return count == 1 && to == firstFoundation + CardTable.suit(card)
+					&& foundations[CardTable.suit(card)] + 1 == CardTable
+							.rank(card);
+		if (to >= firstFreecell)
+			return count == 1 && to - firstFreecell < noOfFreecells
+					&& freecells[to - firstFreecell] == CardTable.NONE;
+		if (heights[to] == 0)
+			return (variant.emptyCascadeAccepts() & CardTable.bit(card)) != 0
+					&& count <= maxMovable(true);
+		return variant.canStackOn(card, topCard(to))
+				&& count <= maxMovable(false);
+	}
+
+	/**
+	 * Finds a Card that can safely go up to a Foundation, that is a Card no
+	 * other Card still in play would ever need to be placed on
+	 *
+	 * @return the packed Move of the Card to the Foundation, or -1 if there is
+	 *         no safe Move
+	 */
+	public int safeFoundationMove()
+	{
+		for (int hand = 0; hand < firstFoundation; hand++)
+		{
+			byte card = topCard(hand);
+			if (card == CardTable.NONE)
+				continue;
+			int suit = CardTable.suit(card);
+			int rank = CardTable.rank(card);
+			if (foundations[suit] + 1 != rank)
+				continue;
+			if (variant.isSafeToPlay(card, foundations))
+				return move(hand, firstFoundation + suit, 1);
+		}
+		return -1;
+	}
+
+	/**
+	 * Applies a packed Move to this Position. The Move must be legal
+	 *
+	 * @param move the packed Move
+	 */
+	public void apply(int move)
+	{
+		transfer(from(move), to(move), count(move));
+	}
+
+	/**
+	 * Undoes a packed Move that was the last Move applied to this Position
+	 *
+	 * @param move the packed Move
+	 */
+	public void undo(int move)
+	{
+		transfer(to(move), from(move), count(move));
+	}
+
+	/**
+	 * Moves the top Cards of one Hand to another
+	 *
+	 * @param from the index of the Hand the Cards come from
+	 * @param to the index of the Hand the Cards go to
+	 * @param count the number of Cards to move
+	 */
+	private void transfer(int from, int to, int count)
+	{
+		if (from < firstFreecell && to < firstFreecell)
+		{
+			// Cascade to Cascade moves the whole run at once
+			heights[from] -= count;
+			System.arraycopy(cascades[from], heights[from], cascades[to],
+					heights[to], count);
+			heights[to] += count;
+			return;
+		}
+		byte card;
+		if (from < firstFreecell)
+			card = cascades[from][--heights[from]];
+		else if (from < firstFoundation)
+		{
+			card = freecells[from - firstFreecell];
+			freecells[from - firstFreecell] = CardTable.NONE;
+		}
+		else
+		{
+			int suit = from - firstFoundation;
+			card = CardTable.id(foundations[suit]--, suit);
+			cardsOnFoundations--;
+		}
+
+		if (to < firstFreecell)
+			cascades[to][heights[to]++] = card;
+		else if (to < firstFoundation)
+			freecells[to - firstFreecell] = card;
+		else
+		{
+			foundations[to - firstFoundation]++;
+			cardsOnFoundations++;
+		}
+	}
+
+	/**
+	 * Returns a 64 bit key for this Position that is the same for Positions
+	 * that only differ by the order of the Cascades or of the FreeCells, for
+	 * use in transposition tables
+	 *
+	 * @return the key of this Position
+	 */
+	public long key()
+	{
+		for (int cascade = 0; cascade < noOfCascades; cascade++)
+		{
+			long key = heights[cascade];
+			byte[] cards = cascades[cascade];
+			for (int index = 0; index < heights[cascade]; index++)
+				key = key * 53 + cards[index] + 1;
+			cascadeKeys[cascade] = mix(key);
+		}
+		java.util.Arrays.sort(cascadeKeys);
+
+		long key = 0;
+		for (int cascade = 0; cascade < noOfCascades; cascade++)
+			key = mix(key + cascadeKeys[cascade]);
+
+		long freecellMask = 0;
+		for (int cell = 0; cell < freecells.length; cell++)
+		{
+			if (freecells[cell] != CardTable.NONE)
+				freecellMask |= CardTable.bit(freecells[cell]);
+		}
+		key = mix(key + freecellMask);
+		return mix(key + (foundations[0] | foundations[1] << 4
+				| foundations[2] << 8 | foundations[3] << 12));
+	}
+
+	/**
+	 * Returns a 64 bit key for this Position that, unlike key, also depends on
+	 * which Cascade and FreeCell each Card is in, so two Positions with the
+	 * same layout key take the same packed Moves
+	 *
+	 * @return the layout key of this Position
+	 */
+	public long layoutKey()
+	{
+		long key = 0;
+		for (int cascade = 0; cascade < noOfCascades; cascade++)
+		{
+			key = mix(key + heights[cascade]);
+			byte[] cards = cascades[cascade];
+			for (int index = 0; index < heights[cascade]; index++)
+				key = key * 53 + cards[index] + 1;
+		}
+		for (int cell = 0; cell < freecells.length; cell++)
+			key = key * 53 + freecells[cell] + 1;
+		return mix(mix(key) + (foundations[0] | foundations[1] << 4
+				| foundations[2] << 8 | foundations[3] << 12));
+	}
+
+	/**
+	 * Scrambles the bits of a long (the finaliser of SplitMix64)
+	 *
+	 * @param value the value to scramble
+	 * @return the scrambled value
+	 */
+	static long mix(long value)
+	{
+		value = (value ^ value >>> 30) * 0xBF58476D1CE4E5B9L;
+		value = (value ^ value >>> 27) * 0x94D049BB133111EBL;
+		return value ^ value >>> 31;
+	}
+
+	/**
+	 * Returns the Cascades, FreeCells and Foundations of this Position, one
+	 * line each
+	 *
+	 * @return this Position as a String
+	 */
+	public String toString()
+	{
+		StringBuilder str = new StringBuilder(256);
+		for (int cascade = 0; cascade < noOfCascades; cascade++)
+		{
+			for (int index = 0; index < heights[cascade]; index++)
+				str.append(CardTable.toString(cascades[cascade][index])).append(
+						' ');
+			str.append('\n');
+		}
+		for (int cell = 0; cell < freecells.length; cell++)
+		{
+			if (freecells[cell] == CardTable.NONE)
+				str.append("-- ");
+			else
+				str.append(CardTable.toString(freecells[cell])).append(' ');
+		}
+		str.append('\n');
+		for (int suit = 0; suit < NO_OF_FOUNDATIONS; suit++)
+			str.append(foundations[suit]).append(' ');
+		return str.append('\n').toString();
+	}
+}
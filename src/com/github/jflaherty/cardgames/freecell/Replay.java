@@ -0,0 +1,203 @@
+package com.github.jflaherty.cardgames.freecell;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Replays a game from its first board and its packed Moves. The board after
+ * every KEYFRAME_INTERVAL Moves is kept as a Snapshot, so seeking to any ply
+ * starts from the keyframe at or before it and applies at most
+ * KEYFRAME_INTERVAL - 1 Moves, however long the game is and wherever the last
+ * seek was. Since Snapshots share the Cascades a Move does not touch, the
+ * keyframes cost little more than the Moves themselves. Nothing is drawn,
+ * so a replay can be fast-forwarded to check or analyse a game, and
+ * CardPanel.showBoard puts any ply on the table for scrubbing through it
+ *
+ * <pre>
+ * Replay [deal] [seeks]
+ * </pre>
+ */
+public class Replay
+{
+	// The number of plies between keyframes
+	public static final int KEYFRAME_INTERVAL = 16;
+
+	private final int[] moves;
+	private final Snapshot[] keyframes;
+
+	/**
+	 * Creates a replay, checking that every Move is legal
+	 *
+	 * @param start the board before the first Move
+	 * @param moves the packed Moves, which are copied
+	 * @throws IllegalArgumentException if one of the Moves is not legal
+	 */
+	public Replay(Snapshot start, int[] moves)
+	{
+		this.moves = moves.clone();
+		keyframes = new Snapshot[moves.length / KEYFRAME_INTERVAL + 1];
+		keyframes[0] = start;
+
+		// Check the Moves on a Position, which is cheaper to change
+		Position position = start.toPosition();
+		Snapshot board = start;
+		for (int ply = 0; ply < moves.length; ply++)
+		{
+			if (!position.isLegal(moves[ply]))
+				throw new IllegalArgumentException("Move " + (ply + 1) + " ("
+						+ Position.moveToString(moves[ply]) + ") is not legal");
+			position.apply(moves[ply]);
+			board = board.apply(moves[ply]);
+			if ((ply + 1) % KEYFRAME_INTERVAL == 0)
+				keyframes[(ply + 1) / KEYFRAME_INTERVAL] = board;
+		}
+	}
+
+	/**
+	 * Creates a replay of a numbered deal
+	 *
+	 * @param dealNo the number of the deal
+	 * @param variant the rules the deal is played by
+	 * @param moves the packed Moves
+	 * @return the replay
+	 * @throws IllegalArgumentException if one of the Moves is not legal
+	 */
+	public static Replay ofDeal(long dealNo, Variant variant, int[] moves)
+	{
+		return new Replay(Snapshot.of(Position.deal(Deals.dealOrder(dealNo),
+				variant)), moves);
+	}
+
+	/**
+	 * Creates a replay from a stream of Deltas, checking that every Move is
+	 * legal
+	 *
+	 * @param start the board before the first Delta
+	 * @param deltas the Deltas, read to the end of the buffer
+	 * @return the replay
+	 * @throws IllegalArgumentException if a Delta is not well formed or one of
+	 *             the Moves is not legal
+	 */
+	public static Replay fromDeltas(Snapshot start, ByteBuffer deltas)
+	{
+		int[] moves = new int[deltas.remaining() / 2];
+		int[] delta = new int[Delta.MAX_MOVES];
+		int noOfMoves = 0;
+		while (deltas.hasRemaining())
+		{
+			int noOfDeltaMoves = Delta.read(deltas, delta);
+			System.arraycopy(delta, 0, moves, noOfMoves, noOfDeltaMoves);
+			noOfMoves += noOfDeltaMoves;
+		}
+		return new Replay(start, Arrays.copyOf(moves, noOfMoves));
+	}
+
+	/**
+	 * Returns the Moves as a stream of Deltas, one per Move, 2 bytes each
+	 *
+	 * @return the bytes of the Deltas
+	 */
+	public byte[] toDeltas()
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(2 * moves.length);
+		for (int ply = 0; ply < moves.length; ply++)
+			Delta.write(buffer, moves, ply, 1);
+		return buffer.array();
+	}
+
+	/**
+	 * Returns the number of Moves in the replay
+	 *
+	 * @return the number of plies
+	 */
+	public int length()
+	{
+		return moves.length;
+	}
+
+	/**
+	 * Returns one of the Moves
+	 *
+	 * @param ply the index of the Move, 0 for the first
+	 * @return the packed Move
+	 */
+	public int moveAt(int ply)
+	{
+		return moves[ply];
+	}
+
+	/**
+	 * Returns the board after a number of Moves
+	 *
+	 * @param ply the number of Moves made, 0 to length()
+	 * @return the board
+	 * @throws IndexOutOfBoundsException if the ply is out of range
+	 */
+	public Snapshot seek(int ply)
+	{
+		if (ply < 0 || ply > moves.length)
+			throw new IndexOutOfBoundsException("Ply " + ply + " of "
+					+ moves.length);
+		int keyframe = ply / KEYFRAME_INTERVAL;
+		Snapshot board = keyframes[keyframe];
+		for (int next = keyframe * KEYFRAME_INTERVAL; next < ply; next++)
+			board = board.apply(moves[next]);
+		return board;
+	}
+
+	/**
+	 * Fast-forwards a mutable Position to a ply, for analysing the game from
+	 * there
+	 *
+	 * @param ply the number of Moves made, 0 to length()
+	 * @return a new Position of the board
+	 * @throws IndexOutOfBoundsException if the ply is out of range
+	 */
+	public Position positionAt(int ply)
+	{
+		if (ply < 0 || ply > moves.length)
+			throw new IndexOutOfBoundsException("Ply " + ply + " of "
+					+ moves.length);
+		int keyframe = ply / KEYFRAME_INTERVAL;
+		Position position = keyframes[keyframe].toPosition();
+		for (int next = keyframe * KEYFRAME_INTERVAL; next < ply; next++)
+			position.apply(moves[next]);
+		return position;
+	}
+
+	/**
+	 * Times random seeks through the solution of a deal
+	 *
+	 * @param args optionally the deal number and the number of seeks
+	 */
+	public static void main(String[] args)
+	{
+		long dealNo = args.length > 0 ? Long.parseLong(args[0]) : 1;
+		int noOfSeeks = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+		SolverResult result = new Solver(200000).solve(Deals.deal(dealNo));
+		if (!result.isSolved())
+		{
+			System.out.println("Deal " + dealNo + " was not solved");
+			return;
+		}
+
+		long start = System.nanoTime();
+		Replay replay = ofDeal(dealNo, Variant.CLASSIC, result.getSolution());
+		long built = System.nanoTime() - start;
+
+		Random random = new Random(dealNo);
+		int solved = 0;
+		start = System.nanoTime();
+		for (int seek = 0; seek < noOfSeeks; seek++)
+		{
+			if (replay.seek(random.nextInt(replay.length() + 1)).isSolved())
+				solved++;
+		}
+		long seeking = System.nanoTime() - start;
+		System.out.printf(
+				"%d plies, built in %.3f ms, %d seeks at %.2f us each (%d at the end)%n",
+				replay.length(), built / 1e6, noOfSeeks, seeking / 1e3
+						/ noOfSeeks, solved);
+	}
+}
@@ -0,0 +1,596 @@
+package com.github.jflaherty.cardgames.freecell;
+
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * A command line tool that fuzzes the GUI's rule engine: the Cascade,
+ * FreeCell, Foundation and Tableau Hands, FreeCellCard.canPlaceOn and
+ * Move.undo. It plays the way a player with a mouse does, without a
+ * window: it picks up a Card or a Tableau at a point with canPickUp and
+ * pickUp, drops it on a Hand if canPlaceOn allows it or back on its own
+ * Hand if not, and now and then undoes a Move. Some picks are legal Moves
+ * generated by Position, so games get deep, and the rest are random, so
+ * most drops are illegal. Now and then it also scrubs back to an earlier
+ * ply and forward again, laying the Cards out the way CardPanel.showBoard
+ * does, and then undoes a Move made before the scrub.
+ * <p>
+ * After every step it checks that:
+ * <ul>
+ * <li>all 52 Cards are still on the table, each exactly once</li>
+ * <li>the static counters FreeCell.noOfEmptyFreecells and
+ * Cascade.openCascades match the Hands</li>
+ * <li>canPlaceOn agreed with Position.isLegal about the drop, and the Hands
+ * hold the same Cards as a Position the same Moves were made on</li>
+ * <li>an undo put every Hand, Card position and counter back exactly as it
+ * was before the Move</li>
+ * </ul>
+ * Each game is seeded from the run's seed and the game number, so a failure
+ * is printed with the options that replay it, along with the last steps.
+ * Runs on one thread, since the counters are static; run more JVMs to use
+ * more cores.
+ *
+ * <pre>
+ * RuleFuzzer [-steps n] [-seed n] [-game n] [-gamesteps n] [-variant name|all]
+ * </pre>
+ */
+public class RuleFuzzer
+{
+	// The number of steps kept to print when a check fails
+	private static final int LOG_LENGTH = 24;
+
+	// The chances out of 100 of each kind of step; the rest are random drops
+	private static final int LEGAL_CHANCE = 45;
+	private static final int UNDO_CHANCE = 15;
+	private static final int SCRUB_CHANCE = 3;
+
+	// Kinds of step in the log
+	private static final int LEGAL = 0;
+	private static final int DROP = 1;
+	private static final int UNDO = 2;
+	private static final int SCRUB = 3;
+	private static final String[] KINDS = { "legal", "drop", "undo", "scrub" };
+
+	/**
+	 * A failed check
+	 */
+	public static class FuzzException extends RuntimeException
+	{
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * Creates the exception
+		 *
+		 * @param message what failed
+		 */
+		FuzzException(String message)
+		{
+			super(message);
+		}
+	}
+
+	private final long seed;
+	private final int stepsPerGame;
+	private final HashMap<Variant, ArrayList<FreeCellHand>> tables = new HashMap<Variant, ArrayList<FreeCellHand>>();
+	private final int[] legalMoves = new int[Position.MAX_MOVES];
+
+	// The game being played
+	private Random random;
+	private Variant variant;
+	private ArrayList<FreeCellHand> hands;
+	private int firstFreecell, firstFoundation;
+	private Position model;
+	private final ArrayList<Move> moves = new ArrayList<Move>();
+	private final ArrayList<Integer> modelMoves = new ArrayList<Integer>();
+	private final ArrayList<Long> signatures = new ArrayList<Long>();
+
+	// The last steps as kind, from, to and count, with the verdict
+	private final int[] log = new int[LOG_LENGTH];
+	private int logged;
+
+	/**
+	 * Creates a fuzzer
+	 *
+	 * @param seed the seed every game's random numbers come from
+	 * @param stepsPerGame the number of steps before a new game is dealt
+	 */
+	public RuleFuzzer(long seed, int stepsPerGame)
+	{
+		this.seed = seed;
+		this.stepsPerGame = stepsPerGame;
+	}
+
+	/**
+	 * Plays one game of random steps, checking after every one
+	 *
+	 * @param game the number of the game, which with the seed decides
+	 *            everything about it
+	 * @param variant the rules to play by
+	 * @throws FuzzException if a check fails
+	 */
+	public void playGame(long game, Variant variant)
+	{
+		random = new Random(Position.mix(seed * 31 + game));
+		deal(1 + random.nextInt(Deals.NO_OF_CLASSIC_DEALS), variant);
+		check();
+		for (int step = 0; step < stepsPerGame; step++)
+		{
+			int chance = random.nextInt(100);
+			if (chance < UNDO_CHANCE && !moves.isEmpty())
+				undo();
+			else if (chance < UNDO_CHANCE + SCRUB_CHANCE && !moves.isEmpty())
+				scrub();
+			else if (chance < UNDO_CHANCE + SCRUB_CHANCE + LEGAL_CHANCE)
+				legalStep();
+			else
+				randomDrop();
+			check();
+		}
+	}
+
+	/**
+	 * Sets up the Hands for a variant and deals to them the way
+	 * CardPanel.newGame does
+	 */
+	private void deal(long dealNo, Variant variant)
+	{
+		this.variant = variant;
+		FreeCellHand.variant = variant;
+		hands = tables.get(variant);
+		if (hands == null)
+		{
+			hands = new ArrayList<FreeCellHand>();
+			for (int cascade = 0; cascade < variant.getNoOfCascades(); cascade++)
+				hands.add(new Cascade(20 + 80 * cascade, 150));
+			for (int cell = 0; cell < variant.getNoOfFreecells(); cell++)
+				hands.add(new FreeCell(20 + 80 * cell, 20));
+			for (int suit = 0; suit < Position.NO_OF_FOUNDATIONS; suit++)
+				hands.add(new Foundation(420 + 80 * suit, 20));
+			tables.put(variant, hands);
+		}
+		firstFreecell = variant.getNoOfCascades();
+		firstFoundation = firstFreecell + variant.getNoOfFreecells();
+		for (FreeCellHand hand : hands)
+			hand.clear();
+
+		byte[] dealOrder = Deals.dealOrder(dealNo);
+		int toCascades = dealOrder.length - variant.getNoOfDealtToFreecells();
+		for (int index = 0; index < dealOrder.length; index++)
+		{
+			FreeCellCard card = new FreeCellCard(dealOrder[index]);
+			if (index < toCascades)
+				hands.get(index % firstFreecell).addCard(card);
+			else
+				hands.get(firstFreecell + index - toCascades).addCard(card);
+		}
+		model = Position.deal(dealOrder, variant);
+		moves.clear();
+		modelMoves.clear();
+		signatures.clear();
+		logged = 0;
+	}
+
+	/**
+	 * Drags one of Position's legal Moves, which the GUI must allow
+	 */
+	private void legalStep()
+	{
+		int noOfMoves = model.generateMoves(legalMoves);
+		if (noOfMoves == 0)
+		{
+			randomDrop();
+			return;
+		}
+		int move = legalMoves[random.nextInt(noOfMoves)];
+		int from = Position.from(move);
+		int count = Position.count(move);
+		FreeCellHand source = hands.get(from);
+		FreeCellHand target = guiHand(Position.to(move));
+		log(LEGAL, from, hands.indexOf(target), count);
+		long before = signature();
+
+		Movable movable = source.pickUp(pointOf(source, source.cardsLeft()
+				- count));
+		if (cardsIn(movable) != count)
+			throw new FuzzException("Picked up " + cardsIn(movable)
+					+ " Cards instead of " + count);
+		if (!movable.canPlaceOn(target))
+			throw new FuzzException("canPlaceOn refused "
+					+ Position.moveToString(move) + ", which Position allows");
+		drop(movable, source, target, move, before);
+	}
+
+	/**
+	 * Picks up at a random point of a random Hand and drops on a random Hand,
+	 * checking that canPlaceOn agrees with Position.isLegal
+	 */
+	private void randomDrop()
+	{
+		int from = random.nextInt(hands.size());
+		FreeCellHand source = hands.get(from);
+		FreeCellHand target = hands.get(random.nextInt(hands.size()));
+		if (source.cardsLeft() == 0)
+		{
+			log(DROP, from, hands.indexOf(target), 0);
+			return;
+		}
+		Point point = pointOf(source, random.nextInt(source.cardsLeft()));
+		if (!source.contains(point) || !source.canPickUp(point))
+		{
+			log(DROP, from, hands.indexOf(target), 0);
+			return;
+		}
+
+		long before = signature();
+		Movable movable = source.pickUp(point);
+		int count = cardsIn(movable);
+		log(DROP, from, hands.indexOf(target), count);
+		boolean allowed = movable.canPlaceOn(target);
+		if (target == source)
+		{
+			// Dropping back where it came from is never a Move
+			movable.placeOn(source);
+			return;
+		}
+
+		int to = modelHand(target, movable);
+		int move = Position.move(from, Math.max(to, 0), count);
+		if (allowed != (to >= 0 && model.isLegal(move)))
+			throw new FuzzException("canPlaceOn says " + allowed
+					+ " but Position.isLegal says " + !allowed + " for "
+					+ Position.moveToString(move));
+		if (allowed)
+			drop(movable, source, target, move, before);
+		else
+			movable.placeOn(source);
+	}
+
+	/**
+	 * Places a Movable the way CardPanel.mouseReleased does and makes the
+	 * same Move on the model
+	 */
+	private void drop(Movable movable, FreeCellHand source,
+			FreeCellHand target, int move, long before)
+	{
+		movable.placeOn(target);
+		signatures.add(before);
+		moves.add(new Move(source, target, movable));
+		modelMoves.add(move);
+		model.apply(move);
+	}
+
+	/**
+	 * Undoes the last Move and checks everything is as it was before it
+	 */
+	private void undo()
+	{
+		int last = moves.size() - 1;
+		Move move = moves.remove(last);
+		int modelMove = modelMoves.remove(last);
+		log(UNDO, Position.from(modelMove), Position.to(modelMove), Position
+				.count(modelMove));
+		move.undo();
+		model.undo(modelMove);
+		if (signature() != signatures.remove(last))
+			throw new FuzzException("Undo of " + Position.moveToString(modelMove)
+					+ " did not restore the board exactly");
+	}
+
+	/**
+	 * Scrubs back to a random earlier ply and forward to the last one again,
+	 * checking the table at the earlier ply, then undoes the last Move, which
+	 * must still put the board back exactly
+	 */
+	private void scrub()
+	{
+		int ply = random.nextInt(moves.size());
+		log(SCRUB, Math.min(moves.size() - ply, 0xFF), 0, 0);
+		for (int index = moves.size() - 1; index >= ply; index--)
+			model.undo(modelMoves.get(index));
+		showBoard(ply);
+		check();
+		for (int index = ply; index < moves.size(); index++)
+			model.apply(modelMoves.get(index));
+		showBoard(moves.size());
+		check();
+		undo();
+	}
+
+	/**
+	 * Lays the model's Cards out on the Hands the way CardPanel.showBoard
+	 * does, with new Cards, putting each suit on the Foundation the Moves
+	 * built it on
+	 */
+	private void showBoard(int plies)
+	{
+		int[] foundations = Move.foundationsOf(hands, firstFoundation, moves,
+				plies);
+		for (FreeCellHand hand : hands)
+			hand.clear();
+		for (int cascade = 0; cascade < firstFreecell; cascade++)
+		{
+			for (int index = 0; index < model.height(cascade); index++)
+				hands.get(cascade).addCard(
+						new FreeCellCard(model.cardAt(cascade, index)));
+		}
+		for (int cell = 0; cell < firstFoundation - firstFreecell; cell++)
+		{
+			if (model.freecell(cell) != CardTable.NONE)
+				hands.get(firstFreecell + cell).addCard(
+						new FreeCellCard(model.freecell(cell)));
+		}
+		for (int suit = 0; suit < Position.NO_OF_FOUNDATIONS; suit++)
+		{
+			for (int rank = 1; rank <= model.foundation(suit); rank++)
+				hands.get(foundations[suit]).addCard(
+						new FreeCellCard(CardTable.id(rank, suit)));
+		}
+	}
+
+	/**
+	 * Checks the invariants
+	 *
+	 * @throws FuzzException if one does not hold
+	 */
+	private void check()
+	{
+		// Every Card once
+		long seen = 0;
+		int noOfCards = 0;
+		int emptyCascades = 0;
+		int emptyFreecells = 0;
+		for (int index = 0; index < hands.size(); index++)
+		{
+			FreeCellHand hand = hands.get(index);
+			if (hand.cardsLeft() == 0)
+			{
+				if (index < firstFreecell)
+					emptyCascades++;
+				else if (index < firstFoundation)
+					emptyFreecells++;
+			}
+			for (int card = 0; card < hand.cardsLeft(); card++)
+			{
+				long bit = CardTable.bit(cardAt(hand, card));
+				if ((seen & bit) != 0)
+					throw new FuzzException("Card " + cardAt(hand, card)
+							+ " is on the table twice");
+				seen |= bit;
+				noOfCards++;
+			}
+		}
+		if (noOfCards != CardTable.NO_OF_CARDS)
+			throw new FuzzException(noOfCards + " Cards on the table");
+
+		// The static counters
+		if (Cascade.openCascades != emptyCascades)
+			throw new FuzzException("openCascades is " + Cascade.openCascades
+					+ " but " + emptyCascades + " Cascades are empty");
+		if (FreeCell.noOfEmptyFreecells != emptyFreecells)
+			throw new FuzzException("noOfEmptyFreecells is "
+					+ FreeCell.noOfEmptyFreecells + " but " + emptyFreecells
+					+ " FreeCells are empty");
+
+		// The same Cards as the model
+		for (int index = 0; index < firstFoundation; index++)
+		{
+			FreeCellHand hand = hands.get(index);
+			boolean same;
+			if (index < firstFreecell)
+			{
+				same = hand.cardsLeft() == model.height(index);
+				for (int card = 0; same && card < hand.cardsLeft(); card++)
+					same = cardAt(hand, card) == model.cardAt(index, card);
+			}
+			else
+				same = (hand.cardsLeft() == 0 ? CardTable.NONE : cardAt(hand,
+						0)) == model.freecell(index - firstFreecell)
+						&& hand.cardsLeft() <= 1;
+			if (!same)
+				throw new FuzzException("Hand " + index
+						+ " does not match the Position");
+		}
+		for (int index = firstFoundation; index < hands.size(); index++)
+		{
+			FreeCellHand hand = hands.get(index);
+			for (int card = 0; card < hand.cardsLeft(); card++)
+			{
+				byte id = cardAt(hand, card);
+				if (CardTable.rank(id) != card + 1
+						|| CardTable.suit(id) != CardTable.suit(cardAt(hand, 0))
+						|| model.foundation(CardTable.suit(id)) != hand
+								.cardsLeft())
+					throw new FuzzException("Foundation " + index
+							+ " does not match the Position");
+			}
+		}
+	}
+
+	/**
+	 * Returns a 64 bit hash of every Hand's Cards, every Card's position and
+	 * the counters
+	 */
+	private long signature()
+	{
+		long key = Cascade.openCascades * 31 + FreeCell.noOfEmptyFreecells;
+		for (FreeCellHand hand : hands)
+		{
+			key = Position.mix(key + hand.cardsLeft());
+			for (int index = 0; index < hand.cardsLeft(); index++)
+			{
+				FreeCellCard card = (FreeCellCard) hand.hand.get(index);
+				key = key * 53 + card.getId();
+				key = key * 1009 + card.getPosition().x;
+				key = key * 1009 + card.getPosition().y;
+			}
+		}
+		return Position.mix(key);
+	}
+
+	/**
+	 * Returns the id of a Card in a Hand
+	 */
+	private static byte cardAt(FreeCellHand hand, int index)
+	{
+		return ((FreeCellCard) hand.hand.get(index)).getId();
+	}
+
+	/**
+	 * Returns a point a player would click to pick up a Card and the Cards
+	 * above it
+	 */
+	private static Point pointOf(FreeCellHand hand, int index)
+	{
+		Point position = ((FreeCellCard) hand.hand.get(index)).getPosition();
+		return new Point(position.x + 5, position.y + 5);
+	}
+
+	/**
+	 * Returns the number of Cards in a Movable
+	 */
+	private static int cardsIn(Movable movable)
+	{
+		return movable instanceof Tableau ? ((Tableau) movable).cardsLeft() : 1;
+	}
+
+	/**
+	 * Returns the GUI Hand for a Position Hand number. A Position keeps each
+	 * suit on its own Foundation, the GUI puts it on whichever Foundation
+	 * got its ace
+	 */
+	private FreeCellHand guiHand(int modelHand)
+	{
+		if (modelHand < firstFoundation)
+			return hands.get(modelHand);
+		int suit = modelHand - firstFoundation;
+		FreeCellHand empty = null;
+		for (FreeCellHand foundation : hands.subList(firstFoundation, hands
+				.size()))
+		{
+			if (foundation.cardsLeft() == 0)
+			{
+				if (empty == null)
+					empty = foundation;
+			}
+			else if (CardTable.suit(foundation.getTopCard().getId()) == suit)
+				return foundation;
+		}
+		return empty;
+	}
+
+	/**
+	 * Returns the Position Hand number for a GUI Hand a Movable is dropped
+	 * on, or -1 if the drop has no Position Move: a Card other than an ace
+	 * on an empty Foundation, or a Card on a Foundation of another suit
+	 */
+	private int modelHand(FreeCellHand hand, Movable movable)
+	{
+		int index = hands.indexOf(hand);
+		if (index < firstFoundation)
+			return index;
+		FreeCellCard base = movable instanceof Tableau ? ((Tableau) movable)
+				.getBaseCard() : (FreeCellCard) movable;
+		int suit = CardTable.suit(base.getId());
+		if (hand.cardsLeft() == 0 ? CardTable.rank(base.getId()) != 1
+				: CardTable.suit(hand.getTopCard().getId()) != suit)
+			return -1;
+		return firstFoundation + suit;
+	}
+
+	/**
+	 * Records a step in the log
+	 */
+	private void log(int kind, int from, int to, int count)
+	{
+		log[logged++ % LOG_LENGTH] = kind << 24 | from << 16 | to << 8 | count;
+	}
+
+	/**
+	 * Returns the last steps, oldest first
+	 *
+	 * @return the steps, one per line
+	 */
+	public String lastSteps()
+	{
+		StringBuilder steps = new StringBuilder();
+		for (int step = Math.max(0, logged - LOG_LENGTH); step < logged; step++)
+		{
+			int entry = log[step % LOG_LENGTH];
+			steps.append(String.format("  %4d %-5s %2d -> %2d, %d Cards%n",
+					step + 1, KINDS[entry >>> 24], entry >> 16 & 0xFF,
+					entry >> 8 & 0xFF, entry & 0xFF));
+		}
+		return steps.toString();
+	}
+
+	/**
+	 * Returns the variant of the game being played
+	 *
+	 * @return the variant
+	 */
+	public Variant getVariant()
+	{
+		return variant;
+	}
+
+	/**
+	 * Runs the fuzzer until the steps are used up or a check fails
+	 *
+	 * @param args the command line arguments
+	 */
+	public static void main(String[] args)
+	{
+		long noOfSteps = 1000000;
+		long seed = System.nanoTime();
+		long firstGame = 0;
+		int stepsPerGame = 300;
+		String variantName = "all";
+		for (int index = 0; index + 1 < args.length; index += 2)
+		{
+			String value = args[index + 1];
+			if (args[index].equals("-steps"))
+				noOfSteps = Long.parseLong(value);
+			else if (args[index].equals("-seed"))
+				seed = Long.parseLong(value);
+			else if (args[index].equals("-game"))
+				firstGame = Long.parseLong(value);
+			else if (args[index].equals("-gamesteps"))
+				stepsPerGame = Integer.parseInt(value);
+			else if (args[index].equals("-variant"))
+				variantName = value;
+			else
+				throw new IllegalArgumentException("Unknown option "
+						+ args[index]);
+		}
+
+		Variant[] variants = variantName.equals("all") ? Variant
+				.getVariants() : new Variant[] { Variant.forName(variantName) };
+		if (variants[0] == null)
+			throw new IllegalArgumentException("Unknown variant " + variantName);
+		RuleFuzzer fuzzer = new RuleFuzzer(seed, stepsPerGame);
+		long start = System.nanoTime();
+		long game = firstGame;
+		long steps = 0;
+		try
+		{
+			for (; steps < noOfSteps; steps += stepsPerGame, game++)
+				fuzzer.playGame(game, variants[(int) (game % variants.length)]);
+		}
+		catch (RuntimeException exp)
+		{
+			System.err.println("Check failed in game " + game + " ("
+					+ fuzzer.getVariant().getName() + "): " + exp);
+			System.err.print(fuzzer.lastSteps());
+			System.err.println("Replay with -seed " + seed + " -game " + game
+					+ " -gamesteps " + stepsPerGame + " -variant \""
+					+ fuzzer.getVariant().getName() + "\" -steps 1");
+			System.exit(1);
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("%d steps in %d games in %.1f s (%.0f steps/min),"
+				+ " all checks passed%n", steps, game - firstGame, seconds,
+				steps / seconds * 60);
+	}
+}
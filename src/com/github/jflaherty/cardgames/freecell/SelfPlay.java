@@ -0,0 +1,616 @@
+package com.github.jflaherty.cardgames.freecell;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A command line tool that plays many complete games headlessly with one or
+ * more Policies and writes each Policy's win rate, Move counts and
+ * throughput to a results file. Games are played on Positions with the same
+ * rules as the GUI, including its auto complete of safe Moves to the
+ * Foundations, and every Move a Policy chooses is checked with
+ * Position.isLegal, so a Policy relying on a broken rule stops the run.
+ * <p>
+ * Game g of a run with seed s is always the same deal with the same stream
+ * of random numbers for every Policy, whichever thread plays it, so a run can
+ * be repeated exactly and Policies are compared on the same deals. The
+ * games are split into batches that a pool of worker threads plays in any
+ * order; the totals do not depend on the order.
+ * <p>
+ * The built in Policies are random, greedy, hint (the rules of
+ * CardPanel.showHint) and solver. Any other name is taken as the class name
+ * of a Policy with a public constructor taking no arguments.
+ *
+ * <pre>
+ * SelfPlay [-games n] [-seed n] [-policies name,name,...] [-threads n]
+ *          [-maxmoves n] [-nodes n] [-auto on|off] [-variant name] [-out file]
+ * </pre>
+ */
+public class SelfPlay
+{
+	public static final String FILE_NAME = "selfplay.csv";
+
+	// The number of games in a batch given to a worker
+	private static final int BATCH_SIZE = 500;
+	private static final long PROGRESS_INTERVAL_NANOS = 5000000000L;
+
+	/**
+	 * Plays random legal Moves
+	 */
+	public static class RandomPolicy implements Policy
+	{
+		private final int[] moves = new int[Position.MAX_MOVES];
+
+		/**
+		 * Returns the name of this Policy
+		 *
+		 * @return the name
+		 */
+		public String getName()
+		{
+			return "random";
+		}
+
+		/**
+		 * Starts a new game
+		 *
+		 * @param start the board of the new deal
+		 */
+		public void newGame(Position start)
+		{
+		}
+
+		/**
+		 * Chooses the next Move
+		 *
+		 * @param position the current board
+		 * @param random the source of randomness for this game
+		 * @return the packed Move, or -1 to give up
+		 */
+		public int chooseMove(Position position, Random random)
+		{
+			int noOfMoves = position.generateMoves(moves);
+			return noOfMoves == 0 ? -1 : moves[random.nextInt(noOfMoves)];
+		}
+	}
+
+	/**
+	 * Plays the Move to the board the Solver's estimate likes best, never
+	 * going back to a board already seen in the game. Ties are broken at
+	 * random
+	 */
+	public static class GreedyPolicy implements Policy
+	{
+		private final int[] moves = new int[Position.MAX_MOVES];
+		private final LongSet seen = new LongSet(1024);
+
+		/**
+		 * Returns the name of this Policy
+		 *
+		 * @return the name
+		 */
+		public String getName()
+		{
+			return "greedy";
+		}
+
+		/**
+		 * Starts a new game
+		 *
+		 * @param start the board of the new deal
+		 */
+		public void newGame(Position start)
+		{
+			seen.clear();
+			seen.add(start.key());
+		}
+
+		/**
+		 * Chooses the next Move
+		 *
+		 * @param position the current board
+		 * @param random the source of randomness for this game
+		 * @return the packed Move, or -1 to give up
+		 */
+		public int chooseMove(Position position, Random random)
+		{
+			int noOfMoves = position.generateMoves(moves);
+			int best = -1;
+			int bestScore = Integer.MAX_VALUE;
+			int noOfTies = 0;
+			for (int index = 0; index < noOfMoves; index++)
+			{
+				position.apply(moves[index]);
+				if (!seen.contains(position.key()))
+				{
+					int score = Solver.estimate(position);
+					if (score < bestScore)
+					{
+						best = moves[index];
+						bestScore = score;
+						noOfTies = 1;
+					}
+					else if (score == bestScore
+							&& random.nextInt(++noOfTies) == 0)
+						best = moves[index];
+				}
+				position.undo(moves[index]);
+			}
+			if (best >= 0)
+			{
+				position.apply(best);
+				seen.add(position.key());
+				position.undo(best);
+			}
+			return best;
+		}
+	}
+
+	/**
+	 * Plays the Move CardPanel.showHint would show: a FreeCell Card to its
+	 * Foundation, else a random Move between Cascades, else the top Card of
+	 * the shortest Cascade to a FreeCell. The GUI's hints from the deal
+	 * database and the endgame tablebase are left out so that this is the
+	 * rule based hint on its own
+	 */
+	public static class HintPolicy implements Policy
+	{
+		private final int[] moves = new int[Position.MAX_MOVES];
+
+		/**
+		 * Returns the name of this Policy
+		 *
+		 * @return the name
+		 */
+		public String getName()
+		{
+			return "hint";
+		}
+
+		/**
+		 * Starts a new game
+		 *
+		 * @param start the board of the new deal
+		 */
+		public void newGame(Position start)
+		{
+		}
+
+		/**
+		 * Chooses the next Move
+		 *
+		 * @param position the current board
+		 * @param random the source of randomness for this game
+		 * @return the packed Move, or -1 to give up
+		 */
+		public int chooseMove(Position position, Random random)
+		{
+			int firstFreecell = position.firstFreecell();
+			int firstFoundation = position.firstFoundation();
+			int noOfMoves = position.generateMoves(moves);
+			int noOfCascadeMoves = 0;
+			for (int index = 0; index < noOfMoves; index++)
+			{
+				int from = Position.from(moves[index]);
+				int to = Position.to(moves[index]);
+				if (from >= firstFreecell && to >= firstFoundation)
+					return moves[index];
+				if (from < firstFreecell && to < firstFreecell)
+					moves[noOfCascadeMoves++] = moves[index];
+			}
+			if (noOfCascadeMoves > 0)
+				return moves[random.nextInt(noOfCascadeMoves)];
+
+			int shortest = -1;
+			for (int cascade = 0; cascade < firstFreecell; cascade++)
+			{
+				int height = position.height(cascade);
+				if (height > 0
+						&& (shortest < 0 || height < position.height(shortest)))
+					shortest = cascade;
+			}
+			for (int cell = 0; cell < position.getNoOfFreecells(); cell++)
+			{
+				if (shortest >= 0
+						&& position.freecell(cell) == CardTable.NONE)
+					return Position.move(shortest, firstFreecell + cell, 1);
+			}
+			return -1;
+		}
+	}
+
+	/**
+	 * Follows a Solver's solution, solving again from the current board if
+	 * the game leaves it, and gives up on deals the Solver cannot solve
+	 * within its node budget
+	 */
+	public static class SolverPolicy implements Policy
+	{
+		private final Solver solver;
+		private Position expected;
+		private int[] solution;
+		private int next;
+
+		/**
+		 * Creates a Policy with the default node budget
+		 */
+		public SolverPolicy()
+		{
+			this(200000);
+		}
+
+		/**
+		 * Creates a Policy. Only the node budget limits each solve, so the
+		 * same deal is always solved the same way
+		 *
+		 * @param nodeBudget the most nodes for each solve
+		 */
+		public SolverPolicy(long nodeBudget)
+		{
+			solver = new Solver(nodeBudget);
+		}
+
+		/**
+		 * Returns the name of this Policy
+		 *
+		 * @return the name
+		 */
+		public String getName()
+		{
+			return "solver";
+		}
+
+		/**
+		 * Starts a new game
+		 *
+		 * @param start the board of the new deal
+		 */
+		public void newGame(Position start)
+		{
+			solution = null;
+		}
+
+		/**
+		 * Chooses the next Move
+		 *
+		 * @param position the current board
+		 * @param random the source of randomness for this game
+		 * @return the packed Move, or -1 to give up
+		 */
+		public int chooseMove(Position position, Random random)
+		{
+			// Catch up with auto-moves the game has already made
+			long key = position.layoutKey();
+			while (solution != null && next < solution.length
+					&& expected.layoutKey() != key)
+				expected.apply(solution[next++]);
+			if (solution == null || next == solution.length
+					|| expected.layoutKey() != key)
+			{
+				SolverResult result = solver.solve(new Position(position));
+				if (!result.isSolved())
+					return -1;
+				solution = result.getSolution();
+				expected = new Position(position);
+				next = 0;
+			}
+			if (next == solution.length)
+				return -1;
+			expected.apply(solution[next]);
+			return solution[next++];
+		}
+	}
+
+	/**
+	 * The totals for one Policy
+	 */
+	private static class Tally
+	{
+		long noOfGames, noOfWon, noOfGaveUp, noOfCapped;
+		long noOfMoves, noOfWonMoves, nanos;
+
+		/**
+		 * Adds another Tally's totals to this one
+		 */
+		void add(Tally other)
+		{
+			noOfGames += other.noOfGames;
+			noOfWon += other.noOfWon;
+			noOfGaveUp += other.noOfGaveUp;
+			noOfCapped += other.noOfCapped;
+			noOfMoves += other.noOfMoves;
+			noOfWonMoves += other.noOfWonMoves;
+			nanos += other.nanos;
+		}
+	}
+
+	private final long seed;
+	private final Variant variant;
+	private final boolean autoMoves;
+	private final int maxMoves;
+	private final long nodeBudget;
+
+	/**
+	 * Creates a harness
+	 *
+	 * @param seed the seed the deals and random numbers of every game come
+	 *            from
+	 * @param variant the rules to play by
+	 * @param autoMoves true to make every safe Move to the Foundations after
+	 *            each Move, as the GUI does
+	 * @param maxMoves the most Moves in a game before it counts as lost
+	 * @param nodeBudget the node budget of the solver Policy
+	 */
+	public SelfPlay(long seed, Variant variant, boolean autoMoves,
+			int maxMoves, long nodeBudget)
+	{
+		this.seed = seed;
+		this.variant = variant;
+		this.autoMoves = autoMoves;
+		this.maxMoves = maxMoves;
+		this.nodeBudget = nodeBudget;
+	}
+
+	/**
+	 * Creates a Policy from its name
+	 *
+	 * @param name a built in name or the class name of a Policy
+	 * @return the new Policy
+	 * @throws IllegalArgumentException if there is no such Policy
+	 */
+	public Policy createPolicy(String name)
+	{
+		if (name.equals("random"))
+			return new RandomPolicy();
+		if (name.equals("greedy"))
+			return new GreedyPolicy();
+		if (name.equals("hint"))
+			return new HintPolicy();
+		if (name.equals("solver"))
+			return new SolverPolicy(nodeBudget);
+		try
+		{
+			return (Policy) Class.forName(name).getConstructor().newInstance();
+		}
+		catch (Exception exp)
+		{
+			throw new IllegalArgumentException("No Policy called " + name, exp);
+		}
+	}
+
+	/**
+	 * Plays a batch of games with a new Policy
+	 *
+	 * @param policyName the name of the Policy
+	 * @param firstGame the number of the first game
+	 * @param noOfGames the number of games
+	 * @return the totals of the games
+	 * @throws IllegalStateException if the Policy chooses an illegal Move
+	 */
+	Tally playBatch(String policyName, long firstGame, int noOfGames)
+	{
+		Policy policy = createPolicy(policyName);
+		Tally tally = new Tally();
+		int[] autoMoveBuffer = new int[Delta.MAX_MOVES];
+		for (long game = firstGame; game < firstGame + noOfGames; game++)
+		{
+			long start = System.nanoTime();
+			Random random = new Random(Position.mix(seed * 31 + game));
+			long dealNo = 1 + random.nextInt(Deals.NO_OF_CLASSIC_DEALS);
+			Position position = Position.deal(Deals.dealOrder(dealNo), variant);
+			policy.newGame(position);
+
+			int noOfMoves = 0;
+			boolean gaveUp = false;
+			while (!position.isSolved() && noOfMoves < maxMoves)
+			{
+				int move = policy.chooseMove(position, random);
+				if (move < 0)
+				{
+					gaveUp = true;
+					break;
+				}
+				if (!position.isLegal(move))
+					throw new IllegalStateException(policy.getName()
+							+ " chose illegal Move "
+							+ Position.moveToString(move) + " in game " + game
+							+ " (deal " + dealNo + ")");
+				position.apply(move);
+				noOfMoves++;
+				if (autoMoves)
+					noOfMoves += Delta.autoMoves(position, autoMoveBuffer, 0);
+			}
+
+			tally.noOfGames++;
+			tally.noOfMoves += noOfMoves;
+			if (position.isSolved())
+			{
+				tally.noOfWon++;
+				tally.noOfWonMoves += noOfMoves;
+			}
+			else if (gaveUp)
+				tally.noOfGaveUp++;
+			else
+				tally.noOfCapped++;
+			tally.nanos += System.nanoTime() - start;
+		}
+		return tally;
+	}
+
+	/**
+	 * Plays the games of every Policy on a pool of threads
+	 *
+	 * @param policyNames the names of the Policies
+	 * @param noOfGames the number of games for each Policy
+	 * @param noOfThreads the number of worker threads
+	 * @return the totals of each Policy, in the same order as the names
+	 * @throws InterruptedException if interrupted while waiting
+	 * @throws ExecutionException if a game fails
+	 */
+	Tally[] run(String[] policyNames, long noOfGames, int noOfThreads)
+			throws InterruptedException, ExecutionException
+	{
+		// Create each Policy once up front so a bad name fails straight away
+		for (String name : policyNames)
+			createPolicy(name);
+
+		ExecutorService pool = Executors.newFixedThreadPool(noOfThreads);
+		ArrayList<Future<Tally>> batches = new ArrayList<Future<Tally>>();
+		ArrayList<Integer> batchPolicies = new ArrayList<Integer>();
+		for (long first = 0; first < noOfGames; first += BATCH_SIZE)
+		{
+			for (int policy = 0; policy < policyNames.length; policy++)
+			{
+				final String name = policyNames[policy];
+				final long firstGame = first;
+				final int size = (int) Math.min(BATCH_SIZE, noOfGames - first);
+				batches.add(pool.submit(new Callable<Tally>()
+				{
+					public Tally call()
+					{
+						return playBatch(name, firstGame, size);
+					}
+				}));
+				batchPolicies.add(policy);
+			}
+		}
+		pool.shutdown();
+
+		Tally[] tallies = new Tally[policyNames.length];
+		for (int policy = 0; policy < tallies.length; policy++)
+			tallies[policy] = new Tally();
+		long start = System.nanoTime();
+		long nextProgress = start + PROGRESS_INTERVAL_NANOS;
+		long played = 0;
+		try
+		{
+			for (int batch = 0; batch < batches.size(); batch++)
+			{
+				Tally tally = batches.get(batch).get();
+				tallies[batchPolicies.get(batch)].add(tally);
+				played += tally.noOfGames;
+				if (System.nanoTime() > nextProgress)
+				{
+					System.err.printf("%d of %d games played%n", played,
+							noOfGames * policyNames.length);
+					nextProgress += PROGRESS_INTERVAL_NANOS;
+				}
+			}
+		}
+		finally
+		{
+			pool.shutdownNow();
+		}
+		return tallies;
+	}
+
+	/**
+	 * Writes the results as CSV, one line per Policy. Throughput is per
+	 * second of a worker thread's time, so it does not depend on the number
+	 * of threads
+	 *
+	 * @param out where to write the results
+	 * @param policyNames the names of the Policies
+	 * @param tallies the totals of each Policy
+	 */
+	static void writeResults(PrintWriter out, String[] policyNames,
+			Tally[] tallies)
+	{
+		out.println("policy,games,won,win %,gave up,hit move limit,"
+				+ "mean moves,mean moves when won,thread s,games/s,moves/s");
+		for (int policy = 0; policy < policyNames.length; policy++)
+		{
+			Tally tally = tallies[policy];
+			double seconds = tally.nanos / 1e9;
+			out.printf("%s,%d,%d,%.2f,%d,%d,%.1f,%.1f,%.2f,%.0f,%.0f%n",
+					policyNames[policy], tally.noOfGames, tally.noOfWon,
+					tally.noOfWon * 100.0 / Math.max(1, tally.noOfGames),
+					tally.noOfGaveUp, tally.noOfCapped, tally.noOfMoves
+							/ (double) Math.max(1, tally.noOfGames),
+					tally.noOfWonMoves / (double) Math.max(1, tally.noOfWon),
+					seconds, tally.noOfGames / seconds, tally.noOfMoves
+							/ seconds);
+		}
+		out.flush();
+	}
+
+	/**
+	 * Runs the harness
+	 *
+	 * @param args the command line arguments
+	 * @throws Exception if a game fails or the results cannot be written
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		long noOfGames = 10000;
+		long seed = 1;
+		String policies = "random,greedy,hint,solver";
+		int noOfThreads = Runtime.getRuntime().availableProcessors();
+		int maxMoves = 1000;
+		long nodeBudget = 20000;
+		boolean autoMoves = true;
+		Variant variant = Variant.CLASSIC;
+		String outFile = FILE_NAME;
+		for (int index = 0; index + 1 < args.length; index += 2)
+		{
+			String value = args[index + 1];
+			if (args[index].equals("-games"))
+				noOfGames = Long.parseLong(value);
+			else if (args[index].equals("-seed"))
+				seed = Long.parseLong(value);
+			else if (args[index].equals("-policies"))
+				policies = value;
+			else if (args[index].equals("-threads"))
+				noOfThreads = Integer.parseInt(value);
+			else if (args[index].equals("-maxmoves"))
+				maxMoves = Integer.parseInt(value);
+			else if (args[index].equals("-nodes"))
+				nodeBudget = Long.parseLong(value);
+			else if (args[index].equals("-auto"))
+				autoMoves = value.equals("on");
+			else if (args[index].equals("-variant"))
+				variant = Variant.forName(value);
+			else if (args[index].equals("-out"))
+				outFile = value;
+			else
+				throw new IllegalArgumentException("Unknown option "
+						+ args[index]);
+		}
+
+		String[] policyNames = policies.split(",");
+		SelfPlay selfPlay = new SelfPlay(seed, variant, autoMoves, maxMoves,
+				nodeBudget);
+		long start = System.nanoTime();
+		Tally[] tallies;
+		try
+		{
+			tallies = selfPlay.run(policyNames, noOfGames, noOfThreads);
+		}
+		catch (ExecutionException exp)
+		{
+			throw new IllegalStateException("Self play failed", exp.getCause());
+		}
+		System.err.printf("Played %d games in %.1f s%n", noOfGames
+				* policyNames.length, (System.nanoTime() - start) / 1e9);
+
+		writeResults(new PrintWriter(System.out), policyNames, tallies);
+		try
+		{
+			PrintWriter out = new PrintWriter(outFile);
+			writeResults(out, policyNames, tallies);
+			out.close();
+		}
+		catch (IOException exp)
+		{
+			System.err.println("Cannot write " + outFile + ": "
+					+ exp.getMessage());
+		}
+	}
+}
@@ -0,0 +1,233 @@
+package com.github.jflaherty.cardgames.freecell;
+
+import java.util.Arrays;
+
+/**
+ * An immutable board. Applying a Move gives a new Snapshot that shares every
+ * Cascade the Move does not touch with the old one, so keeping a whole
+ * history of boards only costs the Cascades each Move changed. Since nothing
+ * in a Snapshot ever changes, any number of threads can hold and read one
+ * without locking or copying, for example a worker looking for hints while
+ * the game carries on. Searches that want speed should turn a Snapshot into
+ * a mutable Position with toPosition
+ */
+public final class Snapshot
+{
+	private final Variant variant;
+
+	// Each Cascade's array is exactly as long as the Cascade and is never
+	// changed once made, which is what lets Snapshots share them
+	private final byte[][] cascades;
+	private final byte[] freecells;
+
+	// The number of Cards on each Foundation, 4 bits per suit
+	private final int foundations;
+	private final int noOfFreecells;
+
+	/**
+	 * Creates a Snapshot from its parts, which must not be changed afterwards
+	 */
+	private Snapshot(Variant variant, byte[][] cascades, byte[] freecells,
+			int foundations, int noOfFreecells)
+	{
+		this.variant = variant;
+		this.cascades = cascades;
+		this.freecells = freecells;
+		this.foundations = foundations;
+		this.noOfFreecells = noOfFreecells;
+	}
+
+	/**
+	 * Creates a Snapshot of a Position
+	 *
+	 * @param position the Position, which is not changed
+	 * @return the Snapshot
+	 */
+	public static Snapshot of(Position position)
+	{
+		Variant variant = position.getVariant();
+		byte[][] cascades = new byte[variant.getNoOfCascades()][];
+		for (int cascade = 0; cascade < cascades.length; cascade++)
+		{
+			cascades[cascade] = new byte[position.height(cascade)];
+			for (int index = 0; index < cascades[cascade].length; index++)
+				cascades[cascade][index] = position.cardAt(cascade, index);
+		}
+		byte[] freecells = new byte[variant.getNoOfFreecells()];
+		for (int cell = 0; cell < freecells.length; cell++)
+			freecells[cell] = position.freecell(cell);
+		int foundations = 0;
+		for (int suit = 0; suit < Position.NO_OF_FOUNDATIONS; suit++)
+			foundations |= position.foundation(suit) << 4 * suit;
+		return new Snapshot(variant, cascades, freecells, foundations,
+				position.getNoOfFreecells());
+	}
+
+	/**
+	 * Creates a mutable Position with the same Cards as this Snapshot
+	 *
+	 * @return the new Position
+	 */
+	public Position toPosition()
+	{
+		Position position = new Position(variant);
+		for (int cascade = 0; cascade < cascades.length; cascade++)
+		{
+			for (byte card : cascades[cascade])
+				position.addToCascade(cascade, card);
+		}
+		for (int cell = 0; cell < freecells.length; cell++)
+			position.setFreecell(cell, freecells[cell]);
+		for (int suit = 0; suit < Position.NO_OF_FOUNDATIONS; suit++)
+			position.setFoundation(suit, foundation(suit));
+		position.setNoOfFreecells(noOfFreecells);
+		return position;
+	}
+
+	/**
+	 * Returns the Snapshot after a packed Move. The Move must be legal. Only
+	 * the Hands the Move uses are copied, everything else is shared
+	 *
+	 * @param move the packed Move
+	 * @return the new Snapshot
+	 */
+	public Snapshot apply(int move)
+	{
+		int from = Position.from(move);
+		int to = Position.to(move);
+		int count = Position.count(move);
+		int firstFreecell = cascades.length;
+		int firstFoundation = firstFreecell + freecells.length;
+
+		// Only the array of Cascade references is copied up front
+		byte[][] newCascades = cascades;
+		byte[] newFreecells = freecells;
+		int newFoundations = foundations;
+		byte[] moved;
+		if (from < firstFreecell)
+		{
+			byte[] cards = cascades[from];
+			moved = Arrays.copyOfRange(cards, cards.length - count,
+					cards.length);
+			newCascades = cascades.clone();
+			newCascades[from] = Arrays.copyOf(cards, cards.length - count);
+		}
+		else if (from < firstFoundation)
+		{
+			moved = new byte[] { freecells[from - firstFreecell] };
+			newFreecells = freecells.clone();
+			newFreecells[from - firstFreecell] = CardTable.NONE;
+		}
+		else
+			throw new IllegalArgumentException("Cannot move off a Foundation");
+
+		if (to < firstFreecell)
+		{
+			if (newCascades == cascades)
+				newCascades = cascades.clone();
+			byte[] cards = newCascades[to];
+			byte[] joined = Arrays.copyOf(cards, cards.length + moved.length);
+			System.arraycopy(moved, 0, joined, cards.length, moved.length);
+			newCascades[to] = joined;
+		}
+		else if (to < firstFoundation)
+		{
+			if (newFreecells == freecells)
+				newFreecells = freecells.clone();
+			newFreecells[to - firstFreecell] = moved[0];
+		}
+		else
+			newFoundations += 1 << 4 * (to - firstFoundation);
+		return new Snapshot(variant, newCascades, newFreecells,
+				newFoundations, noOfFreecells);
+	}
+
+	/**
+	 * Returns the rules this Snapshot is played by
+	 *
+	 * @return the variant
+	 */
+	public Variant getVariant()
+	{
+		return variant;
+	}
+
+	/**
+	 * Returns the number of Cards in a Cascade
+	 *
+	 * @param cascade the index of the Cascade
+	 * @return the number of Cards
+	 */
+	public int height(int cascade)
+	{
+		return cascades[cascade].length;
+	}
+
+	/**
+	 * Returns a Card in a Cascade
+	 *
+	 * @param cascade the index of the Cascade
+	 * @param index the index of the Card, 0 for the bottom Card
+	 * @return the id of the Card
+	 */
+	public byte cardAt(int cascade, int index)
+	{
+		return cascades[cascade][index];
+	}
+
+	/**
+	 * Returns the Card in a FreeCell
+	 *
+	 * @param cell the index of the FreeCell
+	 * @return the id of the Card or CardTable.NONE if the FreeCell is empty
+	 */
+	public byte freecell(int cell)
+	{
+		return freecells[cell];
+	}
+
+	/**
+	 * Returns the number of Cards on a Foundation
+	 *
+	 * @param suit the suit index of the Foundation
+	 * @return the number of Cards
+	 */
+	public int foundation(int suit)
+	{
+		return foundations >> 4 * suit & 0xF;
+	}
+
+	/**
+	 * Checks if every Card is on the Foundations
+	 *
+	 * @return true if the game is won
+	 */
+	public boolean isSolved()
+	{
+		return foundations == 0xDDDD;
+	}
+
+	/**
+	 * Checks if another Snapshot shares a Cascade with this one, that is the
+	 * Cascade has not changed between them
+	 *
+	 * @param other the other Snapshot
+	 * @param cascade the index of the Cascade
+	 * @return true if both Snapshots hold the same array for the Cascade
+	 */
+	public boolean sharesCascade(Snapshot other, int cascade)
+	{
+		return cascades[cascade] == other.cascades[cascade];
+	}
+
+	/**
+	 * Returns the Cascades, FreeCells and Foundations of this Snapshot, one
+	 * line each
+	 *
+	 * @return this Snapshot as a String
+	 */
+	public String toString()
+	{
+		return toPosition().toString();
+	}
+}
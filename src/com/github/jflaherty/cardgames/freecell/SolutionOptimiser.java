@@ -0,0 +1,329 @@
+package com.github.jflaherty.cardgames.freecell;
+
+import java.util.HashMap;
+
+/**
+ * Shortens a sequence of packed Moves, such as a Solver solution or a
+ * recorded game, without changing where it ends up. Two kinds of pass are
+ * made:
+ * <ul>
+ * <li>a shortcut pass replays the sequence once to find the layout key of
+ * every Position on the way, and then walks it from the start, jumping each
+ * time to the latest Position that can be reached from the current one by no
+ * Move at all, which drops cycles such as a Card going to a FreeCell and
+ * straight back, or by one legal Move, which merges single Card Moves into a
+ * supermove
+ * <li>a joining pass finds a Card that is parked, say in a FreeCell, and
+ * moved on again a few Moves later, and replaces the two Moves with one
+ * direct Move if the Moves in between do not need it parked
+ * </ul>
+ * Each step only looks at the Moves of one Position or a window of at most
+ * WINDOW Moves, so a pass takes time linear in the length of the sequence.
+ * Passes are repeated until the sequence stops getting shorter, and the
+ * result is replayed to check that every Move is legal and that it ends in
+ * the same Position, falling back to the original Moves if not
+ *
+ * <pre>
+ * SolutionOptimiser [first-last] [nodes]
+ * </pre>
+ */
+public class SolutionOptimiser
+{
+	// The most Moves a joining pass looks ahead for the next Move of a Card
+	public static final int WINDOW = 64;
+
+	/**
+	 * Creates nothing, everything is static
+	 */
+	private SolutionOptimiser()
+	{
+	}
+
+	/**
+	 * Shortens a sequence of Moves
+	 *
+	 * @param start the Position the Moves start from, which is not changed
+	 * @param moves the packed Moves
+	 * @return the shortened packed Moves, which end in the same Position, or
+	 *         a copy of the Moves if they could not be shortened
+	 * @throws IllegalArgumentException if one of the Moves is not legal
+	 */
+	public static int[] optimise(Position start, int[] moves)
+	{
+		long endKey = replay(start, moves);
+		if (endKey == 0)
+			throw new IllegalArgumentException("Moves are not legal");
+
+		int[] best = moves.clone();
+		while (best.length > 0)
+		{
+			int[] shorter = joinPass(start, pass(start, best));
+			if (shorter.length >= best.length)
+				break;
+			best = shorter;
+		}
+
+		// Hash keys could collide, so only trust a result that replays
+		if (best.length < moves.length && replay(start, best) != endKey)
+			return moves.clone();
+		return best;
+	}
+
+	/**
+	 * Makes one pass over a sequence of Moves, taking the shortcuts it finds
+	 *
+	 * @param start the Position the Moves start from
+	 * @param moves the packed Moves, which must be legal
+	 * @return the packed Moves with the shortcuts taken
+	 */
+	private static int[] pass(Position start, int[] moves)
+	{
+		// The last index each layout is reached at, so a later repeat wins
+		HashMap<Long, Integer> lastSeen = new HashMap<Long, Integer>(
+				2 * moves.length + 2);
+		Position position = new Position(start);
+		lastSeen.put(position.layoutKey(), 0);
+		for (int index = 0; index < moves.length; index++)
+		{
+			position.apply(moves[index]);
+			lastSeen.put(position.layoutKey(), index + 1);
+		}
+
+		int[] shorter = new int[moves.length];
+		int length = 0;
+		position = new Position(start);
+		int at = 0;
+		while (at < moves.length)
+		{
+			// Skip over any cycle back to this layout
+			at = lastSeen.get(position.layoutKey());
+			if (at == moves.length)
+				break;
+
+			int bestMove = moves[at];
+			int reaches = at + 1;
+			int noOfHands = position.firstFreecell()
+					+ position.getNoOfFreecells();
+			for (int from = 0; from < noOfHands; from++)
+			{
+				if (position.topCard(from) == CardTable.NONE)
+					continue;
+				for (int to = 0; to < position.noOfHands(); to++)
+				{
+					int first = 1;
+					int last = 1;
+					if (from < position.firstFreecell()
+							&& to < position.firstFreecell())
+					{
+						// Onto a Card only one count can fit, onto an empty
+						// Cascade any part of the run can go
+						byte top = position.topCard(to);
+						if (top != CardTable.NONE)
+						{
+							first = CardTable.rank(top)
+									- CardTable.rank(position.topCard(from));
+							last = first;
+						}
+						else
+							last = position.runLength(from);
+					}
+					for (int count = first; count <= last; count++)
+					{
+						int move = Position.move(from, to, count);
+						if (count < 1 || !position.isLegal(move))
+							continue;
+						position.apply(move);
+						Integer later = lastSeen.get(position.layoutKey());
+						position.undo(move);
+						if (later != null && later > reaches)
+						{
+							bestMove = move;
+							reaches = later;
+						}
+					}
+				}
+			}
+			shorter[length++] = bestMove;
+			position.apply(bestMove);
+			at = reaches;
+		}
+		return java.util.Arrays.copyOf(shorter, length);
+	}
+
+	/**
+	 * Makes one pass over a sequence of Moves, joining the two Moves of any
+	 * Card that is parked and then moved on when the Moves in between allow
+	 * it
+	 *
+	 * @param start the Position the Moves start from
+	 * @param moves the packed Moves, which must be legal
+	 * @return the packed Moves with the Moves joined
+	 */
+	private static int[] joinPass(Position start, int[] moves)
+	{
+		int[] joined = moves.clone();
+		int length = joined.length;
+		Position position = new Position(start);
+		int at = 0;
+		while (at < length)
+		{
+			// Try again from the same Move after a join since the joined Move
+			// may be parked too
+			int shorter = join(position, joined, at, length);
+			if (shorter >= 0)
+				length = shorter;
+			else
+				position.apply(joined[at++]);
+		}
+		return java.util.Arrays.copyOf(joined, length);
+	}
+
+	/**
+	 * Tries to join a Move with the next Move of the same Cards, either by
+	 * making the direct Move in place of the first Move or in place of the
+	 * second
+	 *
+	 * @param position the Position before the first Move, which is not
+	 *            changed
+	 * @param moves the packed Moves, changed in place if the Moves are joined
+	 * @param at the index of the first Move
+	 * @param length the number of Moves in use
+	 * @return the new number of Moves, or -1 if the Moves were not joined
+	 */
+	private static int join(Position position, int[] moves, int at, int length)
+	{
+		Position walk = new Position(position);
+		int first = moves[at];
+		int parkedIn = Position.to(first);
+		byte card = movedCard(walk, first);
+		walk.apply(first);
+		int last = Math.min(length, at + 1 + WINDOW);
+		for (int next = at + 1; next < last; next++)
+		{
+			int move = moves[next];
+			if (movedCard(walk, move) == card)
+			{
+				if (Position.from(move) != parkedIn
+						|| Position.count(move) != Position.count(first))
+					return -1;
+				walk.apply(move);
+				long target = walk.layoutKey();
+
+				// Going back where they came from needs no Move at all
+				int between = next - at - 1;
+				int[] window;
+				if (Position.from(first) == Position.to(move))
+					window = java.util.Arrays.copyOfRange(moves, at + 1, next);
+				else
+				{
+					int direct = Position.move(Position.from(first),
+							Position.to(move), Position.count(first));
+					window = new int[between + 1];
+					window[0] = direct;
+					System.arraycopy(moves, at + 1, window, 1, between);
+					if (!reaches(position, window, target))
+					{
+						System.arraycopy(moves, at + 1, window, 0, between);
+						window[between] = direct;
+					}
+				}
+				if (!reaches(position, window, target))
+					return -1;
+
+				int removed = next - at + 1 - window.length;
+				System.arraycopy(window, 0, moves, at, window.length);
+				System.arraycopy(moves, next + 1, moves, next + 1 - removed,
+						length - next - 1);
+				return length - removed;
+			}
+
+			// Give up if the parked Cards are covered or moved with others
+			if (Position.from(move) == parkedIn
+					|| Position.to(move) == parkedIn)
+				return -1;
+			walk.apply(move);
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the Card a Move picks up, the bottom one for a run of Cards
+	 */
+	private static byte movedCard(Position position, int move)
+	{
+		int from = Position.from(move);
+		if (from < position.firstFreecell())
+			return position.cardAt(from, position.height(from)
+					- Position.count(move));
+		return position.topCard(from);
+	}
+
+	/**
+	 * Checks if some Moves are legal and end in a given layout
+	 */
+	private static boolean reaches(Position start, int[] moves, long layoutKey)
+	{
+		return replay(start, moves) == layoutKey;
+	}
+
+	/**
+	 * Replays a sequence of Moves, checking that each one is legal
+	 *
+	 * @param start the Position the Moves start from, which is not changed
+	 * @param moves the packed Moves
+	 * @return the layout key of the Position the Moves end in, or 0 if one of
+	 *         the Moves is not legal
+	 */
+	public static long replay(Position start, int[] moves)
+	{
+		Position position = new Position(start);
+		for (int move : moves)
+		{
+			if (!position.isLegal(move))
+				return 0;
+			position.apply(move);
+		}
+		return position.layoutKey();
+	}
+
+	/**
+	 * Solves a range of numbered deals and prints how much shorter the
+	 * optimised solutions are
+	 *
+	 * @param args optionally a range of deals such as 1-1000 and a node
+	 *            budget
+	 */
+	public static void main(String[] args)
+	{
+		int firstDeal = 1;
+		int lastDeal = 1000;
+		if (args.length > 0)
+		{
+			int dash = args[0].indexOf('-');
+			firstDeal = Integer.parseInt(args[0].substring(0, dash));
+			lastDeal = Integer.parseInt(args[0].substring(dash + 1));
+		}
+		long nodeBudget = args.length > 1 ? Long.parseLong(args[1]) : 200000;
+
+		Solver solver = new Solver(nodeBudget);
+		long before = 0;
+		long after = 0;
+		long optimiseNanos = 0;
+		for (int dealNo = firstDeal; dealNo <= lastDeal; dealNo++)
+		{
+			Position start = Deals.deal(dealNo);
+			SolverResult result = solver.solve(start);
+			if (!result.isSolved())
+				continue;
+			long begin = System.nanoTime();
+			int[] optimised = optimise(start, result.getSolution());
+			optimiseNanos += System.nanoTime() - begin;
+			before += result.getLength();
+			after += optimised.length;
+		}
+		System.out.printf("%d Moves before, %d after (%.1f%% shorter)%n",
+				before, after, before == 0 ? 0.0 : 100.0 * (before - after)
+						/ before);
+		System.err.printf("Optimised in %.1f ms%n", optimiseNanos / 1e6);
+	}
+}
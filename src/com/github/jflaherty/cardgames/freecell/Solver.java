@@ -0,0 +1,471 @@
+package com.github.jflaherty.cardgames.freecell;
+
+/**
+ * Solves FreeCell Positions with a depth first search. Cards that can safely
+ * go up to the Foundations are always moved there first, the other Moves are
+ * tried best first by a simple estimate of how far each resulting Position is
+ * from being solved, and Positions already searched are skipped using their
+ * keys. Once few enough Cards are left an endgame tablebase, if one is set,
+ * finishes the game without searching. Each search stops when it runs out of
+ * its node or time budget.
+ * <p>
+ * With a pattern database set, its lower bounds also order the Moves, and
+ * solveOptimal instead finds a solution that moves the fewest Cards, by
+ * iterative deepening on the Cards moved with the lower bounds cutting off
+ * branches that cannot do better
+ */
+public class Solver
+{
+	// The longest solution the search looks for
+	public static final int MAX_DEPTH = 400;
+
+	private final long nodeBudget;
+	private final long timeBudgetNanos; // or -1 for no time budget
+	private EndgameTablebase tablebase;
+	private PatternDatabase patterns;
+	private LongSet deadEnds;
+
+	// Search state, reset for every solve
+	private Position position;
+	private LongSet seen;
+	private int[] path;
+	private int[][] moveBuffers;
+	private int[][] scoreBuffers;
+	private long nodes;
+	private long deadline;
+	private boolean outOfBudget;
+	private boolean cutOff;
+
+	// Optimal search state: the fewest Cards moved to reach each Position in
+	// this round, and the lowest total over the limit that was cut off
+	private LongIntMap leastMoved;
+	private int nextLimit;
+
+	/**
+	 * Creates a Solver with the given budgets for each search
+	 *
+	 * @param nodeBudget the most Positions to expand in one search
+	 * @param timeBudgetMillis the most time to spend on one search in
+	 *            milliseconds, or -1 for no limit
+	 */
+	public Solver(long nodeBudget, long timeBudgetMillis)
+	{
+		this.nodeBudget = nodeBudget;
+		this.timeBudgetNanos = timeBudgetMillis < 0 ? -1
+				: timeBudgetMillis * 1000000L;
+		path = new int[MAX_DEPTH];
+		moveBuffers = new int[MAX_DEPTH][Position.MAX_MOVES];
+		scoreBuffers = new int[MAX_DEPTH][Position.MAX_MOVES];
+	}
+
+	/**
+	 * Creates a Solver with only a node budget for each search, so its
+	 * results are deterministic however fast the machine is
+	 *
+	 * @param nodeBudget the most Positions to expand in one search
+	 */
+	public Solver(long nodeBudget)
+	{
+		this(nodeBudget, -1);
+	}
+
+	/**
+	 * Sets the endgame tablebase used to finish games without searching
+	 *
+	 * @param tablebase the tablebase, or null to always search
+	 */
+	public void setTablebase(EndgameTablebase tablebase)
+	{
+		this.tablebase = tablebase;
+	}
+
+	/**
+	 * Sets the pattern database whose lower bounds order the Moves in solve
+	 * and cut off branches in solveOptimal
+	 *
+	 * @param patterns the pattern database, or null if there is none
+	 */
+	public void setPatternDatabase(PatternDatabase patterns)
+	{
+		this.patterns = patterns;
+	}
+
+	/**
+	 * Sets a set of keys of Positions known to be unwinnable, shared between
+	 * searches. Searches skip these Positions and add each Position they
+	 * fully search without finding a solution. A Position that cannot be won
+	 * also cannot be won with fewer FreeCells, so one set can be shared by
+	 * searches of the same deal with fewer and fewer FreeCells, but not the
+	 * other way round
+	 *
+	 * @param deadEnds the keys of unwinnable Positions, or null to not share
+	 *            results between searches
+	 */
+	public void setDeadEnds(LongSet deadEnds)
+	{
+		this.deadEnds = deadEnds;
+	}
+
+	/**
+	 * Searches for a solution to the given Position. The Position itself is
+	 * not changed
+	 *
+	 * @param start the Position to solve
+	 * @return the outcome of the search
+	 */
+	public SolverResult solve(Position start)
+	{
+		long startTime = System.nanoTime();
+		GameEvents.Solver event = new GameEvents.Solver();
+		event.begin();
+		position = new Position(start);
+		seen = new LongSet(1024);
+		nodes = 0;
+		deadline = startTime + timeBudgetNanos;
+		outOfBudget = false;
+		cutOff = false;
+
+		seen.add(position.key());
+		int length = search(0);
+		seen = null;
+		return finish(length, startTime, event);
+	}
+
+	/**
+	 * Searches for a solution to the given Position that moves the fewest
+	 * Cards, counting every Card of a run that is moved. Each round searches
+	 * depth first, cutting off a branch once the Cards moved so far plus the
+	 * pattern database's lower bound for the rest is over a limit, and the
+	 * next round's limit is the lowest total that was cut off. Safe moves to
+	 * the Foundations are made first, as in solve, since they never make a
+	 * solution longer. The endgame tablebase and the dead ends are not used,
+	 * as the tablebase counts single Card Moves only. The Position itself is
+	 * not changed
+	 *
+	 * @param start the Position to solve
+	 * @return the outcome of the search
+	 * @throws IllegalStateException if no pattern database is set
+	 */
+	public SolverResult solveOptimal(Position start)
+	{
+		if (patterns == null)
+			throw new IllegalStateException("No pattern database is set");
+		long startTime = System.nanoTime();
+		GameEvents.Solver event = new GameEvents.Solver();
+		event.begin();
+		position = new Position(start);
+		leastMoved = new LongIntMap(1024);
+		nodes = 0;
+		deadline = startTime + timeBudgetNanos;
+		outOfBudget = false;
+		cutOff = false;
+
+		int limit = patterns.lowerBound(position);
+		int length;
+		do
+		{
+			nextLimit = Integer.MAX_VALUE;
+			leastMoved.clear();
+			length = searchOptimal(0, 0, limit, patterns
+					.lowerBound(position));
+			limit = nextLimit;
+		}
+		while (length < 0 && !outOfBudget && limit != Integer.MAX_VALUE);
+		leastMoved = null;
+		return finish(length, startTime, event);
+	}
+
+	/**
+	 * Makes the outcome of a search and lets go of the search state
+	 *
+	 * @param length the length of the solution found, or -1 if there is none.
+	 *            With none, the start is only unsolvable if the search ran out
+	 *            of neither budget nor depth
+	 * @param startTime when the search started from System.nanoTime()
+	 * @param event the event of the search, which is committed
+	 * @return the outcome of the search
+	 */
+	private SolverResult finish(int length, long startTime,
+			GameEvents.Solver event)
+	{
+		int status;
+		int[] solution = null;
+		if (length >= 0)
+		{
+			status = SolverResult.SOLVED;
+			solution = new int[length];
+			System.arraycopy(path, 0, solution, 0, length);
+		}
+		else if (outOfBudget || cutOff)
+			status = SolverResult.GAVE_UP;
+		else
+			status = SolverResult.UNSOLVABLE;
+
+		// Let go of the search state so a Solver can be kept around
+		SolverResult result = new SolverResult(status, solution, nodes,
+				System.nanoTime() - startTime);
+		position = null;
+
+		event.status = status;
+		event.nodes = nodes;
+		event.length = result.getLength();
+		event.commit();
+		return result;
+	}
+
+	/**
+	 * Searches from the current Position
+	 *
+	 * @param depth the number of Moves already on the path
+	 * @return the length of the solution found, or -1 if there is none below
+	 *         this Position
+	 */
+	private int search(int depth)
+	{
+		if (position.isSolved())
+			return depth;
+		if (depth >= MAX_DEPTH)
+		{
+			cutOff = true;
+			return -1;
+		}
+		if (tablebase != null && tablebase.covers(position))
+			return finishFromTablebase(depth);
+		if (deadEnds != null && deadEnds.contains(position.key()))
+			return -1;
+
+		nodes++;
+		if (nodes > nodeBudget
+				|| (timeBudgetNanos >= 0 && (nodes & 0xFF) == 0 && System
+						.nanoTime() > deadline))
+		{
+			outOfBudget = true;
+			return -1;
+		}
+
+		// Safe moves to the Foundations never need to be searched around
+		int safe = position.safeFoundationMove();
+		if (safe >= 0)
+		{
+			position.apply(safe);
+			path[depth] = safe;
+			int length = -1;
+			if (seen.add(position.key()))
+				length = search(depth + 1);
+			position.undo(safe);
+			return length;
+		}
+
+		int[] moves = moveBuffers[depth];
+		int[] scores = scoreBuffers[depth];
+		int noOfMoves = position.generateMoves(moves);
+
+		// Score each Move by the Position it leads to, dropping Moves to
+		// Positions already searched
+		int kept = 0;
+		for (int index = 0; index < noOfMoves; index++)
+		{
+			int move = moves[index];
+			position.apply(move);
+			if (seen.add(position.key()))
+			{
+				moves[kept] = move;
+				scores[kept] = estimate(position);
+
+				// Add the Moves out of the way the pattern database says the
+				// Cards still need
+				if (patterns != null)
+					scores[kept] += patterns.lowerBound(position)
+							- (CardTable.NO_OF_CARDS - position.cardsOnFoundations());
+				kept++;
+			}
+			position.undo(move);
+		}
+		sortByScore(moves, scores, kept);
+
+		// Only a Position none of whose branches hit the depth limit is known
+		// to be a dead end
+		boolean cutBefore = cutOff;
+		cutOff = false;
+		for (int index = 0; index < kept; index++)
+		{
+			int move = moves[index];
+			position.apply(move);
+			path[depth] = move;
+			int length = search(depth + 1);
+			position.undo(move);
+			if (length >= 0 || outOfBudget)
+			{
+				cutOff |= cutBefore;
+				return length;
+			}
+		}
+		if (deadEnds != null && !cutOff)
+			deadEnds.add(position.key());
+		cutOff |= cutBefore;
+		return -1;
+	}
+
+	/**
+	 * Searches from the current Position for a solution moving no more than
+	 * a limit of Cards
+	 *
+	 * @param depth the number of Moves already on the path
+	 * @param moved the number of Cards moved by the Moves on the path
+	 * @param limit the most Cards a solution may move
+	 * @param bound the pattern database's lower bound for the Position
+	 * @return the length of the solution found, or -1 if there is none below
+	 *         this Position within the limit
+	 */
+	private int searchOptimal(int depth, int moved, int limit, int bound)
+	{
+		if (position.isSolved())
+			return depth;
+		int total = moved + bound;
+		if (total > limit)
+		{
+			nextLimit = Math.min(nextLimit, total);
+			return -1;
+		}
+		if (depth >= MAX_DEPTH)
+		{
+			cutOff = true;
+			return -1;
+		}
+
+		// A Position already reached this round with no more Cards moved has
+		// been searched with at least as much of the limit left
+		long key = position.key();
+		if (leastMoved.get(key, Integer.MAX_VALUE) <= moved)
+			return -1;
+		leastMoved.put(key, moved);
+
+		nodes++;
+		if (nodes > nodeBudget
+				|| (timeBudgetNanos >= 0 && (nodes & 0xFF) == 0 && System
+						.nanoTime() > deadline))
+		{
+			outOfBudget = true;
+			return -1;
+		}
+
+		int safe = position.safeFoundationMove();
+		if (safe >= 0)
+		{
+			position.apply(safe);
+			path[depth] = safe;
+			int length = searchOptimal(depth + 1, moved + 1, limit, patterns
+					.lowerBound(position));
+			position.undo(safe);
+			return length;
+		}
+
+		// Try the Moves with the lowest bounds first, so the last round
+		// finds its solution sooner
+		int[] moves = moveBuffers[depth];
+		int[] scores = scoreBuffers[depth];
+		int noOfMoves = position.generateMoves(moves);
+		for (int index = 0; index < noOfMoves; index++)
+		{
+			position.apply(moves[index]);
+			scores[index] = Position.count(moves[index])
+					+ patterns.lowerBound(position);
+			position.undo(moves[index]);
+		}
+		sortByScore(moves, scores, noOfMoves);
+
+		for (int index = 0; index < noOfMoves; index++)
+		{
+			int move = moves[index];
+			position.apply(move);
+			path[depth] = move;
+			int count = Position.count(move);
+			int length = searchOptimal(depth + 1, moved + count, limit,
+					scores[index] - count);
+			position.undo(move);
+			if (length >= 0 || outOfBudget)
+				return length;
+		}
+		return -1;
+	}
+
+	/**
+	 * Follows the tablebase's best Moves from the current Position to the
+	 * end, putting them on the path. The Position is left as it was
+	 *
+	 * @param depth the number of Moves already on the path
+	 * @return the length of the solution, or -1 if the Position cannot be
+	 *         won
+	 */
+	private int finishFromTablebase(int depth)
+	{
+		int end = depth;
+		int move = 0;
+		while (!position.isSolved() && end < MAX_DEPTH
+				&& (move = tablebase.bestMove(position, moveBuffers[end])) >= 0)
+		{
+			position.apply(move);
+			path[end++] = move;
+		}
+		int length = position.isSolved() ? end : -1;
+		if (length < 0 && end >= MAX_DEPTH)
+			cutOff = true;
+		while (end > depth)
+			position.undo(path[--end]);
+		return length;
+	}
+
+	/**
+	 * Estimates how far a Position is from being solved. Lower is better
+	 *
+	 * @param position the Position to estimate
+	 * @return the estimate
+	 */
+	static int estimate(Position position)
+	{
+		int score = 4 * (CardTable.NO_OF_CARDS - position.cardsOnFoundations());
+
+		// Count the Cards on top of the next Card needed for each Foundation
+		for (int cascade = 0; cascade < position.getNoOfCascades(); cascade++)
+		{
+			int height = position.height(cascade);
+			for (int index = 0; index < height; index++)
+			{
+				byte card = position.cardAt(cascade, index);
+				if (position.foundation(CardTable.suit(card)) + 1 == CardTable
+						.rank(card))
+					score += height - 1 - index;
+			}
+			if (height == 0)
+				score -= 4;
+		}
+		return score + 3
+				* (position.getNoOfFreecells() - position.emptyFreecells());
+	}
+
+	/**
+	 * Sorts Moves by their scores, lowest first. The lists are short so an
+	 * insertion sort is used
+	 *
+	 * @param moves the Moves to sort
+	 * @param scores the score of each Move
+	 * @param length the number of Moves
+	 */
+	private static void sortByScore(int[] moves, int[] scores, int length)
+	{
+		for (int index = 1; index < length; index++)
+		{
+			int move = moves[index];
+			int score = scores[index];
+			int insert = index - 1;
+			while (insert >= 0 && scores[insert] > score)
+			{
+				moves[insert + 1] = moves[insert];
+				scores[insert + 1] = scores[insert];
+				insert--;
+			}
+			moves[insert + 1] = move;
+			scores[insert + 1] = score;
+		}
+	}
+}
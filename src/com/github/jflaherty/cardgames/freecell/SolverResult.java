@@ -0,0 +1,95 @@
+package com.github.jflaherty.cardgames.freecell;
+
+/**
+ * Keeps track of the outcome of one Solver search: whether the Position was
+ * solved, the packed Moves of the solution and how much work the search took
+ */
+public class SolverResult
+{
+	// Possible outcomes of a search
+	public static final int SOLVED = 0;
+	public static final int UNSOLVABLE = 1;
+	public static final int GAVE_UP = 2;
+
+	private final int status;
+	private final int[] solution;
+	private final long nodes;
+	private final long elapsedNanos;
+
+	/**
+	 * Creates a new result
+	 *
+	 * @param status SOLVED, UNSOLVABLE or GAVE_UP
+	 * @param solution the packed Moves of the solution, or null if not solved
+	 * @param nodes the number of Positions expanded
+	 * @param elapsedNanos the time the search took in nanoseconds
+	 */
+	public SolverResult(int status, int[] solution, long nodes,
+			long elapsedNanos)
+	{
+		this.status = status;
+		this.solution = solution;
+		this.nodes = nodes;
+		this.elapsedNanos = elapsedNanos;
+	}
+
+	/**
+	 * Returns the outcome of the search
+	 *
+	 * @return SOLVED, UNSOLVABLE or GAVE_UP
+	 */
+	public int getStatus()
+	{
+		return status;
+	}
+
+	/**
+	 * Checks if a solution was found
+	 *
+	 * @return true if the Position was solved, false otherwise
+	 */
+	public boolean isSolved()
+	{
+		return status == SOLVED;
+	}
+
+	/**
+	 * Returns the solution
+	 *
+	 * @return the packed Moves of the solution, or null if not solved
+	 */
+	public int[] getSolution()
+	{
+		return solution;
+	}
+
+	/**
+	 * Returns the number of Moves in the solution
+	 *
+	 * @return the length of the solution, or -1 if not solved
+	 */
+	public int getLength()
+	{
+		return solution == null ? -1 : solution.length;
+	}
+
+	/**
+	 * Returns the number of Positions the search expanded
+	 *
+	 * @return the number of nodes expanded
+	 */
+	public long getNodes()
+	{
+		return nodes;
+	}
+
+	/**
+	 * Returns the time the search took
+	 *
+	 * @return the elapsed time in nanoseconds
+	 */
+	public long getElapsedNanos()
+	{
+		return elapsedNanos;
+	}
+}
@@ -0,0 +1,88 @@
+package com.github.jflaherty.cardgames.freecell;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Measures how long the game takes to start: the time from the JVM starting
+ * to the first frame of the table being painted, and to the game being
+ * interactive with every Card image loaded. Started with
+ * -Dfreecell.startup.benchmark=true the game prints both times and exits as
+ * soon as it is interactive, so a script can time many cold starts (see
+ * scripts/startup-benchmark.sh)
+ */
+public final class StartupTimer
+{
+	public static final boolean BENCHMARK = Boolean
+			.getBoolean("freecell.startup.benchmark");
+
+	private static volatile long firstFrameMillis = -1;
+	private static volatile long interactiveMillis = -1;
+
+	/**
+	 * The timer is never instantiated
+	 */
+	private StartupTimer()
+	{
+	}
+
+	/**
+	 * Returns the time since the JVM started
+	 *
+	 * @return the JVM uptime in milliseconds
+	 */
+	private static long uptime()
+	{
+		return ManagementFactory.getRuntimeMXBean().getUptime();
+	}
+
+	/**
+	 * Records that a frame has been painted. Only the first call counts
+	 */
+	public static void frameDrawn()
+	{
+		if (firstFrameMillis >= 0)
+			return;
+		firstFrameMillis = uptime();
+		checkInteractive();
+	}
+
+	/**
+	 * Records that another image has loaded, and if the first frame has been
+	 * drawn and every image is loaded records that the game is interactive
+	 */
+	public static synchronized void checkInteractive()
+	{
+		if (interactiveMillis >= 0 || firstFrameMillis < 0
+				|| !CardImages.allLoaded())
+			return;
+		interactiveMillis = uptime();
+		if (BENCHMARK)
+		{
+			System.out.println("time-to-first-frame-ms=" + firstFrameMillis);
+			System.out.println("time-to-interactive-ms=" + interactiveMillis);
+			System.exit(0);
+		}
+	}
+
+	/**
+	 * Returns the time to the first frame
+	 *
+	 * @return the JVM uptime at the first frame in milliseconds, or -1 if no
+	 *         frame has been drawn yet
+	 */
+	public static long getFirstFrameMillis()
+	{
+		return firstFrameMillis;
+	}
+
+	/**
+	 * Returns the time until the game was interactive
+	 *
+	 * @return the JVM uptime when the game became interactive in
+	 *         milliseconds, or -1 if it is not interactive yet
+	 */
+	public static long getInteractiveMillis()
+	{
+		return interactiveMillis;
+	}
+}
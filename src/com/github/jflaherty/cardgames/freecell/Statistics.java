@@ -9,6 +9,9 @@ import java.io.Serializable;
 public class Statistics implements Serializable
 {
 	private static final long serialVersionUID = 1L;
+
+	// Time taken to save the Statistics, only recorded when Metrics are on
+	private static final Histogram WRITE_TIME = Metrics.timer("stats.write");
 	
 	private int noOfGames, noOfWins;
 	private int currentStreak, longestStreak;
@@ -35,6 +38,7 @@ public class Statistics implements Serializable
 	 */
 	public void writeToFile(String fileName)
 	{
+		long start = Metrics.start();
 		// Since we may have trouble writing to the file, we
 		// should include a try catch block to catch any errors
 		try
@@ -49,6 +53,7 @@ public class Statistics implements Serializable
 		{
 			System.out.println("Error writing to the file");
 		}
+		WRITE_TIME.stop(start);
 	}
 
 	/**
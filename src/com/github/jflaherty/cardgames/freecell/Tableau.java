@@ -69,7 +69,10 @@ public class Tableau extends Cascade implements Movable
 	 */
 	public boolean canPlaceOn(FreeCellHand otherHand)
 	{
-		// Calculate the number of Cards that can be Moved
+		// Calculate the number of Cards that can be Moved. Variants without
+		// supermoves only move one Card at a time
+		if (!variant.hasSupermoves() && cardsLeft() > 1)
+			return false;
 		int cardsCanMove = 1 + FreeCell.getNoOfEmptyFreecells();
 		for (int i = openCascades; i > 0; i--)
 			cardsCanMove *= 2;
@@ -101,6 +104,17 @@ public class Tableau extends Cascade implements Movable
 		return getTopCard().canPlaceOn(otherHand);
 	}
 
+	/**
+	 * Returns the base Card of this Tableau, the Card that is placed directly
+	 * on the other Hand when this Tableau is moved
+	 * 
+	 * @return the base Card of this Tableau
+	 */
+	public FreeCellCard getBaseCard()
+	{
+		return (FreeCellCard) hand.get(0);
+	}
+
 	/**
 	 * Places the current Tableau of Cards on top of another Hand
 	 * 
@@ -108,12 +122,8 @@ public class Tableau extends Cascade implements Movable
 	 */
 	public void placeOn(FreeCellHand otherHand)
 	{
-		// Place all the Cards in the Tableau to the other Hand
-		for (int index = 0; index < cardsLeft(); index++)
-		{
-			FreeCellCard card = (FreeCellCard) hand.get(index);
-			card.placeOn(otherHand);
-		}
+		// Place all the Cards in the Tableau on the other Hand as one run
+		otherHand.addCards(hand);
 	}
 
 	/**
@@ -0,0 +1,304 @@
+package com.github.jflaherty.cardgames.freecell;
+
+/**
+ * Describes the rules of a FreeCell variant: how many Cascades and FreeCells
+ * there are, which Cards build on each other in the Cascades, whether runs of
+ * Cards can be moved together (supermoves) and what can go on an empty
+ * Cascade. All of the rule tables a variant needs are built when it is
+ * created, so checking a Move costs the same array lookup or mask whatever
+ * the variant. Variants are immutable and can be shared by any number of
+ * games and threads
+ */
+public final class Variant
+{
+	// Ways Cards build down in the Cascades
+	public static final int ALTERNATE_COLOURS = 0;
+	public static final int SAME_SUIT = 1;
+	public static final int ANY_SUIT = 2;
+
+	// The most Cascades and FreeCells a variant can have, so that every Hand
+	// index fits in the 5 bits a packed Move gives it
+	public static final int MAX_CASCADES = 12;
+	public static final int MAX_FREECELLS = 12;
+
+	// The usual game, with the classic Hand layout
+	public static final Variant CLASSIC = new Variant("FreeCell", 8, 4,
+			ALTERNATE_COLOURS, true, false, 0);
+	public static final Variant BAKERS_GAME = new Variant("Baker's Game", 8, 4,
+			SAME_SUIT, true, false, 0);
+	public static final Variant EIGHT_OFF = new Variant("Eight Off", 8, 8,
+			SAME_SUIT, true, true, 4);
+	public static final Variant TWO_CELL = new Variant("Two Cell FreeCell", 8,
+			2, ALTERNATE_COLOURS, true, false, 0);
+
+	private static final Variant[] VARIANTS = { CLASSIC, BAKERS_GAME,
+			EIGHT_OFF, TWO_CELL };
+
+	private final String name;
+	private final int noOfCascades;
+	private final int noOfFreecells;
+	private final int building;
+	private final boolean supermoves;
+	private final boolean kingsOnlyOnEmpty;
+	private final int noOfDealtToFreecells;
+
+	// stacksOn[a] has bit b set if Card a can go on Card b in a Cascade
+	// and accepts[b] is the transpose: the Cards that can go on Card b
+	private final long[] stacksOn = new long[CardTable.NO_OF_CARDS];
+	private final long[] accepts = new long[CardTable.NO_OF_CARDS];
+	private final long emptyCascadeAccepts;
+
+	/**
+	 * Creates a variant
+	 *
+	 * @param name the name of the variant
+	 * @param noOfCascades the number of Cascades, 1 to MAX_CASCADES
+	 * @param noOfFreecells the number of FreeCells, 0 to MAX_FREECELLS
+	 * @param building ALTERNATE_COLOURS, SAME_SUIT or ANY_SUIT
+	 * @param supermoves true if a run of Cards can be moved at once when there
+	 *            are enough empty FreeCells and Cascades to move it one Card
+	 *            at a time, false if only single Cards can be moved
+	 * @param kingsOnlyOnEmpty true if only kings (and runs starting with a
+	 *            king) can go on an empty Cascade
+	 * @param noOfDealtToFreecells the number of Cards dealt to the FreeCells
+	 *            after the Cascades, at most noOfFreecells
+	 */
+	public Variant(String name, int noOfCascades, int noOfFreecells,
+			int building, boolean supermoves, boolean kingsOnlyOnEmpty,
+			int noOfDealtToFreecells)
+	{
+		if (noOfCascades < 1 || noOfCascades > MAX_CASCADES
+				|| noOfFreecells < 0 || noOfFreecells > MAX_FREECELLS
+				|| noOfDealtToFreecells < 0
+				|| noOfDealtToFreecells > noOfFreecells
+				|| building < ALTERNATE_COLOURS || building > ANY_SUIT)
+			throw new IllegalArgumentException("Bad variant " + name);
+		this.name = name;
+		this.noOfCascades = noOfCascades;
+		this.noOfFreecells = noOfFreecells;
+		this.building = building;
+		this.supermoves = supermoves;
+		this.kingsOnlyOnEmpty = kingsOnlyOnEmpty;
+		this.noOfDealtToFreecells = noOfDealtToFreecells;
+
+		long kings = 0;
+		for (byte id = 0; id < CardTable.NO_OF_CARDS; id++)
+		{
+			for (byte other = 0; other < CardTable.NO_OF_CARDS; other++)
+			{
+				if (builds(id, other))
+				{
+					stacksOn[id] |= CardTable.bit(other);
+					accepts[other] |= CardTable.bit(id);
+				}
+			}
+			if (CardTable.rank(id) == CardTable.NO_OF_RANKS)
+				kings |= CardTable.bit(id);
+		}
+		emptyCascadeAccepts = kingsOnlyOnEmpty ? kings : MoveTables.ALL_CARDS;
+	}
+
+	/**
+	 * Checks if one Card builds on another under this variant's building rule
+	 */
+	private boolean builds(byte id, byte other)
+	{
+		if (CardTable.rank(id) + 1 != CardTable.rank(other))
+			return false;
+		if (building == SAME_SUIT)
+			return CardTable.suit(id) == CardTable.suit(other);
+		if (building == ALTERNATE_COLOURS)
+			return CardTable.colour(id) != CardTable.colour(other);
+		return true;
+	}
+
+	/**
+	 * Finds one of the built in variants by name, ignoring case
+	 *
+	 * @param name the name of the variant
+	 * @return the variant, or null if there is no variant with the name
+	 */
+	public static Variant forName(String name)
+	{
+		for (Variant variant : VARIANTS)
+		{
+			if (variant.name.equalsIgnoreCase(name))
+				return variant;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the built in variants
+	 *
+	 * @return a copy of the array of built in variants
+	 */
+	public static Variant[] getVariants()
+	{
+		return VARIANTS.clone();
+	}
+
+	/**
+	 * Returns the name of the variant
+	 *
+	 * @return the name
+	 */
+	public String getName()
+	{
+		return name;
+	}
+
+	/**
+	 * Returns the number of Cascades
+	 *
+	 * @return the number of Cascades
+	 */
+	public int getNoOfCascades()
+	{
+		return noOfCascades;
+	}
+
+	/**
+	 * Returns the number of FreeCells
+	 *
+	 * @return the number of FreeCells
+	 */
+	public int getNoOfFreecells()
+	{
+		return noOfFreecells;
+	}
+
+	/**
+	 * Returns how Cards build down in the Cascades
+	 *
+	 * @return ALTERNATE_COLOURS, SAME_SUIT or ANY_SUIT
+	 */
+	public int getBuilding()
+	{
+		return building;
+	}
+
+	/**
+	 * Checks if runs of Cards can be moved at once
+	 *
+	 * @return true if supermoves are allowed
+	 */
+	public boolean hasSupermoves()
+	{
+		return supermoves;
+	}
+
+	/**
+	 * Checks if only kings can go on an empty Cascade
+	 *
+	 * @return true if only kings can go on an empty Cascade
+	 */
+	public boolean isKingsOnlyOnEmpty()
+	{
+		return kingsOnlyOnEmpty;
+	}
+
+	/**
+	 * Returns the number of Cards dealt to the FreeCells after the Cascades
+	 *
+	 * @return the number of Cards dealt to the FreeCells
+	 */
+	public int getNoOfDealtToFreecells()
+	{
+		return noOfDealtToFreecells;
+	}
+
+	/**
+	 * Checks if a Card can be placed on another Card in a Cascade
+	 *
+	 * @param id the id of the Card to place
+	 * @param otherId the id of the Card to place it on
+	 * @return true if the Card builds on the other Card
+	 */
+	public boolean canStackOn(byte id, byte otherId)
+	{
+		return (stacksOn[id] & CardTable.bit(otherId)) != 0;
+	}
+
+	/**
+	 * Returns the top Cards that the given Card can be placed on
+	 *
+	 * @param id the id of the Card to move
+	 * @param topCards the bitboard of the top Cards of the Cascades
+	 * @return the subset of topCards that the Card can go on
+	 */
+	public long cascadeTargets(byte id, long topCards)
+	{
+		return stacksOn[id] & topCards;
+	}
+
+	/**
+	 * Returns the mask of Cards that can be placed on the given Card in a
+	 * Cascade
+	 *
+	 * @param id the id of the Card on top of a Cascade
+	 * @return the mask of Cards that can be placed on it
+	 */
+	public long accepts(byte id)
+	{
+		return accepts[id];
+	}
+
+	/**
+	 * Returns the mask of Cards that can be placed on an empty Cascade
+	 *
+	 * @return the mask of Cards
+	 */
+	public long emptyCascadeAccepts()
+	{
+		return emptyCascadeAccepts;
+	}
+
+	/**
+	 * Returns the number of Cards that can be moved at once
+	 *
+	 * @param emptyFreecells the number of empty FreeCells
+	 * @param emptyCascades the number of empty Cascades, not counting the one
+	 *            moved to
+	 * @return the most Cards that can be moved together
+	 */
+	public int maxMovable(int emptyFreecells, int emptyCascades)
+	{
+		if (!supermoves)
+			return 1;
+		return (1 + emptyFreecells) << emptyCascades;
+	}
+
+	/**
+	 * Checks if a Card that is next on its Foundation can go up without ever
+	 * being needed in a Cascade
+	 *
+	 * @param card the id of the Card
+	 * @param foundations the number of Cards on the Foundation of each suit
+	 * @return true if it is safe to move the Card to its Foundation
+	 */
+	public boolean isSafeToPlay(byte card, int[] foundations)
+	{
+		int rank = CardTable.rank(card);
+		if (rank <= 2 || building == SAME_SUIT)
+			return true;
+		int colour = CardTable.colour(card);
+		for (int suit = 0; suit < CardTable.NO_OF_SUITS; suit++)
+		{
+			if ((building == ANY_SUIT || CardTable.colour(CardTable.id(1, suit)) != colour)
+					&& foundations[suit] < rank - 1)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the name of the variant
+	 *
+	 * @return the name
+	 */
+	public String toString()
+	{
+		return name;
+	}
+}